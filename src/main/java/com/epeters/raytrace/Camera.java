@@ -4,7 +4,9 @@ import com.epeters.raytrace.utils.Vector;
 
 import static java.lang.Math.tan;
 import static java.lang.Math.toRadians;
+import static com.epeters.raytrace.utils.Utils.dot;
 import static com.epeters.raytrace.utils.Utils.randomVectorInUnitDisc;
+import static com.epeters.raytrace.utils.Vector.vec;
 
 /**
  * Represents the camera in the scene. Knows its position and dimensional details,
@@ -40,18 +42,44 @@ public final class Camera {
     }
 
     public Ray computeRay(double s, double t) {
+        return computeRay(s, t, 0.0, 0.0);
+    }
+
+    /**
+     * @param ds size of a pixel in s
+     * @param dt size of a pixel in t
+     * @return the ray through (s, t), with differentials for the rays through (s + ds, t) and
+     * (s, t + dt) from the same point on the lens, unless {@code ds} and {@code dt} are both 0
+     */
+    public Ray computeRay(double s, double t, double ds, double dt) {
 
+        double ox = origin.x();
+        double oy = origin.y();
+        double oz = origin.z();
         Vector o = origin;
         if (lensRadius > 0.0) {
-            Vector rando = randomVectorInUnitDisc().mul(lensRadius);
-            Vector offset = u.mul(rando.x()).plus(v.mul(rando.y()));
-            o = o.plus(offset);
+            Vector rando = randomVectorInUnitDisc();
+            double du = rando.x() * lensRadius;
+            double dv = rando.y() * lensRadius;
+            ox += u.x() * du + v.x() * dv;
+            oy += u.y() * du + v.y() * dv;
+            oz += u.z() * du + v.z() * dv;
+            o = vec(ox, oy, oz);
         }
 
-        Vector d = lowerLeft
-                .plus(horizontal.mul(s))
-                .plus(vertical.mul(t))
-                .minus(o);
-        return new Ray(o, d);
+        Vector direction = direction(s, t, ox, oy, oz);
+        if (ds == 0.0 && dt == 0.0) {
+            return new Ray(o, direction);
+        }
+        return new Ray(o, direction, o, direction(s + ds, t, ox, oy, oz), o, direction(s, t + dt, ox, oy, oz));
+    }
+
+    /** Direction from a point on the lens through (s, t), computed and normalized component-wise, so the ray doesn't have to */
+    private Vector direction(double s, double t, double ox, double oy, double oz) {
+        double dx = lowerLeft.x() + horizontal.x() * s + vertical.x() * t - ox;
+        double dy = lowerLeft.y() + horizontal.y() * s + vertical.y() * t - oy;
+        double dz = lowerLeft.z() + horizontal.z() * s + vertical.z() * t - oz;
+        double f = 1.0 / Math.sqrt(dot(dx, dy, dz));
+        return vec(dx * f, dy * f, dz * f);
     }
 }
@@ -34,5 +34,9 @@ public class Main {
         Tracer tracer = new Tracer(config);
         Renderer renderer = new Renderer(tracer, path, threads);
         Utils.time(renderer::render);
+        System.err.printf("%d samples taken (%.2f per pixel), checksum %016x%n",
+                renderer.getSamples(),
+                renderer.getSamples() / (double) (tracer.getImageWidth() * tracer.getImageHeight()),
+                renderer.getChecksum());
     }
 }
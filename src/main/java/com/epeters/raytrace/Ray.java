@@ -1,22 +1,187 @@
 package com.epeters.raytrace;
 
+import com.epeters.raytrace.utils.Axis;
 import com.epeters.raytrace.utils.Vector;
 
+import static com.epeters.raytrace.utils.Vector.vec;
+
 /**
  * Represents a ray in 3D space, characterized by an origin and a direction. Direction
- * is NOT normalized. Knows how to calculate a point along the line.
+ * is normalized on the way in. Knows how to calculate a point along the line.
+ *
+ * For slab tests against bounding boxes the ray also carries the reciprocal of each
+ * direction component (infinite for a zero component) and the octant of the direction:
+ * bit {@code axis} is set when the direction is negative along that axis. These are
+ * computed once here instead of at every box the ray visits.
  *
- * @param origin the origin of the ray
- * @param direction the direction of the ray (unit vector)
+ * A ray can also carry differentials: the rays through the neighbouring pixels to the right
+ * and above (see {@link Camera#computeRay(double, double, double, double)}). They say how big an
+ * area of the scene this ray stands for where it hits, which textures use to filter themselves
+ * (see {@link com.epeters.raytrace.hittables.Footprint}). They're only followed, not intersected.
  */
-public record Ray(Vector origin, Vector direction) {
+public final class Ray {
+
+    /** Directions that are already this close to unit length are used as they are */
+    public static final double UNIT_TOLERANCE = 1e-12;
 
+    private final Vector origin;
+    private final Vector direction;
+    private final double invX;
+    private final double invY;
+    private final double invZ;
+    private final int octant;
+    private final Vector rxOrigin;
+    private final Vector rxDirection;
+    private final Vector ryOrigin;
+    private final Vector ryDirection;
+
+    /**
+     * @param origin the origin of the ray
+     * @param direction the direction of the ray (need not be unit length)
+     */
     public Ray(Vector origin, Vector direction) {
+        this(origin, direction, null, null, null, null);
+    }
+
+    /**
+     * Ray with differentials; the offset rays are given the same way as the ray itself, and
+     * may all be null for a ray without them
+     */
+    public Ray(Vector origin, Vector direction, Vector rxOrigin, Vector rxDirection, Vector ryOrigin, Vector ryDirection) {
+        direction = unit(direction);
         this.origin = origin;
-        this.direction = direction.normalize();
+        this.direction = direction;
+        this.rxOrigin = rxOrigin;
+        this.rxDirection = rxDirection == null ? null : unit(rxDirection);
+        this.ryOrigin = ryOrigin;
+        this.ryDirection = ryDirection == null ? null : unit(ryDirection);
+        this.invX = 1.0 / direction.x();
+        this.invY = 1.0 / direction.y();
+        this.invZ = 1.0 / direction.z();
+        this.octant = (invX < 0.0 ? 1 : 0) | (invY < 0.0 ? 2 : 0) | (invZ < 0.0 ? 4 : 0);
+    }
+
+    private static Vector unit(Vector direction) {
+        double square = direction.square();
+        if (Math.abs(square - 1.0) >= UNIT_TOLERANCE) {
+            return direction.mul(1.0 / Math.sqrt(square));
+        }
+        return direction;
+    }
+
+    public Vector origin() {
+        return origin;
+    }
+
+    /** @return the direction of the ray (unit vector) */
+    public Vector direction() {
+        return direction;
+    }
+
+    /** @return true if the ray carries differentials */
+    public boolean hasDifferentials() {
+        return rxOrigin != null;
+    }
+
+    /** @return origin of the ray through the next pixel to the right (null without differentials) */
+    public Vector rxOrigin() {
+        return rxOrigin;
+    }
+
+    /** @return direction of the ray through the next pixel to the right (unit vector, or null) */
+    public Vector rxDirection() {
+        return rxDirection;
+    }
+
+    /** @return origin of the ray through the next pixel up (null without differentials) */
+    public Vector ryOrigin() {
+        return ryOrigin;
+    }
+
+    /** @return direction of the ray through the next pixel up (unit vector, or null) */
+    public Vector ryDirection() {
+        return ryDirection;
+    }
+
+    /** @return {@code 1 / direction().x()} */
+    public double invX() {
+        return invX;
+    }
+
+    /** @return {@code 1 / direction().y()} */
+    public double invY() {
+        return invY;
+    }
+
+    /** @return {@code 1 / direction().z()} */
+    public double invZ() {
+        return invZ;
+    }
+
+    /** @return the inverse of the direction component along {@code axis} */
+    public double inv(Axis axis) {
+        return switch (axis) {
+            case X -> invX;
+            case Y -> invY;
+            case Z -> invZ;
+        };
+    }
+
+    /** @return the direction signs as a bit mask, with bit {@code axis} set when negative along that axis */
+    public int octant() {
+        return octant;
+    }
+
+    /** @return 1 if the direction is negative along {@code axis} (0, 1 or 2 for x, y or z), otherwise 0 */
+    public int sign(int axis) {
+        return (octant >> axis) & 1;
     }
 
     public Vector at(double t) {
-        return origin.plus(direction.mul(t));
+        return vec(origin.x() + t * direction.x(), origin.y() + t * direction.y(), origin.z() + t * direction.z());
+    }
+
+    /**
+     * Branchless slab test against the box with the given corners. The near and far corner
+     * along each axis are picked by the direction sign rather than by comparing the two
+     * distances, so each axis costs two multiplies and nothing depends on the data until the
+     * final comparison. A ray that starts on one of the box's planes and runs along it gets
+     * 0 * infinity = NaN for that axis; that axis is skipped (see {@link #slabMax}), so the
+     * ray counts as inside that slab rather than missing the box.
+     *
+     * @return true if the ray passes through the box somewhere within {@code tmin .. tmax}
+     */
+    public boolean hitsBox(double minX, double minY, double minZ, double maxX, double maxY, double maxZ, double tmin, double tmax) {
+
+        double ox = origin.x();
+        double oy = origin.y();
+        double oz = origin.z();
+
+        boolean nx = (octant & 1) != 0;
+        boolean ny = (octant & 2) != 0;
+        boolean nz = (octant & 4) != 0;
+
+        double t0 = slabMax(((nx ? maxX : minX) - ox) * invX,
+                slabMax(((ny ? maxY : minY) - oy) * invY,
+                slabMax(((nz ? maxZ : minZ) - oz) * invZ, tmin)));
+        double t1 = slabMin(((nx ? minX : maxX) - ox) * invX,
+                slabMin(((ny ? minY : maxY) - oy) * invY,
+                slabMin(((nz ? minZ : maxZ) - oz) * invZ, tmax)));
+        return t0 < t1;
+    }
+
+    /** @return the larger of {@code t} and {@code bound}, or {@code bound} if {@code t} is NaN (unlike {@link Math#max}) */
+    private static double slabMax(double t, double bound) {
+        return t > bound ? t : bound;
+    }
+
+    /** @return the smaller of {@code t} and {@code bound}, or {@code bound} if {@code t} is NaN (unlike {@link Math#min}) */
+    private static double slabMin(double t, double bound) {
+        return t < bound ? t : bound;
+    }
+
+    @Override
+    public String toString() {
+        return "Ray[origin=" + origin + ", direction=" + direction + "]";
     }
 }
@@ -2,6 +2,7 @@ package com.epeters.raytrace;
 
 import com.epeters.raytrace.hittables.Hittable;
 import com.epeters.raytrace.utils.Color;
+import com.epeters.raytrace.utils.Sampler;
 import com.epeters.raytrace.utils.Vector;
 
 import java.util.ArrayList;
@@ -23,11 +24,53 @@ public class SceneConfig extends ArrayList<Hittable> {
     public double aperture = 0.0;
     public int imageWidth = 600;
     public int samplesPerPixel = 100;
+    /**
+     * Times the whole image is rendered, each adding {@link #samplesPerPixel} samples per pixel
+     * (or another round of adaptive sampling); a checkpointed render can be resumed with more
+     * passes to add samples to it
+     */
+    public int passes = 1;
+    /** Error target for adaptive sampling (in 0-1 output units); 0 disables it and uses {@link #samplesPerPixel} */
+    public double adaptiveThreshold = 0.0;
+    public int minSamplesPerPixel = 16;
+    public int maxSamplesPerPixel = 400;
     public int bouncesPerPixel = 10;
+    public Tracer.Integrator integrator = Tracer.Integrator.RECURSIVE;
+    /** Bounces before Russian roulette starts (only used by {@link Tracer.Integrator#ITERATIVE}) */
+    public int rouletteDepth = 5;
+    /** Where the random numbers for each sample come from */
+    public Sampler.Type sampler = Sampler.Type.SOBOL;
+    /** Every sample's random numbers come from this plus the pixel and sample number, so the same seed renders the same image */
+    public long seed = 0L;
     public Color defaultColor = RED;
     public Hittable light = null;
     public Function<Ray, Color> backgroundColor = (r) -> {
         double t = 0.5f * (r.direction().normalize().y() + 1.0);
         return WHITE.mul(1.0 - t).plus(SKY_BLUE.mul(t));
     };
+
+    /**
+     * @return a hash of the settings that decide what each sample of a render comes out as,
+     * so a checkpoint isn't resumed with a different scene. Objects and functions can't be
+     * compared, so each object counts by its class and bounds: moving, resizing, adding or
+     * removing one changes the hash, but changing its material or texture (or the background
+     * function) doesn't, and such a checkpoint has to be deleted by hand. {@link #passes} is
+     * left out, since that's what changes when a render is resumed to add samples.
+     */
+    public long fingerprint() {
+        StringBuilder text = new StringBuilder();
+        for (Object value : new Object[] { position, target, up, aspectRatio, fieldOfView, aperture,
+                imageWidth, samplesPerPixel, adaptiveThreshold, minSamplesPerPixel, maxSamplesPerPixel,
+                bouncesPerPixel, integrator, rouletteDepth, sampler, seed, defaultColor, light }) {
+            text.append(value == null ? "null" : value instanceof Hittable ? value.getClass().getName() : value).append(';');
+        }
+        for (Hittable hittable : this) {
+            text.append(hittable.getClass().getName()).append(hittable.getBounds()).append(';');
+        }
+        long hash = 0L;
+        for (int i=0; i<text.length(); i++) {
+            hash = Sampler.hash64(hash + text.charAt(i));
+        }
+        return hash;
+    }
 }
@@ -1,15 +1,20 @@
 package com.epeters.raytrace;
 
-import com.epeters.raytrace.hittables.HittableVolume;
+import com.epeters.raytrace.hittables.HittableBvh;
 import com.epeters.raytrace.hittables.Hittable;
+import com.epeters.raytrace.surfaces.BakedTexture;
 import com.epeters.raytrace.surfaces.Material;
 import com.epeters.raytrace.solids.Solids;
+import com.epeters.raytrace.solids.Sphere;
 import com.epeters.raytrace.surfaces.Texture;
 import com.epeters.raytrace.utils.Axis;
+import com.epeters.raytrace.utils.Box;
 import com.epeters.raytrace.utils.Color;
 import com.epeters.raytrace.utils.Mesh;
+import com.epeters.raytrace.utils.ObjReader;
 import com.epeters.raytrace.utils.Vector;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -21,6 +26,7 @@ import static com.epeters.raytrace.solids.Solids.rect;
 import static com.epeters.raytrace.solids.Solids.sphere;
 import static com.epeters.raytrace.solids.Solids.tsphere;
 import static com.epeters.raytrace.surfaces.Material.norm;
+import static com.epeters.raytrace.surfaces.Texture.baked;
 import static com.epeters.raytrace.surfaces.Texture.checker;
 import static com.epeters.raytrace.surfaces.Texture.image;
 import static com.epeters.raytrace.surfaces.Texture.noise;
@@ -66,23 +72,34 @@ public class Scenes {
     public static SceneConfig triangles() {
 
         Mesh mesh = new Mesh();
-        mesh.put("a", vec(-4.0, -4.0, -6.0));
-        mesh.put("b", vec(-4.0, 4.0, -6.0));
-        mesh.put("c", vec(4.0, -4.0, -7.0));
-        mesh.put("d", vec(4.0, 4.0, -7.0));
-        mesh.put("e", vec(0.0, 1.0, -3.0));
-        mesh.addTriangle("a", "b", "e");
-        mesh.addTriangle("b", "d", "e");
-        mesh.addTriangle("e", "c", "d");
+        int a = mesh.addVertex(vec(-4.0, -4.0, -6.0));
+        int b = mesh.addVertex(vec(-4.0, 4.0, -6.0));
+        int c = mesh.addVertex(vec(4.0, -4.0, -7.0));
+        int d = mesh.addVertex(vec(4.0, 4.0, -7.0));
+        int e = mesh.addVertex(vec(0.0, 1.0, -3.0));
+        mesh.addTriangle(a, b, e);
+        mesh.addTriangle(b, d, e);
+        mesh.addTriangle(e, c, d);
 
         SceneConfig config = new SceneConfig();
         config.add(tmesh(M_MID_GRAY, mesh));
         return config;
     }
 
+    /** @return the gourd model, with x and z swapped as this scene was set up for (see {@link Mesh#swapXZ()}) */
+    public static Mesh gourdMesh() {
+        try {
+            Mesh mesh = ObjReader.readFile("/gourd.obj");
+            mesh.swapXZ();
+            return mesh;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     public static SceneConfig gourd() {
         SceneConfig config = new SceneConfig();
-        config.add(tmesh(norm(), "/gourd.obj"));
+        config.add(tmesh(norm(), gourdMesh()));
         config.position = vec(0.0, 0.0, 4.0);
         config.target = vec(0.0, 0.0, 3.0);
         return config;
@@ -300,6 +317,24 @@ public class Scenes {
         return config;
     }
 
+    /**
+     * Same as {@link #marbleSphere()}, with the marble baked into an atlas over the surface of
+     * the sphere and a grid around the ground near it
+     */
+    public static SceneConfig bakedMarbleSphere() {
+        Texture marble = turbulence(WHITE, 4.0, 7);
+        Vector center = vec(0.0, 2.0, 0.0);
+        BakedTexture ball = BakedTexture.atlas(marble, 1024, 512, new Sphere(null, center, 2.0)::pointAt);
+        BakedTexture ground = baked(marble, new Box(vec(-12.0, -0.1, -12.0), vec(12.0, 0.01, 12.0)), 512);
+        SceneConfig config = new SceneConfig();
+        config.add(sphere(vec(0.0, -1000.0, 0.0), 1000.0, lambertian(ground)));
+        config.add(new Sphere(lambertian(ball), center, 2.0));
+        config.position = vec(13,2,3);
+        config.target = vec(0,0,0);
+        config.fieldOfView = 20.0;
+        return config;
+    }
+
     // ====================================================================================
     // image textures
     // ====================================================================================
@@ -409,7 +444,7 @@ public class Scenes {
         for (int i = 0; i < 1000; i++) {
             boxes2.add(sphere(randomVector(0, 165), 10, offwhite));
         }
-        Hittable list = HittableVolume.from(boxes2);
+        Hittable list = HittableBvh.from(boxes2);
         list = list.translate(vec(-100, 270, 395));
         list = list.rotate(Axis.Y, 15);
         config.add(list);
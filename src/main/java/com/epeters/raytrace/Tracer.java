@@ -1,41 +1,98 @@
 package com.epeters.raytrace;
 
-import com.epeters.raytrace.hittables.HittableVolume;
+import com.epeters.raytrace.hittables.HittableBvh;
 import com.epeters.raytrace.hittables.Hit;
+import com.epeters.raytrace.hittables.HitQuery;
 import com.epeters.raytrace.hittables.Scatter;
 import com.epeters.raytrace.hittables.Hittable;
+import com.epeters.raytrace.renderer.Framebuffer;
 import com.epeters.raytrace.surfaces.Material;
 import com.epeters.raytrace.utils.Color;
 import com.epeters.raytrace.utils.Pdf;
+import com.epeters.raytrace.utils.Sampler;
+import com.epeters.raytrace.utils.Utils;
+import com.epeters.raytrace.utils.Vector;
 
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 
 import static com.epeters.raytrace.utils.Color.BLACK;
 import static com.epeters.raytrace.utils.Utils.coalesce;
 import static com.epeters.raytrace.utils.Utils.random;
+import static com.epeters.raytrace.utils.Utils.randomCosineDirection;
+import static com.epeters.raytrace.utils.Utils.sqrt;
 
 public final class Tracer {
 
+    /** Which algorithm to use for following a path through the scene */
+    public enum Integrator {
+        /** One recursive call per bounce (see {@link #computeColor}) */
+        RECURSIVE,
+        /** Loop with a throughput accumulator and Russian roulette (see {@link #computeColorIterative}) */
+        ITERATIVE,
+        /** Same loop, plus a shadow ray to the light at every diffuse hit (see {@link #computeColorNee}) */
+        NEE
+    }
+
+    /** Upper bound for the Russian roulette survival probability, so bright paths still end */
+    public static final double MAX_SURVIVAL = 0.95;
+
+    /** z-score for the 95% confidence interval used by adaptive sampling */
+    public static final double CONFIDENCE_Z = 1.96;
+
+    /** Floor for the pixel mean in the adaptive error test, so black pixels can converge */
+    public static final double MIN_LUMINANCE = 0.01;
+
+    /** Shadow rays stop this fraction short of the light, so they don't hit the light itself */
+    public static final double SHADOW_EPSILON = 1e-6;
+
     private final int samplesPerPixel;
+    private final int minSamplesPerPixel;
+    private final int maxSamplesPerPixel;
+    private final double adaptiveThreshold;
+    private final Integrator integrator;
+    private final int rouletteDepth;
+    private final LongAdder rayCount;
     private final int bouncesPerPixel;
-    private final double sampleScale;
     private final Camera camera;
     private final Hittable world;
     private final int imageWidth;
     private final int imageHeight;
     private final Function<Ray,Color> backgroundColor;
     private final Hittable light;
+    private final ThreadLocal<Sampler> samplers;
+    private final int passes;
+    private final long fingerprint;
+    private final double pixelWidth;
+    private final double pixelHeight;
 
     public Tracer(SceneConfig config) {
         this.samplesPerPixel = config.samplesPerPixel;
+        this.minSamplesPerPixel = Math.max(2, config.minSamplesPerPixel);
+        this.maxSamplesPerPixel = Math.max(minSamplesPerPixel, config.maxSamplesPerPixel);
+        this.adaptiveThreshold = config.adaptiveThreshold;
+        this.integrator = config.integrator;
+        this.rouletteDepth = config.rouletteDepth;
+        this.rayCount = new LongAdder();
         this.bouncesPerPixel = config.bouncesPerPixel;
-        this.sampleScale = 1.0 / samplesPerPixel;
         this.camera = new Camera(config);
-        this.world = HittableVolume.from(config);
+        this.world = HittableBvh.from(config);
         this.imageWidth = config.imageWidth;
         this.imageHeight = (int)(imageWidth / config.aspectRatio);
         this.backgroundColor = config.backgroundColor;
         this.light = config.light;
+        Sampler.Type samplerType = config.sampler;
+        long seed = config.seed;
+        this.samplers = ThreadLocal.withInitial(() -> samplerType.create(seed));
+        this.passes = config.passes;
+        this.fingerprint = config.fingerprint();
+
+        // each sample only stands for its share of the pixel, so the differentials shrink as
+        // samples are added (as in pbrt), down to an eighth of a pixel
+        int samples = adaptiveThreshold > 0.0 ? minSamplesPerPixel : samplesPerPixel * passes;
+        double share = Math.max(0.125, 1.0 / sqrt(Math.max(1, samples)));
+        this.pixelWidth = share / (imageWidth - 1);
+        this.pixelHeight = share / (imageHeight - 1);
     }
 
     public int getImageWidth() {
@@ -46,21 +103,118 @@ public final class Tracer {
         return imageHeight;
     }
 
-    /** Renders a single pixel of the output image */
-    public Color renderPixel(int x, int y) {
+    /** @return number of times the whole image gets rendered (see {@link SceneConfig#passes}) */
+    public int getPasses() {
+        return passes;
+    }
+
+    /** @return the {@link SceneConfig#fingerprint()} of the scene */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /** @return number of rays intersected with the scene so far */
+    public long getRayCount() {
+        return rayCount.sum();
+    }
+
+    /**
+     * Renders a single pixel of the output image, adding the samples to the supplied buffer.
+     * Coordinates are image coordinates, so row 0 is the top of the image. Sample numbers carry
+     * on from the samples the buffer already has for the pixel, so rendering the same pixel
+     * again adds new samples rather than repeating the old ones.
+     */
+    public void renderPixel(Framebuffer buffer, int x, int row) {
+        Sampler previous = Utils.setSampler(samplers.get());
+        try {
+            if (adaptiveThreshold > 0.0) {
+                renderPixelAdaptive(buffer, x, row);
+            } else {
+                renderPixelFixed(buffer, x, row);
+            }
+        } finally {
+            Utils.setSampler(previous);
+        }
+    }
+
+    private void renderPixelFixed(Framebuffer buffer, int x, int row) {
 
-        Color color = Color.BLACK;
+        int y = imageHeight - 1 - row;
+        int first = buffer.sampleCount(x, row);
+        double r = 0.0;
+        double g = 0.0;
+        double b = 0.0;
 
         for (int s=0; s<samplesPerPixel; s++) {
+            Color color = samplePixel(x, y, first + s);
+            r += color.r();
+            g += color.g();
+            b += color.b();
+        }
+
+        buffer.add(x, row, r, g, b, samplesPerPixel);
+    }
+
+    /**
+     * Adaptive version of {@link #renderPixel}. Tracks the mean and variance of sample luminance
+     * (using Welford's online algorithm) and stops once the 95% confidence interval, converted to
+     * gamma-corrected output units, is narrower than {@code adaptiveThreshold}. Converged pixels
+     * stop at {@code minSamplesPerPixel}; noisy ones keep going up to {@code maxSamplesPerPixel}.
+     * The test only runs after each batch of {@code minSamplesPerPixel} samples, which keeps
+     * pixels from stopping on a lucky streak of similar samples.
+     *
+     * @see <a href="https://en.wikipedia.org/wiki/Algorithms_for_calculating_variance#Welford's_online_algorithm">Welford</a>
+     */
+    private void renderPixelAdaptive(Framebuffer buffer, int x, int row) {
+
+        int y = imageHeight - 1 - row;
+        int first = buffer.sampleCount(x, row);
+        double r = 0.0;
+        double g = 0.0;
+        double b = 0.0;
+        double mean = 0.0;
+        double m2 = 0.0;
+        int n = 0;
 
-            double u = (x + random(-0.5, 0.5)) / (double) (imageWidth - 1);
-            double v = (y + random(-0.5, 0.5)) / (double) (imageHeight - 1);
-            Ray ray = camera.computeRay(u, v);
+        while (n < maxSamplesPerPixel) {
 
-            color = color.plus(computeColor(ray, bouncesPerPixel));
+            Color color = samplePixel(x, y, first + n);
+            r += color.r();
+            g += color.g();
+            b += color.b();
+
+            double lum = 0.2126 * color.r() + 0.7152 * color.g() + 0.0722 * color.b();
+            n++;
+            double delta = lum - mean;
+            mean += delta / n;
+            m2 += delta * (lum - mean);
+
+            if (n % minSamplesPerPixel == 0) {
+                // output is sqrt(mean), so an error e in the mean shows up as e / (2 * sqrt(mean))
+                double error = CONFIDENCE_Z * sqrt(m2 / ((n - 1) * (double) n));
+                if (error <= adaptiveThreshold * 2.0 * sqrt(Math.max(mean, MIN_LUMINANCE))) {
+                    break;
+                }
+            }
         }
 
-        return color.normalize(samplesPerPixel);
+        buffer.add(x, row, r, g, b, n);
+    }
+
+    /**
+     * Traces one jittered camera ray through pixel (x, y), where y counts up from the bottom.
+     * The jitter comes first, so it gets the best distributed dimensions of the sample.
+     */
+    private Color samplePixel(int x, int y, int index) {
+        Utils.getSampler().startSample(x, y, index);
+        double u = (x + random(-0.5, 0.5)) / (double) (imageWidth - 1);
+        double v = (y + random(-0.5, 0.5)) / (double) (imageHeight - 1);
+        Ray ray = camera.computeRay(u, v, pixelWidth, pixelHeight);
+        return switch (integrator) {
+            case RECURSIVE -> computeColor(ray, bouncesPerPixel);
+            case ITERATIVE -> computeColorIterative(ray);
+            case NEE -> light == null ? computeColorIterative(ray) : computeColorNee(ray);
+        };
     }
 
     /** Determines the color of the scene at the point hit by the specified ray */
@@ -72,6 +226,7 @@ public final class Tracer {
         }
 
         // if we don't hit, this ray will contribute the background color
+        rayCount.increment();
         Hit hit = world.intersect(ray, 1e-8, Double.MAX_VALUE);
         if (hit == null) {
             return backgroundColor.apply(ray);
@@ -92,8 +247,13 @@ public final class Tracer {
 
                 Ray bounceRay = new Ray(hit.point(), pdf.generate());
                 Color bounceColor = computeColor(bounceRay, bouncesRemaining - 1);
-                double pmf = material.computeScatterPdf(ray, hit, bounceRay);
-                return scatter.emission().plus(scatter.attenuation().mul(pmf).mul(bounceColor).div(pdf.value(bounceRay.direction())));
+                double weight = material.computeScatterPdf(ray, hit, bounceRay) / pdf.value(bounceRay.direction());
+                Color emission = scatter.emission();
+                Color attenuation = scatter.attenuation();
+                return Color.color(
+                        emission.r() + attenuation.r() * weight * bounceColor.r(),
+                        emission.g() + attenuation.g() * weight * bounceColor.g(),
+                        emission.b() + attenuation.b() * weight * bounceColor.b());
             }
 
             case SPECULAR:
@@ -103,4 +263,226 @@ public final class Tracer {
 
         throw new UnsupportedOperationException();
     }
+
+    /**
+     * Non-recursive equivalent of {@link #computeColor}. Instead of multiplying colors on the way
+     * back up the stack, it carries the product of all attenuation so far (the path throughput)
+     * forwards and adds emission to the result as soon as it is found.
+     *
+     * After {@code rouletteDepth} bounces, each path survives with a probability equal to the
+     * brightest channel of the product of surface albedos along it, and survivors are scaled up
+     * by the inverse of that probability. Dark paths end early, and the expected value stays the
+     * same, so the estimate is unbiased. (The full throughput also includes the pdf weights of
+     * light sampling, which are small exactly for the paths that are about to hit the light, so
+     * using it for roulette adds a lot of noise.)
+     * Unlike the recursive version this one follows specular bounces, and it falls back to plain
+     * cosine sampling if the scene has no light.
+     *
+     * @see <a href="https://www.pbr-book.org/3ed-2018/Monte_Carlo_Integration/Russian_Roulette_and_Splitting">Russian roulette</a>
+     */
+    private Color computeColorIterative(Ray ray) {
+
+        double r = 0.0;
+        double g = 0.0;
+        double b = 0.0;
+        double tr = 1.0;
+        double tg = 1.0;
+        double tb = 1.0;
+        double albedo = 1.0;
+
+        for (int depth=0; depth<bouncesPerPixel; depth++) {
+
+            rayCount.increment();
+            Hit hit = world.intersect(ray, 1e-8, Double.MAX_VALUE);
+            if (hit == null) {
+                Color background = backgroundColor.apply(ray);
+                r += tr * background.r();
+                g += tg * background.g();
+                b += tb * background.b();
+                break;
+            }
+
+            Material material = hit.material();
+            Scatter scatter = material.computeScatter(ray, hit);
+            if (scatter.type() == Scatter.Type.EMISSIVE) {
+                r += tr * scatter.emission().r();
+                g += tg * scatter.emission().g();
+                b += tb * scatter.emission().b();
+                break;
+            }
+
+            Color attenuation = scatter.attenuation();
+            albedo *= Math.max(attenuation.r(), Math.max(attenuation.g(), attenuation.b()));
+            if (scatter.type() == Scatter.Type.DIFFUSE) {
+
+                // same mixture as Pdf.mix(Pdf.hittable(light), Pdf.cosine(normal)), inlined
+                Vector point = hit.point();
+                Vector direction = (light == null || random() >= 0.5)
+                        ? randomCosineDirection(hit.normal())
+                        : light.directionTowards(point);
+                Ray bounceRay = new Ray(point, direction);
+
+                double cos = bounceRay.direction().dot(hit.normal());
+                double pdf = (cos <= 0.0) ? 0.0 : cos / Math.PI;
+                if (light != null) {
+                    pdf = 0.5 * (pdf + light.pdfValue(point, bounceRay.direction()));
+                }
+
+                double weight = material.computeScatterPdf(ray, hit, bounceRay) / pdf;
+                tr *= attenuation.r() * weight;
+                tg *= attenuation.g() * weight;
+                tb *= attenuation.b() * weight;
+                ray = bounceRay;
+            } else {
+                tr *= attenuation.r();
+                tg *= attenuation.g();
+                tb *= attenuation.b();
+                ray = material.scatterRay(ray, hit, scatter);
+            }
+
+            if (depth + 1 >= rouletteDepth) {
+                double survival = Math.min(MAX_SURVIVAL, albedo);
+                if (!(random() < survival)) {
+                    break;
+                }
+                tr /= survival;
+                tg /= survival;
+                tb /= survival;
+                albedo /= survival;
+            }
+        }
+
+        return Color.color(r, g, b);
+    }
+
+    /**
+     * Version of {@link #computeColorIterative} with next event estimation. At each diffuse hit
+     * it picks a point on the light and checks it with a shadow ray (see {@link Hittable#occluded}),
+     * then carries on with a cosine-weighted bounce. Light can then be found both ways, so each
+     * is weighted with the balance heuristic: a light sample by pl / (pl + pb), and a bounce
+     * that runs into an emitter by pb / (pb + pl), where pl and pb are the densities of light
+     * and bounce sampling for that direction. Emitters other than the light have pl = 0, so
+     * bounces find them at full weight.
+     *
+     * @see <a href="https://www.pbr-book.org/3ed-2018/Light_Transport_I_Surface_Reflection/Sampling_Light_Sources">light sampling</a>
+     */
+    private Color computeColorNee(Ray ray) {
+
+        double r = 0.0;
+        double g = 0.0;
+        double b = 0.0;
+        double tr = 1.0;
+        double tg = 1.0;
+        double tb = 1.0;
+        double albedo = 1.0;
+
+        // density of the diffuse bounce that produced the current ray (0 for camera and specular rays)
+        double bouncePdf = 0.0;
+        Vector bounceOrigin = null;
+
+        for (int depth=0; depth<bouncesPerPixel; depth++) {
+
+            rayCount.increment();
+            Hit hit = world.intersect(ray, 1e-8, Double.MAX_VALUE);
+            if (hit == null) {
+                Color background = backgroundColor.apply(ray);
+                r += tr * background.r();
+                g += tg * background.g();
+                b += tb * background.b();
+                break;
+            }
+
+            Material material = hit.material();
+            Scatter scatter = material.computeScatter(ray, hit);
+            if (scatter.type() == Scatter.Type.EMISSIVE) {
+                double weight = 1.0;
+                if (bouncePdf > 0.0) {
+                    weight = bouncePdf / (bouncePdf + light.pdfValue(bounceOrigin, ray.direction()));
+                }
+                r += tr * weight * scatter.emission().r();
+                g += tg * weight * scatter.emission().g();
+                b += tb * weight * scatter.emission().b();
+                break;
+            }
+
+            Color attenuation = scatter.attenuation();
+            albedo *= Math.max(attenuation.r(), Math.max(attenuation.g(), attenuation.b()));
+            if (scatter.type() == Scatter.Type.DIFFUSE) {
+
+                Vector point = hit.point();
+                Vector normal = hit.normal();
+
+                // direct light: one sample on the light, if nothing is in the way
+                Ray shadowRay = new Ray(point, light.directionTowards(point));
+                double lightPdf = light.pdfValue(point, shadowRay.direction());
+                double scatterPdf = material.computeScatterPdf(ray, hit, shadowRay);
+                if (lightPdf > 0.0 && scatterPdf > 0.0) {
+                    Color emission = lightEmission(shadowRay);
+                    if (emission != null) {
+                        double cos = shadowRay.direction().dot(normal);
+                        double weight = scatterPdf / (lightPdf + (cos <= 0.0 ? 0.0 : cos / Math.PI));
+                        r += tr * attenuation.r() * weight * emission.r();
+                        g += tg * attenuation.g() * weight * emission.g();
+                        b += tb * attenuation.b() * weight * emission.b();
+                    }
+                }
+
+                // indirect light: carry on with a cosine-weighted bounce
+                Ray bounceRay = new Ray(point, randomCosineDirection(normal));
+                double cos = bounceRay.direction().dot(normal);
+                if (cos <= 0.0) {
+                    break;
+                }
+                bouncePdf = cos / Math.PI;
+                bounceOrigin = point;
+
+                double weight = material.computeScatterPdf(ray, hit, bounceRay) / bouncePdf;
+                tr *= attenuation.r() * weight;
+                tg *= attenuation.g() * weight;
+                tb *= attenuation.b() * weight;
+                ray = bounceRay;
+            } else {
+                tr *= attenuation.r();
+                tg *= attenuation.g();
+                tb *= attenuation.b();
+                bouncePdf = 0.0;
+                ray = material.scatterRay(ray, hit, scatter);
+            }
+
+            if (depth + 1 >= rouletteDepth) {
+                double survival = Math.min(MAX_SURVIVAL, albedo);
+                if (!(random() < survival)) {
+                    break;
+                }
+                tr /= survival;
+                tg /= survival;
+                tb /= survival;
+                albedo /= survival;
+            }
+        }
+
+        return Color.color(r, g, b);
+    }
+
+    /**
+     * @return the light's emission at the end of {@code shadowRay}, or null if the ray misses the
+     * light or something is in the way. Only the distance to the light is worked out, not a full
+     * hit, and the emission comes straight from the light's material where it can.
+     */
+    private Color lightEmission(Ray shadowRay) {
+        HitQuery query = HitQuery.acquire(Double.MAX_VALUE);
+        try {
+            light.closest(shadowRay, 1e-8, query);
+            if (query.isEmpty()) {
+                return null;
+            }
+            rayCount.increment();
+            if (world.occluded(shadowRay, 1e-8, query.t() * (1.0 - SHADOW_EPSILON))) {
+                return null;
+            }
+            return query.emission(shadowRay);
+        } finally {
+            query.release();
+        }
+    }
 }
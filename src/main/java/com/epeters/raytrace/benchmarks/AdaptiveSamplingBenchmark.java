@@ -0,0 +1,57 @@
+package com.epeters.raytrace.benchmarks;
+
+import com.epeters.raytrace.SceneConfig;
+import com.epeters.raytrace.Scenes;
+import com.epeters.raytrace.Tracer;
+import com.epeters.raytrace.renderer.Framebuffer;
+import com.epeters.raytrace.renderer.Renderer;
+
+import java.util.function.Consumer;
+
+/**
+ * Compares fixed sampling against adaptive sampling on the Cornell box. Both are scored
+ * against a high sample count reference (RMSE of gamma-corrected pixel values), so the number
+ * of samples each one needed can be compared at similar error.
+ */
+public class AdaptiveSamplingBenchmark {
+
+    public static void main(String [] args) {
+
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int referenceSpp = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        Framebuffer reference = render(threads, c -> c.samplesPerPixel = referenceSpp);
+
+        for (int spp : new int[]{ 25, 50, 100 }) {
+            measure("fixed spp=" + spp, reference, threads, c -> c.samplesPerPixel = spp);
+        }
+        for (double threshold : new double[]{ 0.1, 0.05, 0.025 }) {
+            measure("adaptive e=" + threshold, reference, threads, c -> {
+                c.adaptiveThreshold = threshold;
+                c.minSamplesPerPixel = 8;
+                c.maxSamplesPerPixel = 400;
+            });
+        }
+    }
+
+    private static void measure(String name, Framebuffer reference, int threads, Consumer<SceneConfig> setup) {
+        long start = System.nanoTime();
+        Framebuffer buffer = render(threads, setup);
+        double ms = (System.nanoTime() - start) / 1e6;
+        long samples = buffer.totalSamples();
+        System.out.printf("%-18s samples=%d (%.1f/pixel) time=%.0fms rmse=%.5f%n",
+                name,
+                samples,
+                samples / (double) (buffer.getWidth() * buffer.getHeight()),
+                ms,
+                buffer.rmse(reference));
+    }
+
+    private static Framebuffer render(int threads, Consumer<SceneConfig> setup) {
+        SceneConfig config = Scenes.cornellBoxWithObjects(false);
+        config.imageWidth = 100;
+        config.bouncesPerPixel = 50;
+        setup.accept(config);
+        return new Renderer(new Tracer(config), "/dev/null", threads).renderTiled();
+    }
+}
@@ -0,0 +1,103 @@
+package com.epeters.raytrace.benchmarks;
+
+import com.epeters.raytrace.Camera;
+import com.epeters.raytrace.Ray;
+import com.epeters.raytrace.SceneConfig;
+import com.epeters.raytrace.Scenes;
+import com.epeters.raytrace.hittables.BvhBuilder;
+import com.epeters.raytrace.hittables.BvhConfig;
+import com.epeters.raytrace.hittables.BvhStats;
+import com.epeters.raytrace.hittables.Hittable;
+import com.epeters.raytrace.hittables.HittableBvh;
+import com.epeters.raytrace.hittables.HittableVolume;
+import com.epeters.raytrace.solids.Triangle;
+import com.epeters.raytrace.solids.TriangleMesh;
+import com.epeters.raytrace.surfaces.Material;
+import com.epeters.raytrace.utils.Mesh;
+import com.epeters.raytrace.utils.Vector;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.epeters.raytrace.utils.Utils.random;
+
+/**
+ * Compares the median and SAH builders: tree statistics, build time and closest-hit traversal
+ * speed for primary rays, on {@link Scenes#finale()} and the gourd mesh. Each tree is traversed
+ * both as a {@link HittableVolume} object tree and as a flattened {@link HittableBvh}, and the
+ * gourd also as an indexed {@link TriangleMesh}.
+ */
+public class BvhBenchmark {
+
+    public static final int RAYS = 200_000;
+
+    public static void main(String [] args) {
+
+        SceneConfig finale = Scenes.finale();
+        run("finale", finale, finale, null);
+
+        SceneConfig gourd = Scenes.gourd();
+        Mesh mesh = Scenes.gourdMesh();
+        run("gourd", gourd, triangles(mesh), mesh);
+    }
+
+    private static void run(String name, SceneConfig config, List<? extends Hittable> hittables, Mesh mesh) {
+
+        Camera camera = new Camera(config);
+        Ray [] rays = new Ray[RAYS];
+        for (int i=0; i<rays.length; i++) {
+            rays[i] = camera.computeRay(random(), random());
+        }
+
+        for (BvhConfig bvhConfig : new BvhConfig[]{ BvhConfig.MEDIAN, BvhConfig.DEFAULT }) {
+
+            BvhBuilder builder = new BvhBuilder(bvhConfig);
+            long start = System.nanoTime();
+            int [] order = BvhBuilder.identity(hittables.size());
+            BvhBuilder.Node root = builder.build(BvhBuilder.bounds(hittables), order);
+            double buildMs = (System.nanoTime() - start) / 1e6;
+
+            System.out.printf("%-7s %-6s prims=%d build=%.1fms %s%n",
+                    name,
+                    bvhConfig.strategy(),
+                    hittables.size(),
+                    buildMs,
+                    BvhStats.of(root, bvhConfig));
+
+            measure("tree", HittableVolume.from(root, hittables, order), rays);
+            measure("flat", new HittableBvh(root, hittables, order), rays);
+            if (mesh != null) {
+                measure("mesh", TriangleMesh.from(Material.norm(), mesh, builder), rays);
+            }
+        }
+    }
+
+    private static void measure(String name, Hittable world, Ray [] rays) {
+
+        // first pass warms up the JIT, second one is timed
+        traverse(world, rays);
+        long start = System.nanoTime();
+        int hits = traverse(world, rays);
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("    %-4s rays/sec=%.0f hits=%d%n", name, rays.length / secs, hits);
+    }
+
+    private static int traverse(Hittable world, Ray [] rays) {
+        int hits = 0;
+        for (Ray ray : rays) {
+            if (world.intersect(ray, 1e-8, Double.MAX_VALUE) != null) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+
+    private static List<Hittable> triangles(Mesh mesh) {
+        List<Hittable> list = new ArrayList<>();
+        for (List<Vector> tri : mesh.toTriangles()) {
+            list.add(new Triangle(Material.norm(), tri.get(0), tri.get(1), tri.get(2)));
+        }
+        return list;
+    }
+}
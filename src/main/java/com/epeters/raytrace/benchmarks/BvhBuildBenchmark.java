@@ -0,0 +1,62 @@
+package com.epeters.raytrace.benchmarks;
+
+import com.epeters.raytrace.hittables.BvhBuilder;
+import com.epeters.raytrace.hittables.BvhConfig;
+import com.epeters.raytrace.hittables.BvhStats;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures SAH build throughput (triangles/sec) on a large synthetic soup of small triangles,
+ * with fork/join pools of 1, 2, 4 ... up to the number of available processors. The tree
+ * statistics are printed for each run, and should be identical regardless of the thread count.
+ */
+public class BvhBuildBenchmark {
+
+    public static final int RUNS = 5;
+
+    public static void main(String [] args) {
+
+        int triangles = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        double [] bounds = triangleBounds(triangles, new Random(1L));
+
+        for (int threads=1; threads<=maxThreads; threads*=2) {
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            BvhBuilder builder = new BvhBuilder(BvhConfig.DEFAULT, pool);
+
+            // keep the best of several runs; the first ones mostly warm up the JIT
+            double best = Double.MAX_VALUE;
+            BvhBuilder.Node root = null;
+            for (int run=0; run<RUNS; run++) {
+                long start = System.nanoTime();
+                root = builder.build(bounds, BvhBuilder.identity(triangles));
+                best = Math.min(best, (System.nanoTime() - start) / 1e9);
+            }
+            pool.shutdown();
+
+            System.out.printf("threads=%-3d build=%.0fms triangles/sec=%.0f %s%n",
+                    threads,
+                    best * 1000,
+                    triangles / best,
+                    BvhStats.of(root, BvhConfig.DEFAULT));
+        }
+    }
+
+    /** Bounds of random triangles with edges up to 1% of a unit cube */
+    private static double [] triangleBounds(int count, Random random) {
+        double [] bounds = new double[count * 6];
+        for (int i=0; i<count; i++) {
+            for (int a=0; a<3; a++) {
+                double v0 = random.nextDouble();
+                double v1 = v0 + (random.nextDouble() - 0.5) * 0.01;
+                double v2 = v0 + (random.nextDouble() - 0.5) * 0.01;
+                bounds[i * 6 + a] = Math.min(v0, Math.min(v1, v2));
+                bounds[i * 6 + 3 + a] = Math.max(v0, Math.max(v1, v2));
+            }
+        }
+        return bounds;
+    }
+}
@@ -0,0 +1,51 @@
+package com.epeters.raytrace.benchmarks;
+
+import com.epeters.raytrace.SceneConfig;
+import com.epeters.raytrace.Scenes;
+import com.epeters.raytrace.Tracer;
+import com.epeters.raytrace.renderer.Framebuffer;
+import com.epeters.raytrace.renderer.Renderer;
+
+/**
+ * Compares the recursive and iterative (Russian roulette) integrators on the Cornell box:
+ * throughput in rays/sec and samples/sec, plus RMSE against a high sample count reference to
+ * show that both converge to the same image.
+ */
+public class IntegratorBenchmark {
+
+    public static void main(String [] args) {
+
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int referenceSpp = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        Framebuffer reference = new Renderer(tracer(Tracer.Integrator.RECURSIVE, referenceSpp), "/dev/null", threads).renderTiled();
+
+        for (int spp : new int[]{ 25, 100 }) {
+            for (Tracer.Integrator integrator : Tracer.Integrator.values()) {
+
+                Tracer tracer = tracer(integrator, spp);
+                long start = System.nanoTime();
+                Framebuffer buffer = new Renderer(tracer, "/dev/null", threads).renderTiled();
+                double secs = (System.nanoTime() - start) / 1e9;
+
+                System.out.printf("%-10s spp=%-4d time=%.2fs rays/sec=%.0f samples/sec=%.0f rays/sample=%.2f rmse=%.5f%n",
+                        integrator,
+                        spp,
+                        secs,
+                        tracer.getRayCount() / secs,
+                        buffer.totalSamples() / secs,
+                        tracer.getRayCount() / (double) buffer.totalSamples(),
+                        buffer.rmse(reference));
+            }
+        }
+    }
+
+    private static Tracer tracer(Tracer.Integrator integrator, int spp) {
+        SceneConfig config = Scenes.cornellBoxWithObjects(false);
+        config.imageWidth = 100;
+        config.samplesPerPixel = spp;
+        config.bouncesPerPixel = 50;
+        config.integrator = integrator;
+        return new Tracer(config);
+    }
+}
@@ -0,0 +1,111 @@
+package com.epeters.raytrace.benchmarks;
+
+import com.epeters.raytrace.utils.Mesh;
+import com.epeters.raytrace.utils.ObjReader;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures {@link ObjReader} throughput in MB/s on a generated OBJ file (a wavy grid written
+ * as quads with {@code v/vt/vn} corners), with fork/join pools of 1, 2, 4 ... threads. For
+ * comparison it also times a naive {@code readLine}/{@code split}/{@code parseFloat} pass over
+ * the same file, which only counts and parses without building anything.
+ */
+public class ObjReaderBenchmark {
+
+    public static final int RUNS = 3;
+
+    public static void main(String [] args) throws IOException {
+
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        Path path = Files.createTempFile("grid", ".obj");
+        try {
+            write(path, size);
+            double mb = Files.size(path) / (1024.0 * 1024.0);
+            System.out.printf("%s: %.1f MB, %d vertices, %d triangles%n", path, mb, (size + 1) * (size + 1), 2 * size * size);
+
+            double naive = Double.MAX_VALUE;
+            double checksum = 0.0;
+            for (int run=0; run<RUNS; run++) {
+                long start = System.nanoTime();
+                checksum = naive(path);
+                naive = Math.min(naive, (System.nanoTime() - start) / 1e9);
+            }
+            System.out.printf("naive       time=%.0fms MB/s=%.1f checksum=%.1f%n", naive * 1000, mb / naive, checksum);
+
+            for (int threads=1; threads<=maxThreads; threads*=2) {
+                ForkJoinPool pool = new ForkJoinPool(threads);
+                double best = Double.MAX_VALUE;
+                Mesh mesh = null;
+                for (int run=0; run<RUNS; run++) {
+                    long start = System.nanoTime();
+                    mesh = ObjReader.read(path, pool);
+                    best = Math.min(best, (System.nanoTime() - start) / 1e9);
+                }
+                pool.shutdown();
+                System.out.printf("threads=%-3d time=%.0fms MB/s=%.1f vertices=%d triangles=%d%n",
+                        threads,
+                        best * 1000,
+                        mb / best,
+                        mesh.getVertexCount(),
+                        mesh.getTriangleCount());
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static void write(Path path, int size) throws IOException {
+        try (PrintWriter out = new PrintWriter(new BufferedWriter(Files.newBufferedWriter(path), 1 << 16))) {
+            out.println("# generated by ObjReaderBenchmark");
+            for (int j=0; j<=size; j++) {
+                for (int i=0; i<=size; i++) {
+                    double x = i / (double) size;
+                    double z = j / (double) size;
+                    out.printf("v %.6f %.6f %.6f%n", x, 0.05 * Math.sin(x * 20.0) * Math.cos(z * 20.0), z);
+                    out.printf("vt %.6f %.6f%n", x, z);
+                    out.printf("vn %.6f %.6f %.6f%n", 0.0, 1.0, 0.0);
+                }
+            }
+            for (int j=0; j<size; j++) {
+                for (int i=0; i<size; i++) {
+                    int a = j * (size + 1) + i + 1;
+                    int b = a + 1;
+                    int c = b + size + 1;
+                    int d = a + size + 1;
+                    out.printf("f %d/%d/%d %d/%d/%d %d/%d/%d %d/%d/%d%n", a, a, a, b, b, b, c, c, c, d, d, d);
+                }
+            }
+        }
+    }
+
+    /** @return the sum of all the numbers on vertex lines plus the first index of every face corner */
+    private static double naive(Path path) throws IOException {
+        double sum = 0.0;
+        long faces = 0;
+        try (BufferedReader reader = Files.newBufferedReader(path)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String [] parts = line.split("\\s+");
+                if (parts[0].equals("v") || parts[0].equals("vn") || parts[0].equals("vt")) {
+                    for (int i=1; i<parts.length; i++) {
+                        sum += Float.parseFloat(parts[i]);
+                    }
+                } else if (parts[0].equals("f")) {
+                    for (int i=1; i<parts.length; i++) {
+                        faces += Integer.parseInt(parts[i].split("/")[0]);
+                    }
+                }
+            }
+        }
+        return sum + faces;
+    }
+}
@@ -0,0 +1,60 @@
+package com.epeters.raytrace.benchmarks;
+
+import com.epeters.raytrace.SceneConfig;
+import com.epeters.raytrace.Scenes;
+import com.epeters.raytrace.Tracer;
+import com.epeters.raytrace.renderer.ParallelProgress;
+import com.epeters.raytrace.renderer.Renderer;
+
+import java.util.function.Consumer;
+
+/**
+ * Compares the per-row scheduler ({@link Renderer#renderThreaded()}) against the tile scheduler
+ * ({@link Renderer#renderTiled()}) on the Cornell box. Besides wall time it reports how long the
+ * cores sat idle: {@code threads * wall - busy}, where busy is the total time spent inside row
+ * or tile work. Most of that idle time is the tail at the end of the frame, when the last few
+ * expensive rows are running and everybody else has nothing to do.
+ */
+public class SchedulerBenchmark {
+
+    public static void main(String [] args) {
+
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        SceneConfig config = Scenes.cornellBoxWithObjects(false);
+        config.imageWidth = 300;
+        config.samplesPerPixel = 20;
+        config.bouncesPerPixel = 50;
+        Tracer tracer = new Tracer(config);
+
+        // one untimed pass of each to warm up the JIT
+        measure("warmup rows", tracer, threads, Renderer::renderThreaded);
+        measure("warmup tiles", tracer, threads, Renderer::renderTiled);
+
+        for (int i=0; i<rounds; i++) {
+            measure("rows", tracer, threads, Renderer::renderThreaded);
+            measure("tiles", tracer, threads, Renderer::renderTiled);
+        }
+    }
+
+    private static void measure(String name, Tracer tracer, int threads, Consumer<Renderer> how) {
+
+        Renderer renderer = new Renderer(tracer, "/dev/null", threads);
+        long start = System.nanoTime();
+        how.accept(renderer);
+        long wall = System.nanoTime() - start;
+
+        ParallelProgress progress = renderer.getProgress();
+        double wallMs = wall / 1e6;
+        double idleMs = (threads * (double) wall - progress.getBusyNanos()) / 1e6;
+        double utilization = 100.0 * progress.getBusyNanos() / (threads * (double) wall);
+        System.out.printf("%-12s threads=%d wall=%.1fms idle=%.1fms (%.1fms/thread) utilization=%.1f%%%n",
+                name,
+                threads,
+                wallMs,
+                idleMs,
+                idleMs / threads,
+                utilization);
+    }
+}
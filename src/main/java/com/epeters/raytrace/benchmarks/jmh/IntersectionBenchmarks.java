@@ -0,0 +1,89 @@
+package com.epeters.raytrace.benchmarks.jmh;
+
+import com.epeters.raytrace.Ray;
+import com.epeters.raytrace.hittables.Hit;
+import com.epeters.raytrace.hittables.Hittable;
+import com.epeters.raytrace.solids.Rectangle;
+import com.epeters.raytrace.solids.Sphere;
+import com.epeters.raytrace.solids.Triangle;
+import com.epeters.raytrace.surfaces.Material;
+import com.epeters.raytrace.utils.Box;
+import com.epeters.raytrace.utils.Color;
+import com.epeters.raytrace.utils.XYZPlane;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.epeters.raytrace.utils.Utils.random;
+import static com.epeters.raytrace.utils.Vector.vec;
+
+/**
+ * Single ray against single primitive. All shapes sit around the origin inside the unit
+ * cube, and the rays come from (0,0,5) aimed at random points of the square from -1.5 to 1.5
+ * in the z=0 plane, so roughly half of them hit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntersectionBenchmarks {
+
+    /** Number of precomputed rays (a power of two); benchmarks cycle through them */
+    public static final int RAYS = 1024;
+
+    private Ray [] rays;
+    private int next;
+
+    private Box box;
+    private Hittable sphere;
+    private Hittable triangle;
+    private Hittable rectangle;
+
+    @Setup
+    public void setup() {
+        rays = new Ray[RAYS];
+        for (int i=0; i<RAYS; i++) {
+            rays[i] = new Ray(vec(0.0, 0.0, 5.0), vec(random(-1.5, 1.5), random(-1.5, 1.5), -5.0));
+        }
+        Material material = Material.lambertian(Color.WHITE);
+        box = new Box(vec(-1.0, -1.0, -1.0), vec(1.0, 1.0, 1.0));
+        sphere = new Sphere(material, vec(0.0, 0.0, 0.0), 1.0);
+        triangle = new Triangle(material, vec(-1.0, -1.0, 0.0), vec(1.0, -1.0, 0.0), vec(0.0, 1.0, 0.0));
+        rectangle = new Rectangle(material, XYZPlane.XY, -1.0, -1.0, 1.0, 1.0, 0.0);
+    }
+
+    private Ray nextRay() {
+        return rays[next++ & (RAYS - 1)];
+    }
+
+    @Benchmark
+    public boolean boxDoesNotIntersect() {
+        return box.doesNotIntersect(nextRay(), 1e-8, Double.MAX_VALUE);
+    }
+
+    @Benchmark
+    public Hit sphereIntersect() {
+        return sphere.intersect(nextRay(), 1e-8, Double.MAX_VALUE);
+    }
+
+    @Benchmark
+    public Hit triangleIntersect() {
+        return triangle.intersect(nextRay(), 1e-8, Double.MAX_VALUE);
+    }
+
+    @Benchmark
+    public Hit rectangleIntersect() {
+        return rectangle.intersect(nextRay(), 1e-8, Double.MAX_VALUE);
+    }
+}
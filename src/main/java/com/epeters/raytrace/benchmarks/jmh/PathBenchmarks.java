@@ -0,0 +1,80 @@
+package com.epeters.raytrace.benchmarks.jmh;
+
+import com.epeters.raytrace.SceneConfig;
+import com.epeters.raytrace.Scenes;
+import com.epeters.raytrace.Tracer;
+import com.epeters.raytrace.renderer.Framebuffer;
+import com.epeters.raytrace.utils.Sampler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One full camera path per operation (a single sample of a single pixel) through the Cornell
+ * box, cycling over the pixels of a small image. Together with the GC profiler this gives the
+ * bytes allocated per path; the tear down prints the average number of rays per path, to turn
+ * that into bytes per ray.
+ *
+ * Paths are not allocation free: they still come to a few hundred bytes per ray. Most of it is
+ * the rays and vectors that the rotated and translated boxes build for every ray that reaches
+ * them (six vectors each, with differentials), then the hits, the camera ray and footprints.
+ * Those rays are kept in the {@link com.epeters.raytrace.hittables.HitQuery} for shading and
+ * pass through virtual calls, so escape analysis can't remove them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathBenchmarks {
+
+    @Param({ "RECURSIVE", "ITERATIVE", "NEE" })
+    public Tracer.Integrator integrator;
+
+    @Param({ "RANDOM", "SOBOL", "HALTON", "BLUE_NOISE" })
+    public Sampler.Type sampler;
+
+    private Tracer tracer;
+    private Framebuffer buffer;
+    private int width;
+    private int height;
+    private int next;
+
+    @Setup
+    public void setup() {
+        SceneConfig config = Scenes.cornellBoxWithObjects(false);
+        config.imageWidth = 64;
+        config.samplesPerPixel = 1;
+        config.bouncesPerPixel = 50;
+        config.integrator = integrator;
+        config.sampler = sampler;
+        tracer = new Tracer(config);
+        width = tracer.getImageWidth();
+        height = tracer.getImageHeight();
+        buffer = new Framebuffer(width, height);
+    }
+
+    @Benchmark
+    public void samplePath() {
+        int pixel = next++ % (width * height);
+        tracer.renderPixel(buffer, pixel % width, pixel / width);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf("%n%.2f rays/path%n", tracer.getRayCount() / (double) next);
+    }
+}
@@ -0,0 +1,86 @@
+package com.epeters.raytrace.benchmarks.jmh;
+
+import com.epeters.raytrace.Camera;
+import com.epeters.raytrace.Ray;
+import com.epeters.raytrace.SceneConfig;
+import com.epeters.raytrace.Scenes;
+import com.epeters.raytrace.surfaces.MaterialDialectric;
+import com.epeters.raytrace.utils.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.epeters.raytrace.utils.Utils.random;
+import static com.epeters.raytrace.utils.Utils.randomUnitVector;
+import static com.epeters.raytrace.utils.Vector.vec;
+
+/**
+ * Per-sample work outside of intersection: refraction through glass and generating camera
+ * rays (with and without depth of field).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ShadingBenchmarks {
+
+    /** Number of precomputed inputs (a power of two); benchmarks cycle through them */
+    public static final int INPUTS = 1024;
+
+    /** Camera for {@link Scenes#finale()}, only set up for the benchmark that uses it */
+    @State(Scope.Thread)
+    public static class CameraState {
+
+        @Param({ "0.0", "0.1" })
+        public double aperture;
+
+        private Camera camera;
+
+        @Setup
+        public void setup() {
+            SceneConfig config = Scenes.finale();
+            config.aperture = aperture;
+            camera = new Camera(config);
+        }
+    }
+
+    private double [] coords;
+    private Vector [] incoming;
+    private final Vector normal = vec(0.0, 1.0, 0.0);
+    private int next;
+
+    @Setup
+    public void setup() {
+        coords = new double[INPUTS * 2];
+        incoming = new Vector[INPUTS];
+        for (int i=0; i<INPUTS; i++) {
+            coords[i * 2] = random();
+            coords[i * 2 + 1] = random();
+            Vector v = randomUnitVector();
+            incoming[i] = v.y() > 0.0 ? vec(v.x(), -v.y(), v.z()) : v;
+        }
+    }
+
+    @Benchmark
+    public Vector dialectricRefract() {
+        return MaterialDialectric.refract(incoming[next++ & (INPUTS - 1)], normal, 1.0 / 1.5);
+    }
+
+    @Benchmark
+    public Ray cameraComputeRay(CameraState state) {
+        int i = next++ & (INPUTS - 1);
+        return state.camera.computeRay(coords[i * 2], coords[i * 2 + 1]);
+    }
+}
@@ -0,0 +1,100 @@
+package com.epeters.raytrace.benchmarks.jmh;
+
+import com.epeters.raytrace.hittables.Hit;
+import com.epeters.raytrace.surfaces.ImageTexture;
+import com.epeters.raytrace.surfaces.Texture;
+import com.epeters.raytrace.utils.Box;
+import com.epeters.raytrace.utils.Color;
+import com.epeters.raytrace.utils.Perlin;
+import com.epeters.raytrace.utils.Vector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.epeters.raytrace.utils.Utils.random;
+import static com.epeters.raytrace.utils.Utils.randomVector;
+import static com.epeters.raytrace.utils.Vector.vec;
+
+/**
+ * Procedural noise and image texture lookups at random points.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextureBenchmarks {
+
+    /** Number of precomputed points (a power of two); benchmarks cycle through them */
+    public static final int POINTS = 1024;
+
+    /** Octaves of turbulence, as used by {@link com.epeters.raytrace.Scenes#M_NOISE} */
+    public static final int DEPTH = 7;
+
+    private Perlin perlin;
+    private Texture image;
+    private ImageTexture mipmapped;
+    private Texture marble;
+    private Texture bakedMarble;
+    private Vector [] points;
+    private Hit [] hits;
+    private int next;
+
+    @Setup
+    public void setup() {
+        perlin = new Perlin();
+        image = Texture.image("/earth.jpg");
+        mipmapped = (ImageTexture) image;
+        marble = Texture.turbulence(Color.WHITE, 4.0, DEPTH);
+        bakedMarble = Texture.baked(marble, new Box(vec(0.0, 0.0, 0.0), vec(10.0, 10.0, 10.0)), 128);
+        points = new Vector[POINTS];
+        hits = new Hit[POINTS];
+        for (int i=0; i<POINTS; i++) {
+            points[i] = randomVector(0.0, 10.0);
+            hits[i] = new Hit(1.0, points[i], vec(0.0, 0.0, 1.0), true, null, random(), random(), null);
+        }
+    }
+
+    @Benchmark
+    public double perlinNoise() {
+        return perlin.noise(points[next++ & (POINTS - 1)]);
+    }
+
+    @Benchmark
+    public double perlinTurbulence() {
+        return perlin.turbulence(points[next++ & (POINTS - 1)], DEPTH);
+    }
+
+    @Benchmark
+    public Color marbleTexture() {
+        return marble.calculateColor(hits[next++ & (POINTS - 1)]);
+    }
+
+    /** The same marble, baked into a grid over the points */
+    @Benchmark
+    public Color bakedMarbleTexture() {
+        return bakedMarble.calculateColor(hits[next++ & (POINTS - 1)]);
+    }
+
+    @Benchmark
+    public Color imageLookup() {
+        return image.calculateColor(hits[next++ & (POINTS - 1)]);
+    }
+
+    /** Lookup blending two mip levels, as seen from a distance */
+    @Benchmark
+    public Color imageLookupTrilinear() {
+        Hit hit = hits[next++ & (POINTS - 1)];
+        return mipmapped.lookup(hit.u(), hit.v(), 0.003);
+    }
+}
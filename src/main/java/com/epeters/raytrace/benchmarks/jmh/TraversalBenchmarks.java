@@ -0,0 +1,79 @@
+package com.epeters.raytrace.benchmarks.jmh;
+
+import com.epeters.raytrace.Camera;
+import com.epeters.raytrace.Ray;
+import com.epeters.raytrace.SceneConfig;
+import com.epeters.raytrace.Scenes;
+import com.epeters.raytrace.hittables.Hit;
+import com.epeters.raytrace.hittables.Hittable;
+import com.epeters.raytrace.hittables.HittableBvh;
+import com.epeters.raytrace.hittables.HittableVolume;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.epeters.raytrace.utils.Utils.random;
+
+/**
+ * Closest hit and any hit (as used for shadow rays) for primary rays against whole
+ * {@link Scenes}, with the tree either as {@link HittableVolume} objects or flattened into
+ * a {@link HittableBvh}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraversalBenchmarks {
+
+    /** Number of precomputed rays (a power of two); benchmarks cycle through them */
+    public static final int RAYS = 4096;
+
+    @Param({ "cornell", "finale", "gourd" })
+    public String scene;
+
+    @Param({ "TREE", "FLAT" })
+    public String layout;
+
+    private Hittable world;
+    private Ray [] rays;
+    private int next;
+
+    @Setup
+    public void setup() {
+        SceneConfig config = switch (scene) {
+            case "cornell" -> Scenes.cornellBoxWithObjects(false);
+            case "finale" -> Scenes.finale();
+            case "gourd" -> Scenes.gourd();
+            default -> throw new IllegalArgumentException("unknown scene "+scene);
+        };
+        world = layout.equals("TREE") ? HittableVolume.from(config) : HittableBvh.from(config);
+
+        Camera camera = new Camera(config);
+        rays = new Ray[RAYS];
+        for (int i=0; i<RAYS; i++) {
+            rays[i] = camera.computeRay(random(), random());
+        }
+    }
+
+    @Benchmark
+    public Hit closestHit() {
+        return world.intersect(rays[next++ & (RAYS - 1)], 1e-8, Double.MAX_VALUE);
+    }
+
+    @Benchmark
+    public boolean anyHit() {
+        return world.occluded(rays[next++ & (RAYS - 1)], 1e-8, Double.MAX_VALUE);
+    }
+}
@@ -0,0 +1,516 @@
+package com.epeters.raytrace.hittables;
+
+import com.epeters.raytrace.utils.Box;
+import com.epeters.raytrace.utils.Sampler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import static com.epeters.raytrace.utils.Vector.vec;
+
+/**
+ * Builds a bounding volume hierarchy over a set of primitives. The builder only looks at
+ * primitive bounds, passed as a flat array with six entries per primitive (min x/y/z followed
+ * by max x/y/z), and produces a tree of {@link Node}s whose leaves refer to ranges of an index
+ * array. That makes it usable both for lists of {@link Hittable}s and for primitives that
+ * aren't objects at all.
+ *
+ * With {@link BvhConfig.Strategy#SAH} each node is split by binning primitive centroids along
+ * every axis and picking the plane with the lowest surface area heuristic cost. A node becomes
+ * a leaf when it's small enough and splitting wouldn't be cheaper than just intersecting
+ * everything in it. The result is deterministic.
+ *
+ * @see <a href="https://www.sci.utah.edu/~wald/Publications/2007/ParallelBVHBuild/fastbuild.pdf">Wald, On fast Construction of SAH-based Bounding Volume Hierarchies</a>
+ */
+public final class BvhBuilder {
+
+    /**
+     * A node of the tree. Leaves have no children and cover {@code count} entries of the index
+     * array starting at {@code start}. {@code axis} is the axis an interior node was split on.
+     */
+    public static final class Node {
+
+        public final Box bounds;
+        public final Node left;
+        public final Node right;
+        public final int start;
+        public final int count;
+        public final int axis;
+
+        Node(Box bounds, int start, int count) {
+            this(bounds, null, null, start, count, 0);
+        }
+
+        Node(Box bounds, Node left, Node right, int axis) {
+            this(bounds, left, right, left.start, left.count + right.count, axis);
+        }
+
+        private Node(Box bounds, Node left, Node right, int start, int count, int axis) {
+            this.bounds = bounds;
+            this.left = left;
+            this.right = right;
+            this.start = start;
+            this.count = count;
+            this.axis = axis;
+        }
+
+        public boolean isLeaf() {
+            return left == null;
+        }
+    }
+
+    /** Subtrees with at least this many primitives are built as separate fork/join tasks */
+    public static final int PARALLEL_SUBTREE = 4096;
+
+    /** Nodes with at least this many primitives are binned and partitioned in parallel */
+    public static final int PARALLEL_NODE = 1 << 16;
+
+    /** Number of primitives handled by one task of a parallel pass over a node */
+    public static final int CHUNK = 1 << 14;
+
+    private final BvhConfig config;
+    private final ForkJoinPool pool;
+
+    public BvhBuilder(BvhConfig config) {
+        this(config, ForkJoinPool.commonPool());
+    }
+
+    public BvhBuilder(BvhConfig config, ForkJoinPool pool) {
+        this.config = config;
+        this.pool = pool;
+    }
+
+    public BvhConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Builds a tree over the primitives whose bounds are supplied. {@code order} must contain
+     * the indices of the primitives (usually 0 to n-1) and is permuted in place, so that each
+     * leaf covers a contiguous range of it.
+     *
+     * Work is spread over the builder's {@link ForkJoinPool}: large subtrees are built
+     * concurrently, and the nodes near the top (where one node covers most of the primitives)
+     * are binned and partitioned in parallel chunks. Whether a node is processed in parallel
+     * depends only on its size, so the tree is the same no matter how many threads there are.
+     */
+    public Node build(double [] bounds, int [] order) {
+        if (order.length == 0) {
+            throw new IllegalArgumentException("empty list is not allowed");
+        }
+        Build build = new Build(bounds, order);
+        return pool.invoke(new RecursiveTask<Node>() {
+            @Override
+            protected Node compute() {
+                build.computeCentroids();
+                return build.build(0, order.length);
+            }
+        });
+    }
+
+    /** State for building one tree */
+    private final class Build {
+
+        private final double [] bounds;
+        private final int [] order;
+        private final double [] centroids;
+        private final int [] scratch;
+
+        Build(double [] bounds, int [] order) {
+            this.bounds = bounds;
+            this.order = order;
+            this.centroids = new double[bounds.length / 2];
+            this.scratch = order.length >= PARALLEL_NODE ? new int[order.length] : null;
+        }
+
+        void computeCentroids() {
+            inChunks(0, bounds.length / 6, (c, from, to) -> {
+                for (int p=from; p<to; p++) {
+                    for (int a=0; a<3; a++) {
+                        centroids[p * 3 + a] = 0.5 * (bounds[p * 6 + a] + bounds[p * 6 + 3 + a]);
+                    }
+                }
+            });
+        }
+
+        Node build(int start, int end) {
+
+            int count = end - start;
+            double [] box = rangeBounds(start, end);
+            if (count == 1) {
+                return new Node(toBox(box), start, count);
+            }
+
+            Split split = switch (config.strategy()) {
+                case MEDIAN -> medianSplit(start, end);
+                case SAH -> sahSplit(box, start, end);
+            };
+            if (split == null) {
+                return new Node(toBox(box), start, count);
+            }
+
+            if (count >= PARALLEL_SUBTREE) {
+                RecursiveTask<Node> leftTask = new RecursiveTask<>() {
+                    @Override
+                    protected Node compute() {
+                        return build(start, split.mid);
+                    }
+                };
+                leftTask.fork();
+                Node right = build(split.mid, end);
+                return new Node(toBox(box), leftTask.join(), right, split.axis);
+            }
+
+            Node left = build(start, split.mid);
+            Node right = build(split.mid, end);
+            return new Node(toBox(box), left, right, split.axis);
+        }
+
+        /** @return the bounds of the primitives in a range (first six values) and of their centroids (last six) */
+        private double [] rangeBounds(int start, int end) {
+            if (end - start < PARALLEL_NODE) {
+                return rangeBoundsSequential(start, end);
+            }
+            double [][] parts = new double[chunkCount(start, end)][];
+            inChunks(start, end, (c, from, to) -> parts[c] = rangeBoundsSequential(from, to));
+            double [] result = parts[0];
+            for (int c=1; c<parts.length; c++) {
+                grow(result, 0, parts[c], 0);
+                grow(result, 6, parts[c], 6);
+            }
+            return result;
+        }
+
+        private double [] rangeBoundsSequential(int start, int end) {
+            double [] result = new double[12];
+            reset(result, 0);
+            reset(result, 6);
+            for (int i=start; i<end; i++) {
+                int p = order[i];
+                grow(result, 0, bounds, p * 6);
+                for (int a=0; a<3; a++) {
+                    result[6 + a] = Math.min(result[6 + a], centroids[p * 3 + a]);
+                    result[9 + a] = Math.max(result[9 + a], centroids[p * 3 + a]);
+                }
+            }
+            return result;
+        }
+
+        // ==============================================================================
+        // median split
+        // ==============================================================================
+
+        private Split medianSplit(int start, int end) {
+            // a "random" axis that only depends on the range, so subtrees built on different
+            // threads (in whatever order) still come out the same every time
+            int axis = Integer.remainderUnsigned(Sampler.hash(start, end), 3);
+            Integer [] range = new Integer[end - start];
+            for (int i=start; i<end; i++) {
+                range[i - start] = order[i];
+            }
+            Arrays.sort(range, Comparator.comparingDouble(p -> bounds[p * 6 + axis]));
+            for (int i=start; i<end; i++) {
+                order[i] = range[i - start];
+            }
+            return new Split(axis, start + (end - start) / 2);
+        }
+
+        // ==============================================================================
+        // binned SAH split
+        // ==============================================================================
+
+        private Split sahSplit(double [] box, int start, int end) {
+
+            int count = end - start;
+            int bins = config.bins();
+            double [] cmin = { box[6], box[7], box[8] };
+            double [] scale = new double[3];
+            for (int a=0; a<3; a++) {
+                double extent = box[9 + a] - box[6 + a];
+                scale[a] = extent > 0.0 ? bins / extent : 0.0;
+            }
+
+            Bins histogram;
+            if (count < PARALLEL_NODE) {
+                histogram = bin(start, end, cmin, scale);
+            } else {
+                Bins [] parts = new Bins[chunkCount(start, end)];
+                inChunks(start, end, (c, from, to) -> parts[c] = bin(from, to, cmin, scale));
+                histogram = parts[0];
+                for (int c=1; c<parts.length; c++) {
+                    histogram.merge(parts[c]);
+                }
+            }
+
+            double nodeArea = area(box, 0);
+            double bestCost = Double.POSITIVE_INFINITY;
+            int bestAxis = -1;
+            int bestBin = -1;
+
+            double [] rightAreas = new double[bins];
+            int [] rightCounts = new int[bins];
+            double [] sweep = new double[6];
+
+            for (int axis=0; axis<3; axis++) {
+
+                if (scale[axis] == 0.0) {
+                    continue;
+                }
+                int first = axis * bins;
+
+                // sweep from the right to get the area and count to the right of every plane ...
+                reset(sweep, 0);
+                int n = 0;
+                for (int b=bins-1; b>0; b--) {
+                    n += histogram.counts[first + b];
+                    grow(sweep, 0, histogram.boxes, (first + b) * 6);
+                    rightCounts[b] = n;
+                    rightAreas[b] = n == 0 ? 0.0 : area(sweep, 0);
+                }
+
+                // ... then from the left, evaluating each plane as we go
+                reset(sweep, 0);
+                n = 0;
+                for (int b=1; b<bins; b++) {
+                    n += histogram.counts[first + b - 1];
+                    grow(sweep, 0, histogram.boxes, (first + b - 1) * 6);
+                    if (n == 0 || rightCounts[b] == 0) {
+                        continue;
+                    }
+                    double cost = config.traversalCost()
+                            + config.intersectionCost() * (area(sweep, 0) * n + rightAreas[b] * rightCounts[b]) / nodeArea;
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestBin = b;
+                    }
+                }
+            }
+
+            // stop here if splitting isn't worth it, or if there's no way to split at all
+            double leafCost = config.intersectionCost() * count;
+            if (count <= config.maxLeafSize() && (bestAxis < 0 || bestCost >= leafCost)) {
+                return null;
+            }
+            if (bestAxis < 0) {
+                return new Split(0, start + count / 2);
+            }
+
+            int mid = count < PARALLEL_NODE
+                    ? partition(start, end, bestAxis, cmin[bestAxis], scale[bestAxis], bestBin)
+                    : partitionParallel(start, end, bestAxis, cmin[bestAxis], scale[bestAxis], bestBin);
+            if (mid == start || mid == end) {
+                mid = start + count / 2;
+            }
+            return new Split(bestAxis, mid);
+        }
+
+        private Bins bin(int start, int end, double [] cmin, double [] scale) {
+            int bins = config.bins();
+            Bins result = new Bins(bins);
+            for (int i=start; i<end; i++) {
+                int p = order[i];
+                for (int a=0; a<3; a++) {
+                    if (scale[a] > 0.0) {
+                        int b = a * bins + binIndex(centroids[p * 3 + a], cmin[a], scale[a], bins);
+                        result.counts[b]++;
+                        grow(result.boxes, b * 6, bounds, p * 6);
+                    }
+                }
+            }
+            return result;
+        }
+
+        private boolean goesLeft(int p, int axis, double cmin, double scale, int split) {
+            return binIndex(centroids[p * 3 + axis], cmin, scale, config.bins()) < split;
+        }
+
+        private int partition(int start, int end, int axis, double cmin, double scale, int split) {
+            int i = start;
+            int j = end - 1;
+            while (i <= j) {
+                if (goesLeft(order[i], axis, cmin, scale, split)) {
+                    i++;
+                } else {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    j--;
+                }
+            }
+            return i;
+        }
+
+        /**
+         * Stable partition in three parallel passes: count how many primitives of each chunk go
+         * left, scatter every chunk into its slot of the scratch array, and copy back
+         */
+        private int partitionParallel(int start, int end, int axis, double cmin, double scale, int split) {
+
+            int chunks = chunkCount(start, end);
+            int [] lefts = new int[chunks];
+            inChunks(start, end, (c, from, to) -> {
+                int n = 0;
+                for (int i=from; i<to; i++) {
+                    if (goesLeft(order[i], axis, cmin, scale, split)) {
+                        n++;
+                    }
+                }
+                lefts[c] = n;
+            });
+
+            int totalLeft = 0;
+            int [] leftOffsets = new int[chunks];
+            int [] rightOffsets = new int[chunks];
+            for (int c=0; c<chunks; c++) {
+                leftOffsets[c] = totalLeft;
+                totalLeft += lefts[c];
+            }
+            int rightStart = start + totalLeft;
+            for (int c=0, rights=0; c<chunks; c++) {
+                rightOffsets[c] = rights;
+                rights += Math.min(CHUNK, end - start - c * CHUNK) - lefts[c];
+            }
+
+            inChunks(start, end, (c, from, to) -> {
+                int l = start + leftOffsets[c];
+                int r = rightStart + rightOffsets[c];
+                for (int i=from; i<to; i++) {
+                    int p = order[i];
+                    if (goesLeft(p, axis, cmin, scale, split)) {
+                        scratch[l++] = p;
+                    } else {
+                        scratch[r++] = p;
+                    }
+                }
+            });
+            inChunks(start, end, (c, from, to) -> System.arraycopy(scratch, from, order, from, to - from));
+
+            return rightStart;
+        }
+    }
+
+    /** Per-axis histogram of primitive counts and bounds */
+    private static final class Bins {
+
+        final int [] counts;
+        final double [] boxes;
+
+        Bins(int bins) {
+            this.counts = new int[3 * bins];
+            this.boxes = new double[3 * bins * 6];
+            for (int b=0; b<3*bins; b++) {
+                reset(boxes, b * 6);
+            }
+        }
+
+        void merge(Bins other) {
+            for (int b=0; b<counts.length; b++) {
+                counts[b] += other.counts[b];
+                grow(boxes, b * 6, other.boxes, b * 6);
+            }
+        }
+    }
+
+    private static int binIndex(double centroid, double min, double scale, int bins) {
+        int b = (int) ((centroid - min) * scale);
+        return Math.max(0, Math.min(bins - 1, b));
+    }
+
+    private record Split(int axis, int mid) {
+    }
+
+    // ==================================================================================
+    // parallel helpers
+    // ==================================================================================
+
+    private interface Chunk {
+        void run(int index, int from, int to);
+    }
+
+    private static int chunkCount(int start, int end) {
+        return (end - start + CHUNK - 1) / CHUNK;
+    }
+
+    /** Runs {@code chunk} over consecutive slices of the range, in parallel if there's more than one */
+    private static void inChunks(int start, int end, Chunk chunk) {
+        int n = chunkCount(start, end);
+        if (n <= 1) {
+            chunk.run(0, start, end);
+            return;
+        }
+        List<RecursiveAction> tasks = new ArrayList<>(n);
+        for (int c=0; c<n; c++) {
+            int index = c;
+            int from = start + c * CHUNK;
+            int to = Math.min(end, from + CHUNK);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    chunk.run(index, from, to);
+                }
+            });
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    // ==================================================================================
+    // helpers for flat bounds arrays
+    // ==================================================================================
+
+    /** @return the bounds of the supplied hittables in the flat layout used by {@link #build} */
+    public static double [] bounds(List<? extends Hittable> hittables) {
+        double [] result = new double[hittables.size() * 6];
+        for (int i=0; i<hittables.size(); i++) {
+            Box box = hittables.get(i).getBounds();
+            result[i * 6] = box.min().x();
+            result[i * 6 + 1] = box.min().y();
+            result[i * 6 + 2] = box.min().z();
+            result[i * 6 + 3] = box.max().x();
+            result[i * 6 + 4] = box.max().y();
+            result[i * 6 + 5] = box.max().z();
+        }
+        return result;
+    }
+
+    /** @return the indices 0 to n-1 */
+    public static int [] identity(int n) {
+        int [] result = new int[n];
+        for (int i=0; i<n; i++) {
+            result[i] = i;
+        }
+        return result;
+    }
+
+    /** @return the surface area of the box stored at {@code offset} */
+    public static double area(double [] box, int offset) {
+        double dx = Math.max(0.0, box[offset + 3] - box[offset]);
+        double dy = Math.max(0.0, box[offset + 4] - box[offset + 1]);
+        double dz = Math.max(0.0, box[offset + 5] - box[offset + 2]);
+        return 2.0 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    private static void reset(double [] box, int offset) {
+        for (int a=0; a<3; a++) {
+            box[offset + a] = Double.POSITIVE_INFINITY;
+            box[offset + 3 + a] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    private static void grow(double [] box, int offset, double [] other, int otherOffset) {
+        for (int a=0; a<3; a++) {
+            box[offset + a] = Math.min(box[offset + a], other[otherOffset + a]);
+            box[offset + 3 + a] = Math.max(box[offset + 3 + a], other[otherOffset + 3 + a]);
+        }
+    }
+
+    private static Box toBox(double [] box) {
+        return new Box(vec(box[0], box[1], box[2]), vec(box[3], box[4], box[5]));
+    }
+}
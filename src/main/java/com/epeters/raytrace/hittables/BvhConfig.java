@@ -0,0 +1,33 @@
+package com.epeters.raytrace.hittables;
+
+/**
+ * Settings for {@link BvhBuilder}.
+ *
+ * @param strategy how to choose where to split each node
+ * @param bins number of centroid bins per axis used by {@link Strategy#SAH}
+ * @param maxLeafSize leaves never hold more primitives than this
+ * @param traversalCost relative cost of visiting an interior node (testing its bounds)
+ * @param intersectionCost relative cost of intersecting a single primitive
+ */
+public record BvhConfig(Strategy strategy, int bins, int maxLeafSize, double traversalCost, double intersectionCost) {
+
+    public enum Strategy {
+        /** Sort on a random axis and split at the median (the original builder) */
+        MEDIAN,
+        /** Binned surface area heuristic */
+        SAH
+    }
+
+    public static final BvhConfig DEFAULT = new BvhConfig(Strategy.SAH, 16, 4, 1.0, 1.0);
+
+    public static final BvhConfig MEDIAN = new BvhConfig(Strategy.MEDIAN, 0, 1, 1.0, 1.0);
+
+    public BvhConfig {
+        if (maxLeafSize < 1) {
+            throw new IllegalArgumentException("leaf size must be positive");
+        }
+        if (strategy == Strategy.SAH && bins < 2) {
+            throw new IllegalArgumentException("need at least two bins");
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.epeters.raytrace.hittables;
+
+import com.epeters.raytrace.utils.Box;
+
+/**
+ * Summary of the shape of a bounding volume hierarchy, used to compare builders.
+ *
+ * @param nodes total number of nodes (interior and leaf)
+ * @param leaves number of leaves
+ * @param primitives number of primitives referenced by the leaves
+ * @param maxDepth depth of the deepest leaf (the root is at depth 0)
+ * @param maxLeafSize largest number of primitives in one leaf
+ * @param sahCost expected cost of tracing a random ray through the tree according to the
+ *                surface area heuristic, using the costs from the builder's {@link BvhConfig}
+ */
+public record BvhStats(int nodes, int leaves, int primitives, int maxDepth, int maxLeafSize, double sahCost) {
+
+    public static BvhStats of(BvhBuilder.Node root, BvhConfig config) {
+        Counter counter = new Counter(config, area(root.bounds));
+        counter.visit(root, 0);
+        return new BvhStats(counter.nodes, counter.leaves, counter.primitives, counter.maxDepth, counter.maxLeafSize, counter.cost);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("nodes=%d leaves=%d avgLeaf=%.2f maxLeaf=%d depth=%d sah=%.2f",
+                nodes,
+                leaves,
+                primitives / (double) leaves,
+                maxLeafSize,
+                maxDepth,
+                sahCost);
+    }
+
+    private static double area(Box box) {
+        double dx = box.max().x() - box.min().x();
+        double dy = box.max().y() - box.min().y();
+        double dz = box.max().z() - box.min().z();
+        return 2.0 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    private static final class Counter {
+
+        private final BvhConfig config;
+        private final double rootArea;
+        private int nodes;
+        private int leaves;
+        private int primitives;
+        private int maxDepth;
+        private int maxLeafSize;
+        private double cost;
+
+        Counter(BvhConfig config, double rootArea) {
+            this.config = config;
+            this.rootArea = rootArea;
+        }
+
+        void visit(BvhBuilder.Node node, int depth) {
+            nodes++;
+            double probability = rootArea > 0.0 ? area(node.bounds) / rootArea : 1.0;
+            if (node.isLeaf()) {
+                leaves++;
+                primitives += node.count;
+                maxDepth = Math.max(maxDepth, depth);
+                maxLeafSize = Math.max(maxLeafSize, node.count);
+                cost += probability * node.count * config.intersectionCost();
+            } else {
+                cost += probability * config.traversalCost();
+                visit(node.left, depth + 1);
+                visit(node.right, depth + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.epeters.raytrace.hittables;
+
+import com.epeters.raytrace.Ray;
+import com.epeters.raytrace.utils.Box;
+
+import static com.epeters.raytrace.utils.Vector.vec;
+
+/**
+ * Bounding volume hierarchy compiled into flat arrays, so traversal is a loop over array
+ * indices instead of recursive calls through a tree of objects.
+ *
+ * Nodes are laid out depth first, so the left child of node {@code n} is always {@code n + 1}.
+ * For each node {@code bounds} holds six floats (min x/y/z, max x/y/z, rounded outwards so
+ * the box never shrinks) and {@code nodes} holds two ints, 32 bytes in all:
+ * <ul>
+ *     <li>interior node: index of the right child, then {@code -(axis + 1)} for the split axis</li>
+ *     <li>leaf: index of the first primitive, then the (positive) number of primitives</li>
+ * </ul>
+ *
+ * Primitives are numbered in leaf order, and subclasses decide what a primitive is.
+ * Traversal keeps an explicit stack and visits the nearer child first, judged by the sign of
+ * the ray direction along the split axis (from {@link Ray#octant()}), so that a close hit can cull the far child. Each
+ * thread gets its own stack array, which is reused from one query to the next.
+ */
+public abstract class FlatBvh implements Hittable {
+
+    protected final float [] bounds;
+    protected final int [] nodes;
+    private final ThreadLocal<int []> stacks;
+
+    protected FlatBvh(BvhBuilder.Node root) {
+        int count = countNodes(root);
+        this.bounds = new float[count * 6];
+        this.nodes = new int[count * 2];
+        int stackSize = depth(root) + 1;
+        this.stacks = ThreadLocal.withInitial(() -> new int[stackSize]);
+        flatten(root, 0);
+    }
+
+    /** Intersects primitive {@code index} with the ray, and records it in the query if it's closer */
+    protected abstract void closestPrimitive(int index, Ray ray, double tmin, HitQuery query);
+
+    /** @return true if primitive {@code index} is hit anywhere between {@code tmin} and {@code tmax} */
+    protected abstract boolean occludedPrimitive(int index, Ray ray, double tmin, double tmax);
+
+    @Override
+    public Box getBounds() {
+        return new Box(vec(bounds[0], bounds[1], bounds[2]), vec(bounds[3], bounds[4], bounds[5]));
+    }
+
+    public int getNodeCount() {
+        return nodes.length / 2;
+    }
+
+    @Override
+    public Hit intersect(Ray ray, double tmin, double tmax) {
+        return HitQuery.intersect(this, ray, tmin, tmax);
+    }
+
+    @Override
+    public void closest(Ray ray, double tmin, HitQuery query) {
+
+        int [] stack = stacks.get();
+        int top = 0;
+        int node = 0;
+
+        while (true) {
+            if (hitsNode(node, ray, tmin, query.t())) {
+                int a = nodes[node * 2];
+                int b = nodes[node * 2 + 1];
+                if (b > 0) {
+                    for (int i=a; i<a+b; i++) {
+                        closestPrimitive(i, ray, tmin, query);
+                    }
+                } else {
+                    int axis = -b - 1;
+                    if (ray.sign(axis) != 0) {
+                        stack[top++] = node + 1;
+                        node = a;
+                    } else {
+                        stack[top++] = a;
+                        node = node + 1;
+                    }
+                    continue;
+                }
+            }
+            if (top == 0) {
+                return;
+            }
+            node = stack[--top];
+        }
+    }
+
+    /**
+     * Same traversal as {@link #closest}, except that the range never shrinks, so the order of
+     * the children doesn't matter, and the first primitive hit ends it
+     */
+    @Override
+    public boolean occluded(Ray ray, double tmin, double tmax) {
+
+        int [] stack = stacks.get();
+        int top = 0;
+        int node = 0;
+
+        while (true) {
+            if (hitsNode(node, ray, tmin, tmax)) {
+                int a = nodes[node * 2];
+                int b = nodes[node * 2 + 1];
+                if (b > 0) {
+                    for (int i=a; i<a+b; i++) {
+                        if (occludedPrimitive(i, ray, tmin, tmax)) {
+                            return true;
+                        }
+                    }
+                } else {
+                    stack[top++] = a;
+                    node = node + 1;
+                    continue;
+                }
+            }
+            if (top == 0) {
+                return false;
+            }
+            node = stack[--top];
+        }
+    }
+
+    /** Slab test of a ray against the bounds of a node (see {@link Ray#hitsBox}) */
+    protected final boolean hitsNode(int node, Ray ray, double tmin, double tmax) {
+        int i = node * 6;
+        return ray.hitsBox(bounds[i], bounds[i + 1], bounds[i + 2], bounds[i + 3], bounds[i + 4], bounds[i + 5], tmin, tmax);
+    }
+
+    /** @return the largest float that is not greater than {@code v} */
+    private static float floor(double v) {
+        float f = (float) v;
+        return f > v ? Math.nextDown(f) : f;
+    }
+
+    /** @return the smallest float that is not less than {@code v} */
+    private static float ceil(double v) {
+        float f = (float) v;
+        return f < v ? Math.nextUp(f) : f;
+    }
+
+    private static int countNodes(BvhBuilder.Node node) {
+        return node.isLeaf() ? 1 : 1 + countNodes(node.left) + countNodes(node.right);
+    }
+
+    private static int depth(BvhBuilder.Node node) {
+        return node.isLeaf() ? 0 : 1 + Math.max(depth(node.left), depth(node.right));
+    }
+
+    /** Writes the subtree rooted at {@code node} starting at slot {@code index}, and returns the next free slot */
+    private int flatten(BvhBuilder.Node node, int index) {
+        Box box = node.bounds;
+        bounds[index * 6] = floor(box.min().x());
+        bounds[index * 6 + 1] = floor(box.min().y());
+        bounds[index * 6 + 2] = floor(box.min().z());
+        bounds[index * 6 + 3] = ceil(box.max().x());
+        bounds[index * 6 + 4] = ceil(box.max().y());
+        bounds[index * 6 + 5] = ceil(box.max().z());
+        if (node.isLeaf()) {
+            nodes[index * 2] = node.start;
+            nodes[index * 2 + 1] = node.count;
+            return index + 1;
+        }
+        int right = flatten(node.left, index + 1);
+        nodes[index * 2] = right;
+        nodes[index * 2 + 1] = -(node.axis + 1);
+        return flatten(node.right, right);
+    }
+}
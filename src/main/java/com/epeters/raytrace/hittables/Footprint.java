@@ -0,0 +1,101 @@
+package com.epeters.raytrace.hittables;
+
+import com.epeters.raytrace.Ray;
+import com.epeters.raytrace.utils.Vector;
+
+/**
+ * How far a hit moves, on the surface and in texture coordinates, from one pixel to the next:
+ * {@code dpdx} and {@code dpdy} go from the hit point to where the ray's differentials (see
+ * {@link Ray}) meet the tangent plane, and the rest are the matching changes in u and v. This
+ * is the area a texture should average over, so that detail smaller than a pixel is blurred
+ * away instead of aliased.
+ */
+public record Footprint(Vector dpdx, Vector dpdy, double dudx, double dvdx, double dudy, double dvdy) {
+
+    // keeps grazing angles from producing absurd sizes
+    private static final double LIMIT = 1e8;
+
+    /** @return rough width of the footprint on the surface */
+    public double width() {
+        return Math.max(dpdx.length(), dpdy.length());
+    }
+
+    /** @return the same footprint with the offsets on the surface replaced, as after a transformation */
+    public Footprint withOffsets(Vector dpdx, Vector dpdy) {
+        return new Footprint(dpdx, dpdy, dudx, dvdx, dudy, dvdy);
+    }
+
+    /**
+     * Works out the footprint of a ray with differentials that hit a surface at {@code point}
+     * (the same way as pbrt). {@code dpdu} and {@code dpdv} are how the surface point changes
+     * with u and v; if they're null, the footprint only has a size on the surface.
+     *
+     * @return the footprint, or null if the ray has no differentials or they miss the tangent plane
+     */
+    public static Footprint of(Ray ray, Vector point, Vector normal, Vector dpdu, Vector dpdv) {
+
+        if (!ray.hasDifferentials()) {
+            return null;
+        }
+        Vector dpdx = offset(ray.rxOrigin(), ray.rxDirection(), point, normal);
+        Vector dpdy = offset(ray.ryOrigin(), ray.ryDirection(), point, normal);
+        if (dpdx == null || dpdy == null) {
+            return null;
+        }
+        if (dpdu == null || dpdv == null) {
+            return new Footprint(dpdx, dpdy, 0.0, 0.0, 0.0, 0.0);
+        }
+
+        // dp = dpdu * du + dpdv * dv has more equations than unknowns; drop the one along the
+        // normal's biggest component, where the tangent plane is the most foreshortened
+        double ax = Math.abs(normal.x());
+        double ay = Math.abs(normal.y());
+        double az = Math.abs(normal.z());
+        int a0;
+        int a1;
+        if (ax > ay && ax > az) {
+            a0 = 1;
+            a1 = 2;
+        } else if (ay > az) {
+            a0 = 0;
+            a1 = 2;
+        } else {
+            a0 = 0;
+            a1 = 1;
+        }
+        double u0 = get(dpdu, a0);
+        double u1 = get(dpdu, a1);
+        double v0 = get(dpdv, a0);
+        double v1 = get(dpdv, a1);
+        double det = u0 * v1 - v0 * u1;
+        if (Math.abs(det) < 1e-12) {
+            return new Footprint(dpdx, dpdy, 0.0, 0.0, 0.0, 0.0);
+        }
+        double x0 = get(dpdx, a0);
+        double x1 = get(dpdx, a1);
+        double y0 = get(dpdy, a0);
+        double y1 = get(dpdy, a1);
+        return new Footprint(dpdx, dpdy,
+                limit((v1 * x0 - v0 * x1) / det),
+                limit((u0 * x1 - u1 * x0) / det),
+                limit((v1 * y0 - v0 * y1) / det),
+                limit((u0 * y1 - u1 * y0) / det));
+    }
+
+    /** @return offset from {@code point} to where the given ray meets the plane through it, or null if it doesn't */
+    private static Vector offset(Vector origin, Vector direction, Vector point, Vector normal) {
+        double t = point.minus(origin).dot(normal) / direction.dot(normal);
+        if (!Double.isFinite(t)) {
+            return null;
+        }
+        return origin.plus(direction.mul(t)).minus(point);
+    }
+
+    private static double get(Vector v, int axis) {
+        return axis == 0 ? v.x() : (axis == 1 ? v.y() : v.z());
+    }
+
+    private static double limit(double d) {
+        return Math.max(-LIMIT, Math.min(LIMIT, d));
+    }
+}
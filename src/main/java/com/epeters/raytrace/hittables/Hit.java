@@ -5,21 +5,35 @@ import com.epeters.raytrace.surfaces.Material;
 import com.epeters.raytrace.utils.Vector;
 
 /**
- * Encapsulates everything we want to know about the intersection of a ray and an object
+ * Encapsulates everything we want to know about the intersection of a ray and an object. The
+ * footprint is only there if the ray carried differentials (otherwise it's null).
  */
-public record Hit(double t, Vector point, Vector normal, boolean front, Material material, double u, double v) {
+public record Hit(double t, Vector point, Vector normal, boolean front, Material material, double u, double v, Footprint footprint) {
 
     public Hit flipped() {
-        return new Hit(t, point, normal, !front, material, u, v);
+        return new Hit(t, point, normal, !front, material, u, v, footprint);
+    }
+
+    /** @return width of the footprint on the surface, or 0.0 if there isn't one */
+    public double width() {
+        return footprint == null ? 0.0 : footprint.width();
     }
 
     public static Hit from(Ray ray, double t, Vector normal, Material material, double u, double v) {
-        boolean front = ray.direction().isOpposite(normal);
-        return new Hit(t, ray.at(t), front ? normal : normal.negate(), front, material, u, v);
+        return from(ray, t, ray.at(t), normal, material, u, v, null, null);
     }
 
     public static Hit from(Ray ray, double t, Vector point, Vector normal, Material material, double u, double v) {
+        return from(ray, t, point, normal, material, u, v, null, null);
+    }
+
+    /**
+     * @param dpdu how the point changes with u (see {@link Footprint#of}); may be null
+     * @param dpdv how the point changes with v; may be null
+     */
+    public static Hit from(Ray ray, double t, Vector point, Vector normal, Material material, double u, double v, Vector dpdu, Vector dpdv) {
         boolean front = ray.direction().isOpposite(normal);
-        return new Hit(t, point, front ? normal : normal.negate(), front, material, u, v);
+        Footprint footprint = Footprint.of(ray, point, normal, dpdu, dpdv);
+        return new Hit(t, point, front ? normal : normal.negate(), front, material, u, v, footprint);
     }
 }
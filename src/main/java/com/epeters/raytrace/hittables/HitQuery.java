@@ -0,0 +1,213 @@
+package com.epeters.raytrace.hittables;
+
+import com.epeters.raytrace.Ray;
+import com.epeters.raytrace.utils.Color;
+
+import java.util.Arrays;
+
+/**
+ * State of a two-phase closest hit query (see {@link Hittable#closest}). During traversal
+ * primitives only find the distance to the ray and, when it beats the current closest
+ * {@link #t()}, call {@link #record} with enough to rebuild the intersection later
+ * (a primitive index and two parameters, such as barycentric coordinates). Only once
+ * traversal is done does {@link #shade} ask the winner for a full {@link Hit}, so the
+ * point, normal and texture coordinates are worked out once per ray instead of once per
+ * candidate.
+ *
+ * Wrappers that transform the ray (translation, rotation, flip) {@link #wrap} themselves,
+ * along with the ray they passed on, around a hit found inside them. Shading then goes back
+ * down the same chain with {@link #shadeWrapped} and each wrapper only has to transform the
+ * hit back out. The chain is kept innermost first; each record starts a new chain.
+ *
+ * Queries are mutable and belong to a single ray on a single thread. {@link #acquire} hands
+ * out one query per thread (plus one per level of nesting, for the odd primitive that runs a
+ * query of its own while being tested), so most rays don't allocate one.
+ */
+public final class HitQuery {
+
+    private static final ThreadLocal<HitQuery> QUERIES = ThreadLocal.withInitial(() -> new HitQuery(0.0));
+
+    private double t;
+    private int records;
+    private Hittable target;
+    private Hittable [] wrappers;
+    private Ray [] rays;
+    private int length;
+    private int cursor;
+    private int primitive;
+    private double a;
+    private double b;
+    private Hit hit;
+    private boolean busy;
+    private HitQuery nested;
+
+    /**
+     * @param tmax the furthest distance a hit can be at
+     */
+    public HitQuery(double tmax) {
+        reset(tmax);
+    }
+
+    /** Clears the query for another ray */
+    public void reset(double tmax) {
+        this.t = tmax;
+        this.records = 0;
+        this.target = null;
+        this.length = 0;
+        this.cursor = -1;
+        this.hit = null;
+    }
+
+    /** @return the distance to the closest hit so far (or {@code tmax} if there is none) */
+    public double t() {
+        return t;
+    }
+
+    /** @return the number of hits recorded; wrappers compare this before and after a query */
+    public int records() {
+        return records;
+    }
+
+    public boolean isEmpty() {
+        return records == 0;
+    }
+
+    /** @return the primitive index given to {@link #record} by the winner */
+    public int primitive() {
+        return primitive;
+    }
+
+    /** @return the first parameter given to {@link #record} by the winner */
+    public double a() {
+        return a;
+    }
+
+    /** @return the second parameter given to {@link #record} by the winner */
+    public double b() {
+        return b;
+    }
+
+    /**
+     * @return the light given off by the winner, worked out without a full hit when the winner
+     * has the same emission everywhere (see {@link Hittable#emission()}). Called with the
+     * original ray once traversal is done; null if nothing was hit.
+     */
+    public Color emission(Ray ray) {
+        if (records == 0) {
+            return null;
+        }
+        Color emission = target.emission();
+        if (emission == null) {
+            Hit hit = shade(ray);
+            emission = hit.material().computeScatter(ray, hit).emission();
+        }
+        return emission;
+    }
+
+    /** @return the full hit if the winner recorded one (see {@link #record(Hit, Hittable)}) */
+    public Hit hit() {
+        return hit;
+    }
+
+    /**
+     * Called by a primitive that was hit closer than {@link #t()}
+     */
+    public void record(double t, Hittable target, int primitive, double a, double b) {
+        this.t = t;
+        this.records++;
+        this.target = target;
+        this.length = 0;
+        this.primitive = primitive;
+        this.a = a;
+        this.b = b;
+        this.hit = null;
+    }
+
+    /**
+     * Called by a primitive that works out the full hit during traversal anyway
+     */
+    public void record(Hit hit, Hittable target) {
+        record(hit.t(), target, 0, 0.0, 0.0);
+        this.hit = hit;
+    }
+
+    /**
+     * Called by a wrapper when the query it passed on to its target recorded a hit
+     *
+     * @param innerRay the ray as the wrapper passed it on to its target
+     */
+    public void wrap(Hittable wrapper, Ray innerRay) {
+        if (wrappers == null) {
+            wrappers = new Hittable[4];
+            rays = new Ray[4];
+        } else if (length == wrappers.length) {
+            wrappers = Arrays.copyOf(wrappers, length * 2);
+            rays = Arrays.copyOf(rays, length * 2);
+        }
+        wrappers[length] = wrapper;
+        rays[length++] = innerRay;
+    }
+
+    /**
+     * Builds the full hit for the winner, starting from the outermost wrapper if there is one.
+     * Called with the original ray once traversal is done.
+     *
+     * @return the closest hit, or null if nothing was hit
+     */
+    public Hit shade(Ray ray) {
+        if (records == 0) {
+            return null;
+        }
+        if (cursor < 0) {
+            cursor = length;
+        }
+        Hittable next = cursor == 0 ? target : wrappers[--cursor];
+        return next.shade(ray, this);
+    }
+
+    /**
+     * Called by a wrapper from its {@link Hittable#shade} to get the hit inside it, in the
+     * coordinates of its target
+     */
+    public Hit shadeWrapped() {
+        Ray innerRay = rays[cursor];
+        rays[cursor] = null;
+        return shade(innerRay);
+    }
+
+    /**
+     * Runs both phases of a query against {@code target}; this is what most implementations
+     * of {@link Hittable#intersect} come down to
+     */
+    public static Hit intersect(Hittable target, Ray ray, double tmin, double tmax) {
+        HitQuery query = acquire(tmax);
+        try {
+            target.closest(ray, tmin, query);
+            return query.shade(ray);
+        } finally {
+            query.release();
+        }
+    }
+
+    /**
+     * @return a query from this thread's pool, reset for a ray that can go as far as
+     * {@code tmax}; it has to be given back with {@link #release()} (in a finally block)
+     */
+    public static HitQuery acquire(double tmax) {
+        HitQuery query = QUERIES.get();
+        while (query.busy) {
+            if (query.nested == null) {
+                query.nested = new HitQuery(0.0);
+            }
+            query = query.nested;
+        }
+        query.busy = true;
+        query.reset(tmax);
+        return query;
+    }
+
+    /** Gives a query from {@link #acquire} back to the pool */
+    public void release() {
+        busy = false;
+    }
+}
@@ -1,8 +1,10 @@
 package com.epeters.raytrace.hittables;
 
 import com.epeters.raytrace.Ray;
+import com.epeters.raytrace.surfaces.Material;
 import com.epeters.raytrace.utils.Axis;
 import com.epeters.raytrace.utils.Box;
+import com.epeters.raytrace.utils.Color;
 import com.epeters.raytrace.utils.Vector;
 
 /**
@@ -13,8 +15,54 @@ public interface Hittable {
 
     Box getBounds();
 
+    /**
+     * @return the closest hit with a distance between {@code tmin} and {@code tmax}, or null
+     */
     Hit intersect(Ray ray, double tmin, double tmax);
 
+    /**
+     * First phase of a {@link HitQuery}: if this is hit between {@code tmin} and {@code query.t()},
+     * records the hit in the query. The default works out the whole hit with {@link #intersect},
+     * which is fine for anything that doesn't appear in large numbers.
+     */
+    default void closest(Ray ray, double tmin, HitQuery query) {
+        Hit hit = intersect(ray, tmin, query.t());
+        if (hit != null) {
+            query.record(hit, this);
+        }
+    }
+
+    /**
+     * Second phase of a {@link HitQuery}: builds the full hit that this recorded in the query
+     */
+    default Hit shade(Ray ray, HitQuery query) {
+        return query.hit();
+    }
+
+    /**
+     * Any-hit query for shadow rays: is there anything at all between {@code tmin} and
+     * {@code tmax}? Implementations stop at the first hit they find, whether or not it's the
+     * closest, and never build a {@link Hit}. The default runs the first phase of a closest hit
+     * query (on one of the thread's pooled queries), which is correct but doesn't stop early.
+     */
+    default boolean occluded(Ray ray, double tmin, double tmax) {
+        HitQuery query = HitQuery.acquire(tmax);
+        try {
+            closest(ray, tmin, query);
+            return !query.isEmpty();
+        } finally {
+            query.release();
+        }
+    }
+
+    /**
+     * @return the light given off everywhere on this primitive, if its material has one that
+     * doesn't depend on the hit (see {@link Material#emission()}), or null
+     */
+    default Color emission() {
+        return null;
+    }
+
     default double pdfValue(Vector origin, Vector direction) {
         return 0.0;
     }
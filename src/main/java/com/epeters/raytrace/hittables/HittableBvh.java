@@ -0,0 +1,45 @@
+package com.epeters.raytrace.hittables;
+
+import com.epeters.raytrace.Ray;
+
+import java.util.List;
+
+/**
+ * {@link FlatBvh} over a list of {@link Hittable}s, which are stored in leaf order so that
+ * each leaf covers a contiguous run of the array.
+ */
+public final class HittableBvh extends FlatBvh {
+
+    private final Hittable [] primitives;
+
+    public HittableBvh(BvhBuilder.Node root, List<? extends Hittable> hittables, int [] order) {
+        super(root);
+        this.primitives = new Hittable[order.length];
+        for (int i=0; i<order.length; i++) {
+            primitives[i] = hittables.get(order[i]);
+        }
+    }
+
+    @Override
+    protected void closestPrimitive(int index, Ray ray, double tmin, HitQuery query) {
+        primitives[index].closest(ray, tmin, query);
+    }
+
+    @Override
+    protected boolean occludedPrimitive(int index, Ray ray, double tmin, double tmax) {
+        return primitives[index].occluded(ray, tmin, tmax);
+    }
+
+    /**
+     * Builds a flattened tree using the default settings (see {@link BvhConfig#DEFAULT})
+     */
+    public static HittableBvh from(List<? extends Hittable> hittables) {
+        return from(hittables, new BvhBuilder(BvhConfig.DEFAULT));
+    }
+
+    public static HittableBvh from(List<? extends Hittable> hittables, BvhBuilder builder) {
+        int [] order = BvhBuilder.identity(hittables.size());
+        BvhBuilder.Node root = builder.build(BvhBuilder.bounds(hittables), order);
+        return new HittableBvh(root, hittables, order);
+    }
+}
@@ -20,10 +20,25 @@ public class HittableFlip implements Hittable {
 
     @Override
     public Hit intersect(Ray ray, double tmin, double tmax) {
-        Hit hit = target.intersect(ray, tmin, tmax);
-        if (hit == null) {
-            return null;
+        return HitQuery.intersect(this, ray, tmin, tmax);
+    }
+
+    @Override
+    public void closest(Ray ray, double tmin, HitQuery query) {
+        int records = query.records();
+        target.closest(ray, tmin, query);
+        if (query.records() != records) {
+            query.wrap(this, ray);
         }
-        return hit.flipped();
+    }
+
+    @Override
+    public boolean occluded(Ray ray, double tmin, double tmax) {
+        return target.occluded(ray, tmin, tmax);
+    }
+
+    @Override
+    public Hit shade(Ray ray, HitQuery query) {
+        return query.shadeWrapped().flipped();
     }
 }
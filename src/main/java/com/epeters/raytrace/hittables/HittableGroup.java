@@ -0,0 +1,55 @@
+package com.epeters.raytrace.hittables;
+
+import com.epeters.raytrace.Ray;
+import com.epeters.raytrace.utils.Box;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Implementation of {@link Hittable} for a small, flat group of objects that are simply tested
+ * one after the other. Used for the leaves of a {@link HittableVolume} tree.
+ */
+public final class HittableGroup implements Hittable {
+
+    private final Box bounds;
+    private final Hittable [] members;
+
+    public HittableGroup(List<? extends Hittable> members) {
+        this.members = members.toArray(new Hittable[0]);
+        this.bounds = Box.merge(Arrays.stream(this.members).map(Hittable::getBounds).toList());
+    }
+
+    @Override
+    public Box getBounds() {
+        return bounds;
+    }
+
+    @Override
+    public Hit intersect(Ray ray, double tmin, double tmax) {
+        return HitQuery.intersect(this, ray, tmin, tmax);
+    }
+
+    @Override
+    public void closest(Ray ray, double tmin, HitQuery query) {
+        if (bounds.doesNotIntersect(ray, tmin, query.t())) {
+            return;
+        }
+        for (Hittable member : members) {
+            member.closest(ray, tmin, query);
+        }
+    }
+
+    @Override
+    public boolean occluded(Ray ray, double tmin, double tmax) {
+        if (bounds.doesNotIntersect(ray, tmin, tmax)) {
+            return false;
+        }
+        for (Hittable member : members) {
+            if (member.occluded(ray, tmin, tmax)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
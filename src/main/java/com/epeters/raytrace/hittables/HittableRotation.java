@@ -29,20 +29,42 @@ public class HittableRotation implements Hittable {
         return bounds;
     }
 
-    public Hit intersect(Ray originalRay, double tmin, double tmax) {
+    @Override
+    public Hit intersect(Ray ray, double tmin, double tmax) {
+        return HitQuery.intersect(this, ray, tmin, tmax);
+    }
 
-        if (bounds.doesNotIntersect(originalRay, tmin, tmax)) {
-            return null;
+    @Override
+    public void closest(Ray originalRay, double tmin, HitQuery query) {
+
+        if (bounds.doesNotIntersect(originalRay, tmin, query.t())) {
+            return;
         }
 
         // rotate the incoming ray forwards and apply hit calculation
         Ray rotatedRay = rotate(originalRay, true);
-        Hit rotatedHit = target.intersect(rotatedRay, tmin, tmax);
-        if (rotatedHit == null) {
-            return null;
+        int records = query.records();
+        target.closest(rotatedRay, tmin, query);
+        if (query.records() != records) {
+            query.wrap(this, rotatedRay);
         }
+    }
 
-        // on the way back out, "unrotate" the hit point and the normal
+    @Override
+    public boolean occluded(Ray originalRay, double tmin, double tmax) {
+        if (bounds.doesNotIntersect(originalRay, tmin, tmax)) {
+            return false;
+        }
+        return target.occluded(rotate(originalRay, true), tmin, tmax);
+    }
+
+    @Override
+    public Hit shade(Ray originalRay, HitQuery query) {
+
+        Hit rotatedHit = query.shadeWrapped();
+
+        // on the way back out, "unrotate" the hit point and the normal (and the footprint)
+        Footprint footprint = rotatedHit.footprint();
         return new Hit(
                 rotatedHit.t(),
                 rotate(rotatedHit.point(), false),
@@ -50,13 +72,21 @@ public class HittableRotation implements Hittable {
                 rotatedHit.front(),
                 rotatedHit.material(),
                 rotatedHit.u(),
-                rotatedHit.v());
+                rotatedHit.v(),
+                footprint == null ? null : footprint.withOffsets(
+                        rotate(footprint.dpdx(), false),
+                        rotate(footprint.dpdy(), false)));
     }
 
     protected Ray rotate(Ray originalRay, boolean forward) {
         Vector to = rotate(originalRay.origin(), forward);
         Vector td = rotate(originalRay.direction(), forward);
-        return new Ray(to, td);
+        if (!originalRay.hasDifferentials()) {
+            return new Ray(to, td);
+        }
+        return new Ray(to, td,
+                rotate(originalRay.rxOrigin(), forward), rotate(originalRay.rxDirection(), forward),
+                rotate(originalRay.ryOrigin(), forward), rotate(originalRay.ryDirection(), forward));
     }
 
     protected Vector rotate(Vector point, boolean forward) {
@@ -21,18 +21,39 @@ public class HittableTranslation implements Hittable {
         return bounds;
     }
 
-    public Hit intersect(Ray originalRay, double tmin, double tmax) {
+    @Override
+    public Hit intersect(Ray ray, double tmin, double tmax) {
+        return HitQuery.intersect(this, ray, tmin, tmax);
+    }
 
-        if (bounds.doesNotIntersect(originalRay, tmin, tmax)) {
-            return null;
+    @Override
+    public void closest(Ray originalRay, double tmin, HitQuery query) {
+
+        if (bounds.doesNotIntersect(originalRay, tmin, query.t())) {
+            return;
         }
 
         // translate the incoming ray and apply hit calculation
         Ray translatedRay = translate(originalRay, true);
-        Hit translatedHit = target.intersect(translatedRay, tmin, tmax);
-        if (translatedHit == null) {
-            return null;
+        int records = query.records();
+        target.closest(translatedRay, tmin, query);
+        if (query.records() != records) {
+            query.wrap(this, translatedRay);
         }
+    }
+
+    @Override
+    public boolean occluded(Ray originalRay, double tmin, double tmax) {
+        if (bounds.doesNotIntersect(originalRay, tmin, tmax)) {
+            return false;
+        }
+        return target.occluded(translate(originalRay, true), tmin, tmax);
+    }
+
+    @Override
+    public Hit shade(Ray originalRay, HitQuery query) {
+
+        Hit translatedHit = query.shadeWrapped();
 
         // on the way back out, "untranslate" the hit point
         return new Hit(
@@ -42,11 +63,18 @@ public class HittableTranslation implements Hittable {
                 translatedHit.front(),
                 translatedHit.material(),
                 translatedHit.u(),
-                translatedHit.v());
+                translatedHit.v(),
+                translatedHit.footprint());
     }
 
     protected Ray translate(Ray ray, boolean forward) {
-        return new Ray(translate(ray.origin(), forward), ray.direction());
+        if (!ray.hasDifferentials()) {
+            return new Ray(translate(ray.origin(), forward), ray.direction());
+        }
+        return new Ray(
+                translate(ray.origin(), forward), ray.direction(),
+                translate(ray.rxOrigin(), forward), ray.rxDirection(),
+                translate(ray.ryOrigin(), forward), ray.ryDirection());
     }
 
     protected Vector translate(Vector point, boolean forward) {
@@ -1,31 +1,24 @@
 package com.epeters.raytrace.hittables;
 
 import com.epeters.raytrace.Ray;
-import com.epeters.raytrace.utils.Axis;
 import com.epeters.raytrace.utils.Box;
 
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
 
 /**
  * Implementation of {@link Hittable} that represents an abstract volume in space. Implements a
- * recursive tree structure that speeds up intersection testing.
+ * recursive tree structure that speeds up intersection testing. Trees are built by
+ * {@link BvhBuilder}; see {@link HittableBvh} for a flattened version of the same thing.
  *
  * @see <a href="https://raytracing.github.io/books/RayTracingTheNextWeek.html#boundingvolumehierarchies/thebvhnodeclass">guide</a>
  */
-public  final class HittableVolume implements Hittable {
+public final class HittableVolume implements Hittable {
 
     private final Box bounds;
     private final Hittable left;
     private final Hittable right;
 
-    public HittableVolume(Hittable left) {
-        this.left = left;
-        this.right = null;
-        this.bounds = left.getBounds();
-    }
-
     public HittableVolume(Hittable left, Hittable right) {
         this.left = left;
         this.right = right;
@@ -39,43 +32,63 @@ public  final class HittableVolume implements Hittable {
 
     @Override
     public Hit intersect(Ray ray, double tmin, double tmax) {
-        if (bounds.doesNotIntersect(ray, tmin, tmax)) {
-            return null;
-        }
-        Hit leftHit = left.intersect(ray, tmin, tmax);
-        if (right == null) {
-            return leftHit;
+        return HitQuery.intersect(this, ray, tmin, tmax);
+    }
+
+    @Override
+    public void closest(Ray ray, double tmin, HitQuery query) {
+        if (bounds.doesNotIntersect(ray, tmin, query.t())) {
+            return;
         }
-        Hit rightHit = right.intersect(ray, tmin, leftHit == null ? tmax : leftHit.t());
-        return (rightHit == null) ? leftHit : rightHit;
+        left.closest(ray, tmin, query);
+        right.closest(ray, tmin, query);
     }
 
-    public static HittableVolume from(Hittable hittable) {
-        if (hittable instanceof HittableVolume) {
-            return (HittableVolume) hittable;
+    @Override
+    public boolean occluded(Ray ray, double tmin, double tmax) {
+        if (bounds.doesNotIntersect(ray, tmin, tmax)) {
+            return false;
         }
-        return new HittableVolume(hittable);
+        return left.occluded(ray, tmin, tmax) || right.occluded(ray, tmin, tmax);
     }
 
-    public static HittableVolume from(List<? extends Hittable> hittables) {
+    /**
+     * Builds a tree using the default settings (see {@link BvhConfig#DEFAULT})
+     */
+    public static Hittable from(List<? extends Hittable> hittables) {
+        return from(hittables, BvhConfig.DEFAULT);
+    }
 
-        if (hittables.size() == 0) {
-            throw new IllegalArgumentException("empty list is not allowed");
-        }
-        if (hittables.size() == 1) {
-            return from(hittables.get(0));
-        }
+    public static Hittable from(List<? extends Hittable> hittables, BvhConfig config) {
+        return from(hittables, new BvhBuilder(config));
+    }
 
-        Axis axis = Axis.randomAxis();
-        hittables.sort(Comparator.comparingDouble(h -> h.getBounds().min().component(axis)));
+    public static Hittable from(List<? extends Hittable> hittables, BvhBuilder builder) {
+        int [] order = BvhBuilder.identity(hittables.size());
+        BvhBuilder.Node root = builder.build(BvhBuilder.bounds(hittables), order);
+        return from(root, hittables, order);
+    }
 
-        if (hittables.size() == 2) {
-            return new HittableVolume(hittables.get(0), hittables.get(1));
+    /**
+     * Converts a tree produced by {@link BvhBuilder} into a hierarchy of {@link HittableVolume}s,
+     * with a {@link HittableGroup} at leaves that hold more than two objects
+     */
+    public static Hittable from(BvhBuilder.Node node, List<? extends Hittable> hittables, int [] order) {
+        if (!node.isLeaf()) {
+            return new HittableVolume(from(node.left, hittables, order), from(node.right, hittables, order));
+        }
+        switch (node.count) {
+            case 1:
+                return hittables.get(order[node.start]);
+            case 2:
+                return new HittableVolume(hittables.get(order[node.start]), hittables.get(order[node.start + 1]));
+            default: {
+                List<Hittable> members = new ArrayList<>(node.count);
+                for (int i=node.start; i<node.start+node.count; i++) {
+                    members.add(hittables.get(order[i]));
+                }
+                return new HittableGroup(members);
+            }
         }
-
-        int split = hittables.size() / 2;
-        List<? extends Hittable> left = new ArrayList<>(hittables.subList(0, split));
-        List<? extends Hittable> right = new ArrayList<>(hittables.subList(split, hittables.size()));
-        return new HittableVolume(from(left), from(right));
     }
 }
@@ -0,0 +1,219 @@
+package com.epeters.raytrace.renderer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Progress of a render, kept in a memory-mapped file so that a render that dies can pick up
+ * where it left off, and a finished one can be given more passes later without starting over.
+ * The {@link Framebuffer} lives in the file itself, so every sample is in the file (or at least
+ * in the operating system's page cache, which outlives the JVM) as soon as it's added.
+ *
+ * A render is made of passes, each of which renders every pixel once. Each pixel has its own
+ * pass count, so pixels that were finished before a crash aren't rendered again. A pixel's
+ * samples and its pass count can't be written in one go, so the count is set to a marker while
+ * the samples are being added (see {@link #pixelStarted}); a pixel that still has the marker
+ * when the file is opened again may have its samples in the buffer or not, and has to be
+ * rendered over (see {@link #interruptedPixels()}). The file layout (all little-endian) is:
+ *
+ * <ul>
+ *     <li>a {@link #HEADER_SIZE} byte header: magic number, version, width, height, scene
+ *     fingerprint and passes completed</li>
+ *     <li>the pixel data of the framebuffer ({@link Framebuffer#STRIDE} doubles per pixel)</li>
+ *     <li>one int per pixel with the number of passes it has had, or minus one more than
+ *     that while a pass is being added to it</li>
+ * </ul>
+ */
+public final class Checkpoint implements Closeable {
+
+    /** "RTACCUM1" */
+    public static final long MAGIC = 0x5254414343554d31L;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+
+    private static final int WIDTH_OFFSET = 12;
+    private static final int HEIGHT_OFFSET = 16;
+    private static final int FINGERPRINT_OFFSET = 24;
+    private static final int PASSES_OFFSET = 32;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final List<MappedByteBuffer> mappings;
+    private final Framebuffer buffer;
+    private final IntBuffer [] pixelPasses;
+    private final int width;
+    private final int rowsPerSegment;
+
+    private Checkpoint(Path path, FileChannel channel, MappedByteBuffer header, int width, int height) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.header = header;
+        this.mappings = new ArrayList<>();
+        this.width = width;
+
+        // the pixel data and pass counts are mapped a segment of rows at a time, since one
+        // mapping can't be more than 2GB
+        this.rowsPerSegment = Framebuffer.rowsPerSegment(width);
+        int segments = (height + rowsPerSegment - 1) / rowsPerSegment;
+        long pixelData = (long) width * height * Framebuffer.STRIDE * Double.BYTES;
+        DoubleBuffer [] data = new DoubleBuffer[segments];
+        this.pixelPasses = new IntBuffer[segments];
+        for (int s=0; s<segments; s++) {
+            long firstPixel = (long) s * rowsPerSegment * width;
+            int pixels = (Math.min(height, (s + 1) * rowsPerSegment) - s * rowsPerSegment) * width;
+            data[s] = map(HEADER_SIZE + firstPixel * Framebuffer.STRIDE * Double.BYTES,
+                    pixels * Framebuffer.STRIDE * Double.BYTES).asDoubleBuffer();
+            pixelPasses[s] = map(HEADER_SIZE + pixelData + firstPixel * Integer.BYTES,
+                    pixels * Integer.BYTES).asIntBuffer();
+        }
+        this.buffer = new Framebuffer(width, height, rowsPerSegment, s -> data[s]);
+    }
+
+    private ByteBuffer map(long position, int size) throws IOException {
+        MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+        mappings.add(mapping);
+        return mapping.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Opens the checkpoint at {@code path}, or creates an empty one if there's no file yet
+     *
+     * @throws IllegalStateException if the file is for a different image size or scene
+     */
+    public static Checkpoint open(Path path, int width, int height, long fingerprint) throws IOException {
+
+        long size = HEADER_SIZE + (long) width * height * (Framebuffer.STRIDE * Double.BYTES + Integer.BYTES);
+
+        FileChannel channel = FileChannel.open(path, CREATE, READ, WRITE);
+        try {
+            boolean exists = channel.size() > 0;
+            if (exists && channel.size() != size) {
+                throw new IllegalStateException("checkpoint "+path+" has the wrong size for a "+width+"x"+height+" image");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (exists) {
+                check(path, header, width, height, fingerprint);
+            } else {
+                header.putLong(0, MAGIC);
+                header.putInt(8, VERSION);
+                header.putInt(WIDTH_OFFSET, width);
+                header.putInt(HEIGHT_OFFSET, height);
+                header.putLong(FINGERPRINT_OFFSET, fingerprint);
+                header.putInt(PASSES_OFFSET, 0);
+            }
+            return new Checkpoint(path, channel, header, width, height);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void check(Path path, ByteBuffer header, int width, int height, long fingerprint) {
+        if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION) {
+            throw new IllegalStateException(path+" is not a checkpoint (or is from another version)");
+        }
+        if (header.getInt(WIDTH_OFFSET) != width || header.getInt(HEIGHT_OFFSET) != height) {
+            throw new IllegalStateException("checkpoint "+path+" is for a "
+                    +header.getInt(WIDTH_OFFSET)+"x"+header.getInt(HEIGHT_OFFSET)+" image, not "+width+"x"+height);
+        }
+        if (header.getLong(FINGERPRINT_OFFSET) != fingerprint) {
+            throw new IllegalStateException("checkpoint "+path+" is for a different scene");
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /** @return the framebuffer stored in the file; it stays usable after the checkpoint is closed */
+    public Framebuffer getBuffer() {
+        return buffer;
+    }
+
+    /** @return number of passes that every pixel has had */
+    public int getPasses() {
+        return header.getInt(PASSES_OFFSET);
+    }
+
+    /** @return true if pixel (x, y) hasn't had pass number {@code pass} (counting from 0) yet */
+    public boolean needsPass(int x, int y, int pass) {
+        return pixelPasses[y / rowsPerSegment].get((y % rowsPerSegment) * width + x) <= pass;
+    }
+
+    /** Marks pixel (x, y) as having pass number {@code pass} added to it; call before its samples go into the buffer */
+    public void pixelStarted(int x, int y, int pass) {
+        pixelPasses[y / rowsPerSegment].put((y % rowsPerSegment) * width + x, -1 - pass);
+        // the marker has to reach the file before any of the samples do
+        VarHandle.storeStoreFence();
+    }
+
+    /** Records that pixel (x, y) has had pass number {@code pass}; call after its samples are in the buffer */
+    public void pixelComplete(int x, int y, int pass) {
+        VarHandle.storeStoreFence();
+        pixelPasses[y / rowsPerSegment].put((y % rowsPerSegment) * width + x, pass + 1);
+    }
+
+    /** Records that pixel (x, y) has had {@code passes} passes, after it was rendered over */
+    public void pixelRepaired(int x, int y, int passes) {
+        VarHandle.storeStoreFence();
+        pixelPasses[y / rowsPerSegment].put((y % rowsPerSegment) * width + x, passes);
+    }
+
+    /**
+     * @return pixels that were being added to when the render stopped, as {x, y, pass} for the
+     * pass they were on; their samples can't be trusted, so each has to be cleared and given
+     * its earlier passes again
+     */
+    public List<int []> interruptedPixels() {
+        List<int []> pixels = new ArrayList<>();
+        for (int s=0; s<pixelPasses.length; s++) {
+            IntBuffer passes = pixelPasses[s];
+            for (int i=0; i<passes.limit(); i++) {
+                int value = passes.get(i);
+                if (value < 0) {
+                    pixels.add(new int [] { i % width, s * rowsPerSegment + i / width, -1 - value });
+                }
+            }
+        }
+        return pixels;
+    }
+
+    /** Records that every pixel has had pass number {@code pass}, and writes everything to disk */
+    public void passComplete(int pass) {
+        header.putInt(PASSES_OFFSET, pass + 1);
+        flush();
+    }
+
+    /**
+     * Writes the file to disk. This is only needed to survive the machine going down; if just
+     * the JVM dies, whatever was added to the buffer is already in the operating system's hands.
+     */
+    public void flush() {
+        for (MappedByteBuffer mapping : mappings) {
+            mapping.force();
+        }
+        header.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        channel.close();
+    }
+}
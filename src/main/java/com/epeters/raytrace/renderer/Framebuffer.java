@@ -0,0 +1,248 @@
+package com.epeters.raytrace.renderer;
+
+import java.nio.DoubleBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+import static com.epeters.raytrace.utils.Utils.clamp;
+import static java.lang.Math.sqrt;
+
+/**
+ * Accumulation buffer for a rendered image. Each pixel holds a running sum of linear RGB
+ * radiance plus the number of samples that went into it, packed into {@link DoubleBuffer}s so
+ * rendering a pixel never allocates.
+ *
+ * The rows are split into segments, each with its own buffer, so that the image can be bigger
+ * than one buffer (or one memory mapping) can hold. Segments are normally on the heap, but a
+ * {@link Checkpoint} puts them in a memory-mapped file. A {@link #windowed} buffer only creates
+ * a segment when it's first used, and forgets it again when it's {@link #release released}, so
+ * an image that's written out as it's rendered only needs memory for the rows in progress.
+ *
+ * Coordinates are image coordinates (row 0 is the top of the image). Distinct pixels may be
+ * written concurrently by different threads, which is all tiled rendering needs.
+ */
+public final class Framebuffer {
+
+    /** Slots per pixel: red, green and blue sums followed by the sample count */
+    public static final int STRIDE = 4;
+
+    /** Most values one segment holds (a gigabyte's worth), unless a single row is bigger */
+    public static final int MAX_SEGMENT_VALUES = 1 << 27;
+
+    private final int width;
+    private final int height;
+    private final int rowsPerSegment;
+    private final AtomicReferenceArray<DoubleBuffer> segments;
+    private final IntFunction<DoubleBuffer> allocator;
+    private final boolean [] released;
+
+    // sample counts and hashes of released rows, so totals and checksums still cover them
+    private long [] rowSamples;
+    private long [] rowHashes;
+
+    public Framebuffer(int width, int height) {
+        this(width, height, rowsPerSegment(width), null);
+    }
+
+    /**
+     * @return a buffer that creates segments of {@code rowsPerSegment} rows on the heap when
+     * they're first used, which can be {@link #release released} once they're finished with
+     */
+    public static Framebuffer windowed(int width, int height, int rowsPerSegment) {
+        return new Framebuffer(width, height, rowsPerSegment, null, true);
+    }
+
+    /**
+     * Buffer made of segments of {@code rowsPerSegment} rows, the data for which comes from
+     * {@code segment} (given the number of the segment); null means on the heap
+     */
+    Framebuffer(int width, int height, int rowsPerSegment, IntFunction<DoubleBuffer> segment) {
+        this(width, height, rowsPerSegment, segment, false);
+        for (int s=0; s<segments.length(); s++) {
+            segment(s);
+        }
+    }
+
+    private Framebuffer(int width, int height, int rowsPerSegment, IntFunction<DoubleBuffer> segment, boolean lazy) {
+        if (width <= 0 || height <= 0 || rowsPerSegment <= 0) {
+            throw new IllegalArgumentException("bad size "+width+"x"+height+" with "+rowsPerSegment+" rows per segment");
+        }
+        if ((long) rowsPerSegment * width * STRIDE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("segments of "+rowsPerSegment+" rows are too big");
+        }
+        int count = (height + rowsPerSegment - 1) / rowsPerSegment;
+        this.width = width;
+        this.height = height;
+        this.rowsPerSegment = rowsPerSegment;
+        this.segments = new AtomicReferenceArray<>(count);
+        this.allocator = segment != null ? segment : s -> DoubleBuffer.allocate(segmentValues(s));
+        this.released = new boolean[count];
+    }
+
+    /** @return the most rows of this width that fit in one segment */
+    static int rowsPerSegment(int width) {
+        return Math.max(1, MAX_SEGMENT_VALUES / (width * STRIDE));
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRowsPerSegment() {
+        return rowsPerSegment;
+    }
+
+    /** @return number of values in segment {@code s} (the last one may have fewer rows) */
+    int segmentValues(int s) {
+        int rows = Math.min(height, (s + 1) * rowsPerSegment) - s * rowsPerSegment;
+        return rows * width * STRIDE;
+    }
+
+    /** Adds the sums of {@code samples} samples to a pixel */
+    public void add(int x, int y, double r, double g, double b, int samples) {
+        DoubleBuffer data = segmentOf(y);
+        int i = index(x, y);
+        data.put(i, data.get(i) + r);
+        data.put(i + 1, data.get(i + 1) + g);
+        data.put(i + 2, data.get(i + 2) + b);
+        data.put(i + 3, data.get(i + 3) + samples);
+    }
+
+    /** Takes all the samples out of a pixel */
+    public void clear(int x, int y) {
+        DoubleBuffer data = segmentOf(y);
+        int i = index(x, y);
+        for (int c=0; c<STRIDE; c++) {
+            data.put(i + c, 0.0);
+        }
+    }
+
+    public int sampleCount(int x, int y) {
+        return (int) segmentOf(y).get(index(x, y) + 3);
+    }
+
+    /** @return the mean linear value of one channel (0 = red, 1 = green, 2 = blue) of a pixel */
+    public double mean(int x, int y, int channel) {
+        DoubleBuffer data = segmentOf(y);
+        int i = index(x, y);
+        double n = data.get(i + 3);
+        return n == 0.0 ? 0.0 : data.get(i + channel) / n;
+    }
+
+    /**
+     * Forgets segment {@code s}, which must be finished with; its rows still count towards
+     * {@link #totalSamples()} and {@link #checksum()}, but can't be used any more
+     */
+    public synchronized void release(int s) {
+        if (released[s]) {
+            return;
+        }
+        if (rowSamples == null) {
+            rowSamples = new long[height];
+            rowHashes = new long[height];
+        }
+        for (int y=s*rowsPerSegment; y<Math.min(height, (s + 1) * rowsPerSegment); y++) {
+            rowSamples[y] = rowSamples(y);
+            rowHashes[y] = rowHash(y);
+        }
+        released[s] = true;
+        segments.set(s, null);
+    }
+
+    /** @return total number of samples taken across the whole image */
+    public long totalSamples() {
+        long total = 0L;
+        for (int y=0; y<height; y++) {
+            total += isReleased(y) ? rowSamples[y] : rowSamples(y);
+        }
+        return total;
+    }
+
+    /**
+     * @return a hash of the exact contents of the buffer; renders of the same scene with the same
+     * seed have the same checksum, however many threads drew them and however the buffer is stored
+     */
+    public long checksum() {
+        long hash = 1L;
+        for (int y=0; y<height; y++) {
+            hash = 31L * hash + (isReleased(y) ? rowHashes[y] : rowHash(y));
+        }
+        return hash;
+    }
+
+    private long rowSamples(int y) {
+        DoubleBuffer data = segmentOf(y);
+        long total = 0L;
+        for (int i=index(0, y)+3; i<index(width, y); i+=STRIDE) {
+            total += (long) data.get(i);
+        }
+        return total;
+    }
+
+    private long rowHash(int y) {
+        DoubleBuffer data = segmentOf(y);
+        long hash = 1L;
+        for (int i=index(0, y); i<index(width, y); i++) {
+            hash = 31L * hash + Double.doubleToLongBits(data.get(i));
+        }
+        return hash;
+    }
+
+    private synchronized boolean isReleased(int y) {
+        return released[y / rowsPerSegment];
+    }
+
+    /**
+     * @return root-mean-square difference between this image and another of the same size,
+     * measured on gamma-corrected values clamped to 0-1 (i.e. what ends up in the output file)
+     */
+    public double rmse(Framebuffer other) {
+        double sum = 0.0;
+        for (int y=0; y<height; y++) {
+            for (int x=0; x<width; x++) {
+                for (int c=0; c<3; c++) {
+                    double d = display(mean(x, y, c)) - display(other.mean(x, y, c));
+                    sum += d * d;
+                }
+            }
+        }
+        return sqrt(sum / (3.0 * width * height));
+    }
+
+    private static double display(double linear) {
+        return clamp(sqrt(Math.max(0.0, linear)), 0.0, 1.0);
+    }
+
+    private DoubleBuffer segmentOf(int y) {
+        return segment(y / rowsPerSegment);
+    }
+
+    private DoubleBuffer segment(int s) {
+        DoubleBuffer data = segments.get(s);
+        return data != null ? data : allocate(s);
+    }
+
+    private synchronized DoubleBuffer allocate(int s) {
+        DoubleBuffer data = segments.get(s);
+        if (data == null) {
+            if (released[s]) {
+                throw new IllegalStateException("rows "+(s * rowsPerSegment)+" onwards were already released");
+            }
+            data = allocator.apply(s);
+            if (data.capacity() != segmentValues(s)) {
+                throw new IllegalArgumentException("wrong amount of pixel data for segment "+s);
+            }
+            segments.set(s, data);
+        }
+        return data;
+    }
+
+    /** @return position of a pixel in its segment */
+    private int index(int x, int y) {
+        return ((y % rowsPerSegment) * width + x) * STRIDE;
+    }
+}
@@ -1,37 +1,51 @@
 package com.epeters.raytrace.renderer;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Implements progress reporting for rendering
  */
 public final class ParallelProgress {
 
-    private final int pixelsTotal;
+    private final long pixelsTotal;
     private double startTime;
     private double lastIntervalTime;
-    private AtomicInteger pixelsLastInterval;
-    private int pixelsComplete;
+    private AtomicLong pixelsLastInterval;
+    private long pixelsComplete;
+    private final LongAdder busyNanos;
 
-    public ParallelProgress(int pixelsTotal) {
+    public ParallelProgress(long pixelsTotal) {
         this.pixelsTotal = pixelsTotal;
         this.startTime = 0.0;
         this.lastIntervalTime = 0.0;
-        this.pixelsLastInterval = new AtomicInteger(0);
+        this.pixelsLastInterval = new AtomicLong(0L);
         this.pixelsComplete = 0;
+        this.busyNanos = new LongAdder();
     }
 
     public void start() {
         startTime = System.currentTimeMillis();
         lastIntervalTime = startTime;
-        pixelsLastInterval.set(0);
+        pixelsLastInterval.set(0L);
         pixelsComplete = 0;
+        busyNanos.reset();
     }
 
     public void pixelsComplete(int count) {
         pixelsLastInterval.addAndGet(count);
     }
 
+    /** Records time a worker thread spent rendering (as opposed to waiting for work) */
+    public void workComplete(long nanos) {
+        busyNanos.add(nanos);
+    }
+
+    /** @return total time spent rendering across all threads since {@link #start()} */
+    public long getBusyNanos() {
+        return busyNanos.sum();
+    }
+
     public void reportProgress() {
 
         double currentTime = System.currentTimeMillis();
@@ -39,7 +53,7 @@ public final class ParallelProgress {
         double totalTime = currentTime - startTime;
         lastIntervalTime = currentTime;
 
-        int pixelsThisInterval = pixelsLastInterval.getAndSet(0);
+        long pixelsThisInterval = pixelsLastInterval.getAndSet(0L);
         pixelsComplete += pixelsThisInterval;
 
         double freeMemory = Runtime.getRuntime().freeMemory();
@@ -0,0 +1,190 @@
+package com.epeters.raytrace.renderer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Writes the linear radiance in a {@link Framebuffer} to a PFM (portable float map) file: a
+ * short text header followed by three little-endian 32-bit floats per pixel. Unlike the PNG,
+ * nothing is lost to gamma, clipping or 8-bit quantization, so the image can be re-exposed or
+ * tone mapped afterwards (see {@link ToneMap}) instead of rendered again.
+ *
+ * Every row has a fixed place in the file (PFM stores the bottom row first), so rows can be
+ * written in any order, from any thread, as soon as they're finished. Each batch of rows is
+ * converted into one buffer and goes to the file in a single write.
+ *
+ * @see <a href="https://www.pauldebevec.com/Research/HDR/PFM/">PFM format</a>
+ */
+public final class PfmEncoder implements Closeable {
+
+    /** Most bytes converted at a time when writing or reading a whole image */
+    private static final int CHUNK_BYTES = 1 << 22;
+
+    private static final int HEADER_LIMIT = 256;
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final long dataStart;
+    private final boolean [] written;
+
+    /** Creates the file and writes the PFM header */
+    public PfmEncoder(Path path, int width, int height) throws IOException {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("bad image size "+width+"x"+height);
+        }
+        this.width = width;
+        this.height = height;
+        this.written = new boolean[height];
+        this.channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING);
+
+        // a negative scale means little-endian
+        byte [] header = ("PF\n"+width+" "+height+"\n-1.0\n").getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer data = ByteBuffer.wrap(header);
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+        this.dataStart = header.length;
+    }
+
+    /** Writes rows {@code y0} to {@code y1} (exclusive) of the image. Safe to call from any number of threads. */
+    public void writeRows(Framebuffer buffer, int y0, int y1) {
+        synchronized (this) {
+            for (int y=y0; y<y1; y++) {
+                written[y] = true;
+            }
+        }
+        // rows y1-1 down to y0 are next to each other in the file, in that order
+        ByteBuffer bytes = ByteBuffer.allocate((y1 - y0) * width * 3 * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        FloatBuffer floats = bytes.asFloatBuffer();
+        for (int y=y1-1; y>=y0; y--) {
+            for (int x=0; x<width; x++) {
+                floats.put((float) buffer.mean(x, y, 0));
+                floats.put((float) buffer.mean(x, y, 1));
+                floats.put((float) buffer.mean(x, y, 2));
+            }
+        }
+        long position = dataStart + (long) (height - y1) * width * 3 * Float.BYTES;
+        try {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes, position + bytes.position());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Writes whatever rows haven't been written yet */
+    public void finish(Framebuffer buffer) {
+        int rowsPerChunk = Math.max(1, CHUNK_BYTES / (width * 3 * Float.BYTES));
+        int y = 0;
+        while (y < height) {
+            if (isWritten(y)) {
+                y++;
+                continue;
+            }
+            int y0 = y;
+            while (y < height && y - y0 < rowsPerChunk && !isWritten(y)) {
+                y++;
+            }
+            writeRows(buffer, y0, y);
+        }
+    }
+
+    private synchronized boolean isWritten(int y) {
+        return written[y];
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Writes a whole framebuffer to a PFM file */
+    public static void write(Framebuffer buffer, Path path) throws IOException {
+        try (PfmEncoder encoder = new PfmEncoder(path, buffer.getWidth(), buffer.getHeight())) {
+            encoder.finish(buffer);
+        }
+    }
+
+    // ==============================================================================
+    // reading
+    // ==============================================================================
+
+    /**
+     * Reads a color PFM file (of either byte order) into a framebuffer with one sample per
+     * pixel, so its means are the values from the file
+     */
+    public static Framebuffer read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+
+            ByteBuffer head = ByteBuffer.allocate(HEADER_LIMIT);
+            channel.read(head, 0L);
+            head.flip();
+            String [] fields = new String[4];
+            for (int f=0; f<fields.length; f++) {
+                fields[f] = token(path, head);
+            }
+            if (!fields[0].equals("PF")) {
+                throw new IllegalArgumentException(path+" is not a color PFM file");
+            }
+            int width = Integer.parseInt(fields[1]);
+            int height = Integer.parseInt(fields[2]);
+            ByteOrder order = Double.parseDouble(fields[3]) < 0.0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+
+            // the pixels start after the single whitespace character that ends the header
+            long position = head.position() + 1;
+            long rowBytes = (long) width * 3 * Float.BYTES;
+            if (channel.size() - position != rowBytes * height) {
+                throw new IllegalArgumentException(path+" has the wrong size for a "+width+"x"+height+" image");
+            }
+
+            Framebuffer buffer = new Framebuffer(width, height);
+            int rowsPerChunk = (int) Math.max(1, CHUNK_BYTES / rowBytes);
+            for (int row=0; row<height; row+=rowsPerChunk) {
+                int rows = Math.min(rowsPerChunk, height - row);
+                ByteBuffer bytes = ByteBuffer.allocate((int) (rows * rowBytes)).order(order);
+                while (bytes.hasRemaining()) {
+                    if (channel.read(bytes, position + bytes.position()) < 0) {
+                        throw new IllegalArgumentException(path+" ends early");
+                    }
+                }
+                FloatBuffer floats = bytes.flip().asFloatBuffer();
+                for (int r=row; r<row+rows; r++) {
+                    int y = height - 1 - r;
+                    for (int x=0; x<width; x++) {
+                        buffer.add(x, y, floats.get(), floats.get(), floats.get(), 1);
+                    }
+                }
+                position += bytes.capacity();
+            }
+            return buffer;
+        }
+    }
+
+    /** @return the next whitespace separated token of the header; leaves the buffer on the whitespace after it */
+    private static String token(Path path, ByteBuffer head) {
+        while (head.hasRemaining() && Character.isWhitespace(head.get(head.position()))) {
+            head.get();
+        }
+        StringBuilder token = new StringBuilder();
+        while (head.hasRemaining() && !Character.isWhitespace(head.get(head.position()))) {
+            token.append((char) head.get());
+        }
+        if (token.length() == 0 || !head.hasRemaining()) {
+            throw new IllegalArgumentException(path+" has a bad PFM header");
+        }
+        return token.toString();
+    }
+}
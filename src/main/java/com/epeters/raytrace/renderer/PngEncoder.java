@@ -0,0 +1,380 @@
+package com.epeters.raytrace.renderer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Writes a {@link Framebuffer} as an 8 bit RGB PNG while it's being rendered. The image is cut
+ * into bands of rows; as soon as every pixel of a band is done (see {@link #pixelsComplete}),
+ * the thread that finished it filters and compresses the band and the band goes to the file,
+ * right away if the bands above it are already there, or as soon as they are.
+ *
+ * Bands are compressed independently, which is how they can be compressed in parallel (the
+ * same trick pigz uses): each is a run of raw deflate blocks ending with a sync flush, so the
+ * bands joined together make one deflate stream, and the zlib checksum of the whole image is
+ * put together from the checksums of the bands. The first row of a band only uses filters that
+ * don't look at the row above, since that belongs to another band.
+ *
+ * @see <a href="https://www.w3.org/TR/png/">PNG specification</a>
+ */
+public final class PngEncoder implements Closeable {
+
+    private static final byte [] SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n' };
+
+    /** zlib header for a deflate stream with a 32K window and fast compression */
+    private static final byte [] ZLIB_HEADER = { 0x78, 0x01 };
+
+    /**
+     * Deflate level; with good row filters the fastest level is only a couple of percent bigger
+     * than the default, at half the time
+     */
+    public static final int LEVEL = 1;
+
+    private static final int ADLER_BASE = 65521;
+
+    private static final int NONE = 0;
+    private static final int SUB = 1;
+    private static final int UP = 2;
+    private static final int AVERAGE = 3;
+    private static final int PAETH = 4;
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int bandHeight;
+    private final ToneMap toneMap;
+    private final AtomicInteger [] remaining;
+    private final byte [][] compressed;
+    private final int [] checksums;
+    private int nextBand;
+    private int checksum;
+
+    /**
+     * Creates the file and writes the PNG header
+     *
+     * @param bandHeight rows per band; the tile size is a good choice, so that a row of tiles
+     *                   finishes a band
+     */
+    public PngEncoder(Path path, int width, int height, int bandHeight) throws IOException {
+        this(path, width, height, bandHeight, ToneMap.DEFAULT);
+    }
+
+    /** Creates the file and writes the PNG header; pixels will be converted with {@code toneMap} */
+    public PngEncoder(Path path, int width, int height, int bandHeight, ToneMap toneMap) throws IOException {
+        if (width <= 0 || height <= 0 || bandHeight <= 0) {
+            throw new IllegalArgumentException("bad image size "+width+"x"+height+" or band height "+bandHeight);
+        }
+        this.width = width;
+        this.height = height;
+        this.bandHeight = bandHeight;
+        this.toneMap = toneMap;
+        int bands = (height + bandHeight - 1) / bandHeight;
+        this.remaining = new AtomicInteger[bands];
+        for (int b=0; b<bands; b++) {
+            remaining[b] = new AtomicInteger(width * (Math.min(height, (b + 1) * bandHeight) - b * bandHeight));
+        }
+        this.compressed = new byte[bands][];
+        this.checksums = new int[bands];
+        this.checksum = 1;
+        this.channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING);
+
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width).putInt(height)
+                .put((byte) 8)  // bits per channel
+                .put((byte) 2)  // truecolor (RGB)
+                .put((byte) 0)  // deflate
+                .put((byte) 0)  // adaptive filtering
+                .put((byte) 0); // no interlacing
+        channel.write(ByteBuffer.wrap(SIGNATURE));
+        writeChunk("IHDR", header.array(), 0, 13);
+    }
+
+    /**
+     * Records that {@code count} more pixels of row {@code y} are finished; if that finishes a
+     * band, it's encoded on the calling thread. Safe to call from any number of threads.
+     *
+     * @return true if this finished a band, so its pixels aren't needed any more
+     */
+    public boolean pixelsComplete(Framebuffer buffer, int y, int count) {
+        int band = y / bandHeight;
+        if (remaining[band].addAndGet(-count) == 0) {
+            encode(buffer, band);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Encodes whatever bands are left (in parallel, on the common fork/join pool) and finishes
+     * the file. After a render that called {@link #pixelsComplete} for every pixel, this only
+     * has to write the end of the file.
+     */
+    public void finish(Framebuffer buffer) throws IOException {
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (int b=0; b<remaining.length; b++) {
+            int band = b;
+            if (remaining[band].getAndSet(0) > 0) {
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        encode(buffer, band);
+                    }
+                });
+            }
+        }
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(tasks);
+            }
+        });
+        synchronized (this) {
+            if (nextBand != remaining.length) {
+                throw new IllegalStateException("only "+nextBand+" of "+remaining.length+" bands were written");
+            }
+            writeChunk("IEND", new byte[0], 0, 0);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /** Writes a whole framebuffer to a PNG file */
+    public static void write(Framebuffer buffer, Path path, int bandHeight) throws IOException {
+        write(buffer, path, bandHeight, ToneMap.DEFAULT);
+    }
+
+    /** Writes a whole framebuffer to a PNG file, tone mapped with {@code toneMap} */
+    public static void write(Framebuffer buffer, Path path, int bandHeight, ToneMap toneMap) throws IOException {
+        try (PngEncoder encoder = new PngEncoder(path, buffer.getWidth(), buffer.getHeight(), bandHeight, toneMap)) {
+            encoder.finish(buffer);
+        }
+    }
+
+    // ==============================================================================
+    // encoding a band
+    // ==============================================================================
+
+    private void encode(Framebuffer buffer, int band) {
+
+        int y0 = band * bandHeight;
+        int y1 = Math.min(height, y0 + bandHeight);
+        int stride = width * 3;
+        byte [] filtered = new byte[(y1 - y0) * (stride + 1)];
+        byte [] previous = new byte[stride];
+        byte [] current = new byte[stride];
+        int [] rgb = new int[width];
+
+        for (int y=y0; y<y1; y++) {
+            toneMap.rowToRgb(buffer, y, rgb);
+            for (int x=0; x<width; x++) {
+                current[x * 3] = (byte) (rgb[x] >> 16);
+                current[x * 3 + 1] = (byte) (rgb[x] >> 8);
+                current[x * 3 + 2] = (byte) rgb[x];
+            }
+            filterRow(current, previous, y > y0, filtered, (y - y0) * (stride + 1));
+            byte [] swap = previous;
+            previous = current;
+            current = swap;
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(filtered);
+        boolean last = band == remaining.length - 1;
+        byte [] data = deflate(filtered, last);
+        bandComplete(band, data, (int) adler.getValue());
+    }
+
+    /**
+     * Filters one row into {@code out} (a filter type byte, then the row), choosing the filter
+     * with the smallest sum of absolute differences, which is the heuristic libpng uses. All
+     * five filters are scored in one pass over the row.
+     */
+    private static void filterRow(byte [] row, byte [] above, boolean hasAbove, byte [] out, int offset) {
+        long none = 0L;
+        long sub = 0L;
+        long up = 0L;
+        long average = 0L;
+        long paeth = 0L;
+        for (int i=0; i<row.length; i++) {
+            int x = row[i] & 0xff;
+            int a = i >= 3 ? row[i - 3] & 0xff : 0;
+            int b = above[i] & 0xff;
+            int c = i >= 3 ? above[i - 3] & 0xff : 0;
+            none += Math.abs((byte) x);
+            sub += Math.abs((byte) (x - a));
+            up += Math.abs((byte) (x - b));
+            average += Math.abs((byte) (x - ((a + b) >>> 1)));
+            paeth += Math.abs((byte) (x - paeth(a, b, c)));
+        }
+        int best = NONE;
+        long bestScore = none;
+        if (sub < bestScore) {
+            best = SUB;
+            bestScore = sub;
+        }
+        // the row above belongs to another band, so the first row of a band can't use it
+        if (hasAbove) {
+            if (up < bestScore) {
+                best = UP;
+                bestScore = up;
+            }
+            if (average < bestScore) {
+                best = AVERAGE;
+                bestScore = average;
+            }
+            if (paeth < bestScore) {
+                best = PAETH;
+            }
+        }
+        out[offset] = (byte) best;
+        for (int i=0; i<row.length; i++) {
+            out[offset + 1 + i] = (byte) filter(best, row, above, i);
+        }
+    }
+
+    private static int filter(int filter, byte [] row, byte [] above, int i) {
+        int x = row[i] & 0xff;
+        int a = i >= 3 ? row[i - 3] & 0xff : 0;
+        int b = above[i] & 0xff;
+        int c = i >= 3 ? above[i - 3] & 0xff : 0;
+        return switch (filter) {
+            case SUB -> x - a;
+            case UP -> x - b;
+            case AVERAGE -> x - ((a + b) >>> 1);
+            case PAETH -> x - paeth(a, b, c);
+            default -> x;
+        };
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /** Compresses a band to raw deflate blocks, ending with a sync flush (or the final block, for the last band) */
+    private static byte [] deflate(byte [] input, boolean last) {
+        Deflater deflater = new Deflater(LEVEL, true);
+        try {
+            deflater.setStrategy(Deflater.FILTERED);
+            deflater.setInput(input);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 4 + 64);
+            byte [] chunk = new byte[16384];
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(chunk, 0, deflater.deflate(chunk));
+                }
+            } else {
+                // the first call can return nothing, if all it did was apply the strategy
+                int n;
+                do {
+                    n = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+                    out.write(chunk, 0, n);
+                } while (n == chunk.length || !deflater.needsInput());
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // ==============================================================================
+    // writing bands in order
+    // ==============================================================================
+
+    private synchronized void bandComplete(int band, byte [] data, int adler) {
+        compressed[band] = data;
+        checksums[band] = adler;
+        try {
+            while (nextBand < compressed.length && compressed[nextBand] != null) {
+                writeBand(nextBand);
+                compressed[nextBand] = null;
+                nextBand++;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void writeBand(int band) throws IOException {
+        byte [] data = compressed[band];
+        int rows = Math.min(height, (band + 1) * bandHeight) - band * bandHeight;
+        checksum = combineAdler(checksum, checksums[band], (long) rows * (width * 3 + 1));
+        boolean first = band == 0;
+        boolean last = band == compressed.length - 1;
+        ByteBuffer idat = ByteBuffer.allocate((first ? 2 : 0) + data.length + (last ? 4 : 0));
+        if (first) {
+            idat.put(ZLIB_HEADER);
+        }
+        idat.put(data);
+        if (last) {
+            idat.putInt(checksum);
+        }
+        writeChunk("IDAT", idat.array(), 0, idat.capacity());
+    }
+
+    private void writeChunk(String type, byte [] data, int offset, int length) throws IOException {
+        byte [] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, offset, length);
+        ByteBuffer head = ByteBuffer.allocate(8).putInt(length).put(name).flip();
+        ByteBuffer tail = ByteBuffer.allocate(4).putInt((int) crc.getValue()).flip();
+        ByteBuffer body = ByteBuffer.wrap(data, offset, length);
+        while (head.hasRemaining() || body.hasRemaining() || tail.hasRemaining()) {
+            channel.write(new ByteBuffer[] { head, body, tail });
+        }
+    }
+
+    /**
+     * @return the Adler-32 checksum of two pieces of data joined together, given the checksum of
+     * each and the length of the second (adler32_combine from zlib)
+     */
+    static int combineAdler(int adler1, int adler2, long length2) {
+        long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xffff) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= 2L * ADLER_BASE) {
+            sum2 -= 2L * ADLER_BASE;
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return (int) (sum1 | (sum2 << 16));
+    }
+}
@@ -1,59 +1,222 @@
 package com.epeters.raytrace.renderer;
 
 import com.epeters.raytrace.Tracer;
-import com.epeters.raytrace.utils.Color;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 public final class Renderer {
 
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    /** Tiles are never subdivided below this size when balancing load */
+    public static final int MIN_TILE_SIZE = 4;
+
+    /** How often a checkpoint is written to disk while a pass is running */
+    public static final long CHECKPOINT_INTERVAL_MS = 30_000L;
+
+    /** Fewest bands (rows of tiles) in memory at once when rendering a band at a time */
+    public static final int WINDOW_BANDS = 3;
+
     private final Tracer tracer;
     private final File file;
+    private final File checkpointFile;
+    private final File hdrFile;
     private final int threads;
+    private final int tileSize;
     private final ParallelProgress progress;
 
+    // the checkpoint and pass being rendered, if any, and where finished rows of the last pass
+    // go to be written out; set before the pass's work is handed out
+    private Checkpoint checkpoint;
+    private int pass;
+    private long lastFlush;
+    private PngEncoder output;
+    private PfmEncoder hdrOutput;
+    private Semaphore window;
+
+    // totals of the last render
+    private long samples;
+    private long checksum;
+
     public Renderer(Tracer tracer, String path, int threads) {
+        this(tracer, path, threads, DEFAULT_TILE_SIZE);
+    }
+
+    public Renderer(Tracer tracer, String path, int threads, int tileSize) {
+        this(tracer, path, threads, tileSize, null);
+    }
+
+    /**
+     * @param checkpointPath file to keep the render's progress in (see {@link Checkpoint}); if it
+     *                       already exists, the render carries on from it. May be null.
+     */
+    public Renderer(Tracer tracer, String path, int threads, int tileSize, String checkpointPath) {
+        this(tracer, path, threads, tileSize, checkpointPath, null);
+    }
+
+    /**
+     * @param hdrPath file to also save the image to as linear radiance (see {@link PfmEncoder}),
+     *                so it can be tone mapped again later without rendering it again. May be null.
+     */
+    public Renderer(Tracer tracer, String path, int threads, int tileSize, String checkpointPath, String hdrPath) {
         this.tracer = tracer;
         this.file = new File(path);
+        this.checkpointFile = checkpointPath == null ? null : new File(checkpointPath);
+        this.hdrFile = hdrPath == null ? null : new File(hdrPath);
         this.threads = threads;
-        this.progress = new ParallelProgress(tracer.getImageWidth() * tracer.getImageHeight());
+        this.tileSize = tileSize;
+        this.progress = new ParallelProgress((long) tracer.getImageWidth() * tracer.getImageHeight());
+    }
+
+    public ParallelProgress getProgress() {
+        return progress;
     }
 
+    /** @return the number of samples in the image from the last {@link #render()}, including any resumed from a checkpoint */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return the {@link Framebuffer#checksum()} of the image from the last {@link #render()};
+     * renders of the same scene and seed have the same checksum however they were run
+     */
+    public long getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Renders all the passes of the image and writes it out. With a checkpoint file, passes
+     * (and pixels) that the file already has are skipped. The image is written as it's rendered:
+     * each band of the last pass is compressed and written as soon as it's finished (see
+     * {@link PngEncoder}), so the file is done right after the last tile. The same goes for the
+     * HDR file, if there is one.
+     *
+     * A single pass render that's too big to keep in memory is rendered a band at a time (see
+     * {@link #renderWindowed()}). A checkpointed render of any size keeps its buffer in the
+     * checkpoint file instead, where the operating system pages it in and out as needed.
+     */
     public void render() {
-        List<Color[]> rows = threads > 1 ? renderThreaded() : renderImmediate();
-        writeData(rows);
+        Framebuffer buffer;
+        int width = tracer.getImageWidth();
+        int height = tracer.getImageHeight();
+        try (PngEncoder encoder = new PngEncoder(file.toPath(), width, height, tileSize);
+             PfmEncoder hdrEncoder = hdrFile == null ? null : new PfmEncoder(hdrFile.toPath(), width, height)) {
+            this.output = encoder;
+            this.hdrOutput = hdrEncoder;
+            if (checkpointFile != null) {
+                buffer = renderCheckpointed();
+            } else if (tracer.getPasses() == 1 && bufferBytes() > Runtime.getRuntime().maxMemory() / 4) {
+                buffer = renderWindowed();
+            } else {
+                buffer = renderPasses(newFramebuffer(), null);
+            }
+            this.output = null;
+            this.hdrOutput = null;
+            encoder.finish(buffer);
+            if (hdrEncoder != null) {
+                hdrEncoder.finish(buffer);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.samples = buffer.totalSamples();
+        this.checksum = buffer.checksum();
     }
 
-    public List<Color[]> renderImmediate() {
-        List<Color[]> rows = new ArrayList<>(tracer.getImageWidth());
-        for (int y=tracer.getImageHeight()-1; y>=0; y--) {
-            rows.add(renderRow(y));
+    private Framebuffer renderCheckpointed() {
+        try (Checkpoint checkpoint = Checkpoint.open(checkpointFile.toPath(),
+                tracer.getImageWidth(), tracer.getImageHeight(), tracer.getFingerprint())) {
+            if (checkpoint.getPasses() > 0) {
+                System.err.printf("resuming %s after %d of %d passes%n", checkpointFile, checkpoint.getPasses(), tracer.getPasses());
+            }
+            repair(checkpoint);
+            return renderPasses(checkpoint.getBuffer(), checkpoint);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
-        return rows;
     }
 
-    public List<Color[]> renderThreaded() {
+    /**
+     * Renders over the pixels the checkpoint was in the middle of when the render stopped.
+     * Their samples may or may not be in the buffer, so they're cleared and given back the
+     * passes they had; samples only depend on the pixel and their number, so they come out
+     * exactly as they were.
+     */
+    private void repair(Checkpoint checkpoint) {
+        Framebuffer buffer = checkpoint.getBuffer();
+        for (int [] pixel : checkpoint.interruptedPixels()) {
+            buffer.clear(pixel[0], pixel[1]);
+            for (int p=0; p<pixel[2]; p++) {
+                tracer.renderPixel(buffer, pixel[0], pixel[1]);
+            }
+            checkpoint.pixelRepaired(pixel[0], pixel[1], pixel[2]);
+        }
+    }
+
+    private Framebuffer renderPasses(Framebuffer buffer, Checkpoint checkpoint) {
+        PngEncoder encoder = output;
+        PfmEncoder hdrEncoder = hdrOutput;
+        int first = checkpoint == null ? 0 : checkpoint.getPasses();
+        for (int p=first; p<tracer.getPasses(); p++) {
+            this.checkpoint = checkpoint;
+            this.pass = p;
+            this.lastFlush = System.currentTimeMillis();
+            this.output = p == tracer.getPasses() - 1 ? encoder : null;
+            this.hdrOutput = p == tracer.getPasses() - 1 ? hdrEncoder : null;
+            if (threads > 1) {
+                renderTiled(buffer);
+            } else {
+                renderImmediate(buffer);
+            }
+            if (checkpoint != null) {
+                checkpoint.passComplete(p);
+            }
+        }
+        this.checkpoint = null;
+        this.output = null;
+        this.hdrOutput = null;
+        return buffer;
+    }
+
+    /** Renders every pixel once on the calling thread */
+    public Framebuffer renderImmediate() {
+        return renderImmediate(newFramebuffer());
+    }
+
+    private Framebuffer renderImmediate(Framebuffer buffer) {
+        for (int y=0; y<tracer.getImageHeight(); y++) {
+            renderRow(buffer, y);
+            flushIfDue();
+        }
+        return buffer;
+    }
+
+    public Framebuffer renderThreaded() {
 
         ExecutorService executor = Executors.newFixedThreadPool(threads);
-        Map<Integer,Color[]> rows = new ConcurrentHashMap<>();
+        Framebuffer buffer = newFramebuffer();
 
         progress.start();
         for (int i=0; i<tracer.getImageHeight(); i++) {
             final int thisRow = i;
             executor.submit(() -> {
-                rows.put(thisRow, renderRow(thisRow));
+                long start = System.nanoTime();
+                renderRow(buffer, thisRow);
+                progress.workComplete(System.nanoTime() - start);
             });
         }
         executor.shutdown();
@@ -66,36 +229,182 @@ public final class Renderer {
             throw new RuntimeException(e);
         }
         progress.reportProgress();
+        return buffer;
+    }
+
+    /**
+     * Renders the image as square tiles on a work-stealing {@link ForkJoinPool}; see
+     * {@link TileTask} for how the work gets balanced across threads
+     */
+    public Framebuffer renderTiled() {
+        return renderTiled(newFramebuffer());
+    }
+
+    private Framebuffer renderTiled(Framebuffer buffer) {
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        TileTask task = new TileTask(Tile.grid(buffer.getWidth(), buffer.getHeight(), tileSize), MIN_TILE_SIZE, tileWorker(buffer));
+
+        progress.start();
+        try {
+            await(pool.submit(task));
+        } finally {
+            pool.shutdown();
+        }
+        progress.reportProgress();
+        return buffer;
+    }
+
+    /**
+     * Renders the image one band (row of tiles) at a time, top to bottom, on a work-stealing
+     * {@link ForkJoinPool}. Only a few bands are in memory at once: each is written to the
+     * output as soon as it's done and then dropped, which makes room for the next. Memory use
+     * depends on the width of the image but not its height. A couple of bands are always in
+     * progress, so threads that run out of tiles in one band can start on the next.
+     *
+     * Bands are only dropped once they're in the PNG (see {@link #bandComplete}), so this needs
+     * the output that {@link #render()} sets up.
+     */
+    private Framebuffer renderWindowed() {
+        if (output == null) {
+            throw new IllegalStateException("rendering a band at a time needs an output to write the bands to");
+        }
+
+        int width = tracer.getImageWidth();
+        int height = tracer.getImageHeight();
+        int tilesPerBand = (width + tileSize - 1) / tileSize;
+        Framebuffer buffer = Framebuffer.windowed(width, height, tileSize);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Consumer<Tile> worker = tileWorker(buffer);
+        List<ForkJoinTask<Void>> bands = new ArrayList<>();
+        this.window = new Semaphore(Math.max(WINDOW_BANDS, 2 * threads / tilesPerBand + 1));
+
+        progress.start();
+        try {
+            for (int y0=0; y0<height; y0+=tileSize) {
+                while (!window.tryAcquire(2000L, TimeUnit.MILLISECONDS)) {
+                    progress.reportProgress();
+                    for (ForkJoinTask<Void> band : bands) {
+                        if (band.isCompletedAbnormally()) {
+                            throw new RuntimeException(band.getException());
+                        }
+                    }
+                }
+                List<Tile> tiles = Tile.row(width, y0, Math.min(height, y0 + tileSize), tileSize);
+                bands.add(pool.submit(new TileTask(tiles, MIN_TILE_SIZE, worker)));
+            }
+            for (ForkJoinTask<Void> band : bands) {
+                await(band);
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            pool.shutdown();
+            this.window = null;
+        }
+        progress.reportProgress();
+        return buffer;
+    }
 
-        List<Integer> list = new ArrayList<>(rows.keySet());
-        list.sort(Comparator.reverseOrder());
-        return list.stream().map(rows::get).collect(Collectors.toList());
+    /**
+     * @return the work for one tile: renders its pixels, and hands each finished row to the
+     * output (see {@link #bandComplete})
+     */
+    private Consumer<Tile> tileWorker(Framebuffer buffer) {
+        return tile -> {
+            long start = System.nanoTime();
+            for (int y=tile.y0(); y<tile.y1(); y++) {
+                for (int x=tile.x0(); x<tile.x1(); x++) {
+                    renderPixel(buffer, x, y);
+                }
+                if (output != null && output.pixelsComplete(buffer, y, tile.width())) {
+                    bandComplete(buffer, y);
+                }
+            }
+            progress.pixelsComplete(tile.pixels());
+            progress.workComplete(System.nanoTime() - start);
+        };
     }
 
-    /** Renders a single row of the image */
-    public Color[] renderRow(int y) {
-        Color [] row = new Color[tracer.getImageWidth()];
+    /** Waits for rendering work to finish, reporting progress (and saving the checkpoint) now and then */
+    private void await(Future<?> future) {
+        try {
+            while (true) {
+                try {
+                    future.get(2000L, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    progress.reportProgress();
+                    flushIfDue();
+                }
+            }
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** Renders a single row of the image (row 0 is the top) */
+    public void renderRow(Framebuffer buffer, int y) {
         for (int x=0; x<tracer.getImageWidth(); x++) {
-            row[x] = tracer.renderPixel(x, y);
+            renderPixel(buffer, x, y);
             progress.pixelsComplete(1);
         }
-        return row;
+        if (output != null && output.pixelsComplete(buffer, y, tracer.getImageWidth())) {
+            bandComplete(buffer, y);
+        }
     }
 
-    public void writeData(List<Color[]> rows) {
-        BufferedImage image = new BufferedImage(tracer.getImageWidth(), tracer.getImageHeight(), BufferedImage.TYPE_INT_RGB);
-        for (int y=0; y<rows.size(); y++) {
-            Color [] row = rows.get(y);
-            for (int x=0; x<row.length; x++) {
-                Color pixel = row[x];
-                int rgb = pixel.toRgb();
-                image.setRGB(x, y, rgb);
-            }
+    /**
+     * Called once the band (row of tiles) containing row {@code y} is finished and in the PNG:
+     * writes it to the HDR file, and when rendering a band at a time, drops it from the buffer
+     */
+    private void bandComplete(Framebuffer buffer, int y) {
+        int y0 = y / tileSize * tileSize;
+        if (hdrOutput != null) {
+            hdrOutput.writeRows(buffer, y0, Math.min(buffer.getHeight(), y0 + tileSize));
+        }
+        if (window != null) {
+            buffer.release(y0 / buffer.getRowsPerSegment());
+            window.release();
         }
+    }
+
+    /** Renders a pixel, unless the checkpoint says it has already had the current pass */
+    private void renderPixel(Framebuffer buffer, int x, int y) {
+        Checkpoint checkpoint = this.checkpoint;
+        if (checkpoint == null) {
+            tracer.renderPixel(buffer, x, y);
+        } else if (checkpoint.needsPass(x, y, pass)) {
+            checkpoint.pixelStarted(x, y, pass);
+            tracer.renderPixel(buffer, x, y);
+            checkpoint.pixelComplete(x, y, pass);
+        }
+    }
+
+    /** Writes the checkpoint to disk if it's been a while */
+    private void flushIfDue() {
+        long now = System.currentTimeMillis();
+        if (checkpoint != null && now - lastFlush >= CHECKPOINT_INTERVAL_MS) {
+            checkpoint.flush();
+            lastFlush = now;
+        }
+    }
+
+    /** Writes a finished buffer to the output file (see {@link PngEncoder}) */
+    public void writeData(Framebuffer buffer) {
         try {
-            ImageIO.write(image, "png", file);
+            PngEncoder.write(buffer, file.toPath(), tileSize);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
+
+    /** @return how much memory a whole framebuffer for the image takes */
+    private long bufferBytes() {
+        return (long) tracer.getImageWidth() * tracer.getImageHeight() * Framebuffer.STRIDE * Double.BYTES;
+    }
+
+    private Framebuffer newFramebuffer() {
+        return new Framebuffer(tracer.getImageWidth(), tracer.getImageHeight());
+    }
 }
@@ -0,0 +1,91 @@
+package com.epeters.raytrace.renderer;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A rectangular region of the output image, in image coordinates (row 0 is the top of the
+ * image). Bounds are half-open, so {@code x1} and {@code y1} are one past the last pixel.
+ */
+public record Tile(int x0, int y0, int x1, int y1) {
+
+    public int width() {
+        return x1 - x0;
+    }
+
+    public int height() {
+        return y1 - y0;
+    }
+
+    public int pixels() {
+        return width() * height();
+    }
+
+    /**
+     * Splits this tile into quadrants (or halves, if one side is already too small to split)
+     * so that idle threads have something to steal
+     */
+    public List<Tile> split(int minSize) {
+        boolean splitX = width() >= 2 * minSize;
+        boolean splitY = height() >= 2 * minSize;
+        int mx = splitX ? x0 + width() / 2 : x1;
+        int my = splitY ? y0 + height() / 2 : y1;
+        List<Tile> result = new ArrayList<>(4);
+        result.add(new Tile(x0, y0, mx, my));
+        if (splitX) {
+            result.add(new Tile(mx, y0, x1, my));
+        }
+        if (splitY) {
+            result.add(new Tile(x0, my, mx, y1));
+        }
+        if (splitX && splitY) {
+            result.add(new Tile(mx, my, x1, y1));
+        }
+        return result;
+    }
+
+    /**
+     * Divides an image into square tiles of the given size, ordered along a Z-order (Morton)
+     * curve. Neighbouring entries in the list are neighbours in the image, so a thread working
+     * through a contiguous run of tiles stays in one region of the scene.
+     */
+    public static List<Tile> grid(int width, int height, int size) {
+        int cols = (width + size - 1) / size;
+        int rows = (height + size - 1) / size;
+        List<Tile> tiles = new ArrayList<>(cols * rows);
+        for (int ty=0; ty<rows; ty++) {
+            for (int tx=0; tx<cols; tx++) {
+                int x0 = tx * size;
+                int y0 = ty * size;
+                tiles.add(new Tile(x0, y0, Math.min(x0 + size, width), Math.min(y0 + size, height)));
+            }
+        }
+        tiles.sort(Comparator.comparingLong(t -> morton(t.x0 / size, t.y0 / size)));
+        return tiles;
+    }
+
+    /** @return the tiles of one row of tiles (rows y0 to y1 of the image), from left to right */
+    public static List<Tile> row(int width, int y0, int y1, int size) {
+        List<Tile> tiles = new ArrayList<>((width + size - 1) / size);
+        for (int x0=0; x0<width; x0+=size) {
+            tiles.add(new Tile(x0, y0, Math.min(x0 + size, width), y1));
+        }
+        return tiles;
+    }
+
+    /** Interleaves the bits of two tile coordinates */
+    static long morton(int x, int y) {
+        return spread(x) | (spread(y) << 1);
+    }
+
+    private static long spread(int v) {
+        long x = v & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+}
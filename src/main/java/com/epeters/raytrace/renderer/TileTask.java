@@ -0,0 +1,66 @@
+package com.epeters.raytrace.renderer;
+
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * Fork/join task that renders a run of {@link Tile}s. Runs are split in half until a single
+ * tile is left, so idle workers steal large contiguous (and therefore spatially local) blocks
+ * of the image first.
+ *
+ * A single tile is rendered one row at a time. If the pool runs dry while a tile is still
+ * in progress (which is what happens when one tile covers the light or a glass sphere), the
+ * rows that are left get split into smaller tiles so the idle workers can help finish it.
+ * The pool counts as running dry when {@link #getSurplusQueuedTaskCount()} goes negative,
+ * which only happens once fewer than half of its workers are busy; a worker whose own queue
+ * is empty sees zero, and splitting then would only add overhead.
+ */
+final class TileTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<Tile> tiles;
+    private final int lo;
+    private final int hi;
+    private final int minSize;
+    private final Consumer<Tile> worker;
+
+    TileTask(List<Tile> tiles, int minSize, Consumer<Tile> worker) {
+        this(tiles, 0, tiles.size(), minSize, worker);
+    }
+
+    private TileTask(List<Tile> tiles, int lo, int hi, int minSize, Consumer<Tile> worker) {
+        this.tiles = tiles;
+        this.lo = lo;
+        this.hi = hi;
+        this.minSize = minSize;
+        this.worker = worker;
+    }
+
+    @Override
+    protected void compute() {
+        if (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new TileTask(tiles, lo, mid, minSize, worker),
+                    new TileTask(tiles, mid, hi, minSize, worker));
+        } else if (hi > lo) {
+            renderTile(tiles.get(lo));
+        }
+    }
+
+    private void renderTile(Tile tile) {
+        for (int y=tile.y0(); y<tile.y1(); y++) {
+            worker.accept(new Tile(tile.x0(), y, tile.x1(), y + 1));
+            Tile rest = new Tile(tile.x0(), y + 1, tile.x1(), tile.y1());
+            if (isSplittable(rest) && getSurplusQueuedTaskCount() < 0) {
+                new TileTask(rest.split(minSize), minSize, worker).invoke();
+                return;
+            }
+        }
+    }
+
+    private boolean isSplittable(Tile tile) {
+        return tile.pixels() > 0 && (tile.width() >= 2 * minSize || tile.height() >= 2 * minSize);
+    }
+}
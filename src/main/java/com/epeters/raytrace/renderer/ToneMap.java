@@ -0,0 +1,61 @@
+package com.epeters.raytrace.renderer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static com.epeters.raytrace.utils.Utils.scaleInt;
+import static java.lang.Math.sqrt;
+
+/**
+ * Turns linear radiance into display values: scales it by the exposure (in stops), squeezes it
+ * into 0-1 with the operator, then applies gamma 2 like the rest of the renderer. Since the
+ * renderer can save linear radiance (see {@link PfmEncoder}), a render can be tone mapped again
+ * with different settings without rendering it again (see {@link #apply(Path, Path, int)}).
+ */
+public record ToneMap(Operator operator, double exposure) {
+
+    public enum Operator {
+
+        /** Values above 1 are clipped; this is what the renderer has always done */
+        CLAMP,
+
+        /** x / (1 + x), which never quite reaches white */
+        REINHARD,
+
+        /** Narkowicz's fit of the ACES filmic curve, with a toe and a soft shoulder */
+        ACES
+    }
+
+    /** No exposure change and clipping, which gives the same image as always */
+    public static final ToneMap DEFAULT = new ToneMap(Operator.CLAMP, 0.0);
+
+    /** @return display value (0-1, gamma corrected) for a linear value */
+    public double apply(double linear) {
+        return map(linear * Math.pow(2.0, exposure));
+    }
+
+    /** Copies one row of a buffer into {@code out} as tone mapped, 8-bit packed RGB */
+    public void rowToRgb(Framebuffer buffer, int y, int [] out) {
+        double scale = Math.pow(2.0, exposure);
+        for (int x=0; x<buffer.getWidth(); x++) {
+            int r = scaleInt(map(buffer.mean(x, y, 0) * scale), 255);
+            int g = scaleInt(map(buffer.mean(x, y, 1) * scale), 255);
+            int b = scaleInt(map(buffer.mean(x, y, 2) * scale), 255);
+            out[x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    private double map(double x) {
+        double mapped = switch (operator) {
+            case CLAMP -> x;
+            case REINHARD -> x / (1.0 + x);
+            case ACES -> (x * (2.51 * x + 0.03)) / (x * (2.43 * x + 0.59) + 0.14);
+        };
+        return sqrt(mapped);
+    }
+
+    /** Tone maps an HDR image saved by the renderer into a PNG */
+    public void apply(Path pfm, Path png, int bandHeight) throws IOException {
+        PngEncoder.write(PfmEncoder.read(pfm), png, bandHeight, this);
+    }
+}
@@ -2,6 +2,7 @@ package com.epeters.raytrace.solids;
 
 import com.epeters.raytrace.Ray;
 import com.epeters.raytrace.hittables.Hit;
+import com.epeters.raytrace.hittables.HitQuery;
 import com.epeters.raytrace.hittables.Hittable;
 import com.epeters.raytrace.surfaces.Material;
 import com.epeters.raytrace.utils.Box;
@@ -34,13 +35,23 @@ public final class ConstantMedium implements Hittable {
 
     @Override
     public Hit intersect(Ray ray, double tmin, double tmax) {
+        return HitQuery.intersect(this, ray, tmin, tmax);
+    }
+
+    /**
+     * The distance is random, so it's drawn once here and the query keeps it for {@link #shade}
+     */
+    @Override
+    public void closest(Ray ray, double tmin, HitQuery query) {
+
+        double tmax = query.t();
 
         // project the ray across all of space and find the points where it intersects
         // with our boundary (we're assuming there are only two hits)
         Hit hit1 = boundary.intersect(ray, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
         Hit hit2 = hit1 == null ? null : boundary.intersect(ray, hit1.t() + 0.0001, Double.POSITIVE_INFINITY);
         if (hit2 == null) {
-            return null;
+            return;
         }
 
         // if the ray originates inside the boundary, or the boundary overlaps with
@@ -54,9 +65,14 @@ public final class ConstantMedium implements Hittable {
         double distanceInsideBoundary = (r2t - r1t) * rayLength;
         double hitDistance = negativeInverseDensity * log(random());
         if (hitDistance > distanceInsideBoundary) {
-            return null;
+            return;
         }
 
-        return Hit.from(ray, r1t + hitDistance / rayLength, NORMAL, material, -1.0, -1.0);
+        query.record(r1t + hitDistance / rayLength, this, 0, 0.0, 0.0);
+    }
+
+    @Override
+    public Hit shade(Ray ray, HitQuery query) {
+        return Hit.from(ray, query.t(), NORMAL, material, -1.0, -1.0);
     }
 }
@@ -2,8 +2,10 @@ package com.epeters.raytrace.solids;
 
 import com.epeters.raytrace.Ray;
 import com.epeters.raytrace.hittables.Hit;
+import com.epeters.raytrace.hittables.HitQuery;
 import com.epeters.raytrace.hittables.Hittable;
 import com.epeters.raytrace.utils.Box;
+import com.epeters.raytrace.utils.Color;
 import com.epeters.raytrace.surfaces.Material;
 import com.epeters.raytrace.utils.XYZPlane;
 import com.epeters.raytrace.utils.Vector;
@@ -58,51 +60,93 @@ public final class Rectangle implements Hittable {
         return bounds;
     }
 
+    @Override
+    public Color emission() {
+        return material.emission();
+    }
+
     @Override
     public Hit intersect(Ray ray, double tmin, double tmax) {
+        return HitQuery.intersect(this, ray, tmin, tmax);
+    }
 
-        if (bounds.doesNotIntersect(ray, tmin, tmax)) {
-            return null;
-        }
+    @Override
+    public void closest(Ray ray, double tmin, HitQuery query) {
+        test(ray, tmin, query.t(), query);
+    }
+
+    @Override
+    public boolean occluded(Ray ray, double tmin, double tmax) {
+        return test(ray, tmin, tmax, null);
+    }
+
+    /** @return true if the ray hits between {@code tmin} and {@code tmax}; records the hit if there's a query */
+    private boolean test(Ray ray, double tmin, double tmax, HitQuery query) {
 
+        // the plane test below is as cheap as testing the (padded) bounds, and more exact
         Vector ro = ray.origin();
         Vector rd = ray.direction();
 
-        double t = (k - ro.component(type.k)) / rd.component(type.k);
-        if (t < tmin || t > tmax) {
-            return null;
+        double t = (k - ro.component(type.k)) * ray.inv(type.k);
+        if (!(t >= tmin && t <= tmax)) {
+            return false;
         }
 
-        double hi = ro.component(type.i) + t * ray.direction().component(type.i);
-        double hj = ro.component(type.j) + t * ray.direction().component(type.j);
+        double hi = ro.component(type.i) + t * rd.component(type.i);
+        double hj = ro.component(type.j) + t * rd.component(type.j);
         if (hi < i0 || hi > i1 || hj < j0 || hj > j1) {
-            return null;
+            return false;
         }
 
-        Vector point = ray.at(t);
-        double u = (point.component(type.i) - i0) / (i1 - i0);
-        double v = (point.component(type.j) - j0) / (j1 - j0);
+        if (query != null) {
+            query.record(t, this, 0, hi, hj);
+        }
+        return true;
+    }
 
-        return Hit.from(ray, t, point, type.normal, material, u, v);
+    @Override
+    public Hit shade(Ray ray, HitQuery query) {
+        double u = (query.a() - i0) / (i1 - i0);
+        double v = (query.b() - j0) / (j1 - j0);
+        if (!ray.hasDifferentials()) {
+            return Hit.from(ray, query.t(), type.normal, material, u, v);
+        }
+        return Hit.from(ray, query.t(), ray.at(query.t()), type.normal, material, u, v,
+                type.fromIjk(i1 - i0, 0.0, 0.0),
+                type.fromIjk(0.0, j1 - j0, 0.0));
     }
 
+    /**
+     * Same as intersecting a ray from {@code origin} along {@code direction} and working from the
+     * hit, but done on components without creating the ray or the hit.
+     */
     @Override
     public double pdfValue(Vector origin, Vector direction) {
 
-        Hit hit = intersect(new Ray(origin, direction), 0.001, Double.MAX_VALUE);
-        if (hit == null) {
+        double length = direction.length();
+        double dk = direction.component(type.k) / length;
+        double t = (k - origin.component(type.k)) / dk;
+        if (!(t >= 0.001 && t <= Double.MAX_VALUE)) {
+            return 0.0;
+        }
+        double hi = origin.component(type.i) + t * direction.component(type.i) / length;
+        double hj = origin.component(type.j) + t * direction.component(type.j) / length;
+        if (hi < i0 || hi > i1 || hj < j0 || hj > j1) {
             return 0.0;
         }
 
         double area = (i1 - i0) * (j1 - j0);
-        double dsq = hit.t() * hit.t() * direction.square();
-        double cos = abs(direction.dot(hit.normal()) / direction.length());
+        double dsq = t * t * length * length;
+        double cos = abs(dk);
         return dsq / (cos * area);
     }
 
     @Override
     public Vector directionTowards(Vector origin) {
-        Vector randomPoint = type.fromIjk(random(i0, i1), random(j0, j1), k);
-        return randomPoint.minus(origin).normalize();
+        double ri = random(i0, i1) - origin.component(type.i);
+        double rj = random(j0, j1) - origin.component(type.j);
+        double rk = k - origin.component(type.k);
+        double f = 1.0 / Math.sqrt(ri * ri + rj * rj + rk * rk);
+        return type.fromIjk(ri * f, rj * f, rk * f);
     }
 }
@@ -1,7 +1,7 @@
 package com.epeters.raytrace.solids;
 
 import com.epeters.raytrace.hittables.Hittable;
-import com.epeters.raytrace.hittables.HittableVolume;
+import com.epeters.raytrace.hittables.HittableBvh;
 import com.epeters.raytrace.surfaces.Material;
 import com.epeters.raytrace.surfaces.Texture;
 import com.epeters.raytrace.utils.Color;
@@ -67,11 +67,7 @@ public class Solids {
     }
 
     public static Hittable tmesh(Material material, Mesh mesh) {
-        List<Hittable> list = new ArrayList<>();
-        for (List<Vector> tri : mesh.toTriangles()) {
-            list.add(new Triangle(material, tri.get(0), tri.get(1), tri.get(2)));
-        }
-        return HittableVolume.from(list);
+        return TriangleMesh.from(material, mesh);
     }
 
     public static Hittable tmesh(Material material, String path) {
@@ -90,7 +86,7 @@ public class Solids {
         sides.add(rect(XZ, min.x(), min.z(), max.x(), max.z(), max.y(), material));
         sides.add(rect(YZ, min.y(), min.z(), max.y(), max.z(), min.x(), material));
         sides.add(rect(YZ, min.y(), min.z(), max.y(), max.z(), max.x(), material));
-        return HittableVolume.from(sides);
+        return HittableBvh.from(sides);
     }
 
     public static Hittable fog(Hittable boundary, double density, Color color) {
@@ -2,9 +2,11 @@ package com.epeters.raytrace.solids;
 
 import com.epeters.raytrace.Ray;
 import com.epeters.raytrace.hittables.Hit;
+import com.epeters.raytrace.hittables.HitQuery;
 import com.epeters.raytrace.hittables.Hittable;
 import com.epeters.raytrace.utils.Vector;
 import com.epeters.raytrace.utils.Box;
+import com.epeters.raytrace.utils.Color;
 import com.epeters.raytrace.surfaces.Material;
 
 import static com.epeters.raytrace.utils.Utils.dot;
@@ -38,11 +40,42 @@ public final class Sphere implements Hittable {
         return bounds;
     }
 
+    @Override
+    public Color emission() {
+        return material.emission();
+    }
+
     @Override
     public Hit intersect(Ray ray, double tmin, double tmax) {
+        return HitQuery.intersect(this, ray, tmin, tmax);
+    }
+
+    @Override
+    public void closest(Ray ray, double tmin, HitQuery query) {
+        double t = distance(ray, tmin, query.t());
+        if (!Double.isNaN(t)) {
+            query.record(t, this, 0, 0.0, 0.0);
+        }
+    }
+
+    @Override
+    public boolean occluded(Ray ray, double tmin, double tmax) {
+        return !Double.isNaN(distance(ray, tmin, tmax));
+    }
+
+    /** @return the point on the sphere with texture coordinates (u, v), as given to its hits */
+    public Vector pointAt(double u, double v) {
+        double phi = 2 * PI * u;
+        double theta = PI * v;
+        double s = Math.sin(theta);
+        return center.plus(vec(-Math.cos(phi) * s, -Math.cos(theta), Math.sin(phi) * s).mul(radius));
+    }
+
+    /** @return the distance to the nearest hit between {@code tmin} and {@code tmax}, or NaN */
+    private double distance(Ray ray, double tmin, double tmax) {
 
         if (bounds.doesNotIntersect(ray, tmin, tmax)) {
-            return null;
+            return Double.NaN;
         }
 
         Vector ro = ray.origin();
@@ -57,7 +90,7 @@ public final class Sphere implements Hittable {
         double c = dot(ocx, ocy, ocz) - radius * radius;
         double d = hb * hb - a * c;
         if (d < 0.0) {
-            return null;
+            return Double.NaN;
         }
 
         double sd = sqrt(d);
@@ -65,16 +98,44 @@ public final class Sphere implements Hittable {
         if (t < tmin || t > tmax) {
             t = (-hb + sd) / a;
             if (t < tmin || t > tmax) {
-                return null;
+                return Double.NaN;
             }
         }
+        return t;
+    }
+
+    @Override
+    public Hit shade(Ray ray, HitQuery query) {
 
-        Vector point = ray.at(t);
-        Vector normal = point.minus(center).mul(1.0 / radius).normalize();
-        double theta = acos(-normal.y());
-        double phi = atan2(-normal.z(), normal.x()) + PI;
+        Vector ro = ray.origin();
+        Vector rd = ray.direction();
+        double t = query.t();
+
+        // the normal is (point - center) / radius, which points inwards for a negative radius
+        double px = ro.x() + t * rd.x();
+        double py = ro.y() + t * rd.y();
+        double pz = ro.z() + t * rd.z();
+        double nx = px - center.x();
+        double ny = py - center.y();
+        double nz = pz - center.z();
+        double f = Math.copySign(1.0, radius) / sqrt(dot(nx, ny, nz));
+        nx *= f;
+        ny *= f;
+        nz *= f;
+        Vector point = vec(px, py, pz);
+        Vector normal = vec(nx, ny, nz);
+        double theta = acos(-ny);
+        double phi = atan2(-nz, nx) + PI;
         double u = phi / (2 * PI);
         double v = theta / PI;
-        return Hit.from(ray, t, point, normal, material, u, v);
+        if (!ray.hasDifferentials()) {
+            return Hit.from(ray, t, point, normal, material, u, v);
+        }
+
+        // the point is center + radius * normal, with u and v going around and down from the pole
+        double rho = sqrt(nx * nx + nz * nz);
+        Vector dpdu = vec(nz, 0.0, -nx).mul(2 * PI * radius);
+        Vector dpdv = rho == 0.0 ? null : vec(-nx * ny / rho, rho, -nz * ny / rho).mul(PI * radius);
+        return Hit.from(ray, t, point, normal, material, u, v, dpdu, dpdv);
     }
 }
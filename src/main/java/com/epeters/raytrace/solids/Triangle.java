@@ -2,9 +2,11 @@ package com.epeters.raytrace.solids;
 
 import com.epeters.raytrace.Ray;
 import com.epeters.raytrace.hittables.Hit;
+import com.epeters.raytrace.hittables.HitQuery;
 import com.epeters.raytrace.hittables.Hittable;
 import com.epeters.raytrace.surfaces.Material;
 import com.epeters.raytrace.utils.Box;
+import com.epeters.raytrace.utils.Color;
 import com.epeters.raytrace.utils.Vector;
 
 public class Triangle implements Hittable {
@@ -32,18 +34,38 @@ public class Triangle implements Hittable {
         return this.bounds;
     }
 
+    @Override
+    public Color emission() {
+        return material.emission();
+    }
+
     @Override
     public Hit intersect(Ray ray, double tmin, double tmax) {
+        return HitQuery.intersect(this, ray, tmin, tmax);
+    }
+
+    @Override
+    public void closest(Ray ray, double tmin, HitQuery query) {
+        test(ray, tmin, query.t(), query);
+    }
+
+    @Override
+    public boolean occluded(Ray ray, double tmin, double tmax) {
+        return test(ray, tmin, tmax, null);
+    }
+
+    /** @return true if the ray hits between {@code tmin} and {@code tmax}; records the hit if there's a query */
+    private boolean test(Ray ray, double tmin, double tmax, HitQuery query) {
 
         if (bounds.doesNotIntersect(ray, tmin, tmax)) {
-            return null;
+            return false;
         }
 
         double tn = d - ray.origin().dot(norm);
         double td = norm.dot(ray.direction());
         double t = tn / td;
         if (t < tmin || t > tmax) {
-            return null;
+            return false;
         }
 
         Vector pvec = ray.direction().cross(edge2);
@@ -54,15 +76,26 @@ public class Triangle implements Hittable {
         Vector tvec = ray.origin().minus(vert0);
         double u = tvec.dot(pvec) * invdet;
         if (u < 0.0 || u > 1.0) {
-            return null;
+            return false;
         }
 
         Vector qvec = tvec.cross(edge1);
         double v = ray.direction().dot(qvec) * invdet;
         if (v < 0.0 || u + v > 1.0) {
-            return null;
+            return false;
+        }
+
+        if (query != null) {
+            query.record(t, this, 0, u, v);
         }
+        return true;
+    }
 
-        return Hit.from(ray, t, norm, material, u, v);
+    @Override
+    public Hit shade(Ray ray, HitQuery query) {
+        if (!ray.hasDifferentials()) {
+            return Hit.from(ray, query.t(), norm, material, query.a(), query.b());
+        }
+        return Hit.from(ray, query.t(), ray.at(query.t()), norm, material, query.a(), query.b(), edge1, edge2);
     }
 }
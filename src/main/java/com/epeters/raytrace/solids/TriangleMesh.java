@@ -0,0 +1,268 @@
+package com.epeters.raytrace.solids;
+
+import com.epeters.raytrace.Ray;
+import com.epeters.raytrace.hittables.BvhBuilder;
+import com.epeters.raytrace.hittables.BvhConfig;
+import com.epeters.raytrace.hittables.FlatBvh;
+import com.epeters.raytrace.hittables.Hit;
+import com.epeters.raytrace.hittables.HitQuery;
+import com.epeters.raytrace.surfaces.Material;
+import com.epeters.raytrace.utils.Color;
+import com.epeters.raytrace.utils.Mesh;
+import com.epeters.raytrace.utils.Vector;
+
+import static com.epeters.raytrace.utils.Vector.vec;
+
+/**
+ * All the triangles of a {@link Mesh} as a single primitive with its own {@link FlatBvh}.
+ * Positions stay in the mesh's shared {@code float[]} and each triangle is just three indices
+ * into it (stored in leaf order), so there are no per-triangle objects at all: a triangle
+ * costs 12 bytes of indices plus its share of the vertices and the tree.
+ *
+ * Intersection is the same M&ouml;ller-Trumbore test as {@link Triangle}, done on primitives
+ * straight out of the arrays. Shading is only worked out for an actual hit: vertex normals
+ * and texture coordinates are interpolated where the mesh has them, otherwise the hit gets
+ * the geometric normal and the barycentric coordinates as (u,v).
+ */
+public final class TriangleMesh extends FlatBvh {
+
+    private final Material material;
+    private final float [] positions;
+    private final int [] indices;
+    private final float [] normals;
+    private final int [] normalIndices;
+    private final float [] texCoords;
+    private final int [] texCoordIndices;
+
+    private TriangleMesh(BvhBuilder.Node root, Material material, Mesh mesh, int [] order) {
+        super(root);
+        this.material = material;
+        this.positions = mesh.getPositions();
+        this.indices = reorder(mesh.getIndices(), order);
+        this.normals = mesh.getNormals();
+        this.normalIndices = reorder(mesh.getNormalIndices(), order);
+        this.texCoords = mesh.getTexCoords();
+        this.texCoordIndices = reorder(mesh.getTexCoordIndices(), order);
+    }
+
+    public int getTriangleCount() {
+        return indices.length / 3;
+    }
+
+    @Override
+    public Color emission() {
+        return material.emission();
+    }
+
+    @Override
+    protected void closestPrimitive(int index, Ray ray, double tmin, HitQuery query) {
+        testPrimitive(index, ray, tmin, query.t(), query);
+    }
+
+    @Override
+    protected boolean occludedPrimitive(int index, Ray ray, double tmin, double tmax) {
+        return testPrimitive(index, ray, tmin, tmax, null);
+    }
+
+    /** @return true if the ray hits triangle {@code index} between {@code tmin} and {@code tmax}; records the hit if there's a query */
+    private boolean testPrimitive(int index, Ray ray, double tmin, double tmax, HitQuery query) {
+
+        int i0 = indices[index * 3] * 3;
+        int i1 = indices[index * 3 + 1] * 3;
+        int i2 = indices[index * 3 + 2] * 3;
+
+        double x0 = positions[i0];
+        double y0 = positions[i0 + 1];
+        double z0 = positions[i0 + 2];
+        double e1x = positions[i1] - x0;
+        double e1y = positions[i1 + 1] - y0;
+        double e1z = positions[i1 + 2] - z0;
+        double e2x = positions[i2] - x0;
+        double e2y = positions[i2 + 1] - y0;
+        double e2z = positions[i2 + 2] - z0;
+
+        Vector o = ray.origin();
+        Vector d = ray.direction();
+        double dx = d.x();
+        double dy = d.y();
+        double dz = d.z();
+
+        // pvec = direction x edge2
+        double px = dy * e2z - dz * e2y;
+        double py = dz * e2x - dx * e2z;
+        double pz = dx * e2y - dy * e2x;
+        double det = e1x * px + e1y * py + e1z * pz;
+        if (det == 0.0) {
+            return false;
+        }
+        double invdet = 1.0 / det;
+
+        double tx = o.x() - x0;
+        double ty = o.y() - y0;
+        double tz = o.z() - z0;
+        double u = (tx * px + ty * py + tz * pz) * invdet;
+        if (u < 0.0 || u > 1.0) {
+            return false;
+        }
+
+        // qvec = tvec x edge1
+        double qx = ty * e1z - tz * e1y;
+        double qy = tz * e1x - tx * e1z;
+        double qz = tx * e1y - ty * e1x;
+        double v = (dx * qx + dy * qy + dz * qz) * invdet;
+        if (v < 0.0 || u + v > 1.0) {
+            return false;
+        }
+
+        double t = (e2x * qx + e2y * qy + e2z * qz) * invdet;
+        if (t < tmin || t > tmax) {
+            return false;
+        }
+        if (query != null) {
+            query.record(t, this, index, u, v);
+        }
+        return true;
+    }
+
+    @Override
+    public Hit shade(Ray ray, HitQuery query) {
+
+        int index = query.primitive();
+        double u = query.a();
+        double v = query.b();
+        double t = query.t();
+
+        Vector normal = (normalIndices != null && normalIndices[index * 3] >= 0)
+                ? interpolateNormal(index, u, v)
+                : geometricNormal(index);
+        boolean textured = texCoordIndices != null && texCoordIndices[index * 3] >= 0;
+        double tu = u;
+        double tv = v;
+        if (textured) {
+            int t0 = texCoordIndices[index * 3] * 2;
+            int t1 = texCoordIndices[index * 3 + 1] * 2;
+            int t2 = texCoordIndices[index * 3 + 2] * 2;
+            double w = 1.0 - u - v;
+            tu = w * texCoords[t0] + u * texCoords[t1] + v * texCoords[t2];
+            tv = w * texCoords[t0 + 1] + u * texCoords[t1 + 1] + v * texCoords[t2 + 1];
+        }
+        if (!ray.hasDifferentials()) {
+            return Hit.from(ray, t, normal, material, tu, tv);
+        }
+
+        // without texture coordinates, u and v are the barycentric coordinates along the edges
+        int i0 = indices[index * 3] * 3;
+        int i1 = indices[index * 3 + 1] * 3;
+        int i2 = indices[index * 3 + 2] * 3;
+        Vector e1 = vec(positions[i1] - positions[i0], positions[i1 + 1] - positions[i0 + 1], positions[i1 + 2] - positions[i0 + 2]);
+        Vector e2 = vec(positions[i2] - positions[i0], positions[i2 + 1] - positions[i0 + 1], positions[i2 + 2] - positions[i0 + 2]);
+        Vector dpdu = e1;
+        Vector dpdv = e2;
+        if (textured) {
+            int t0 = texCoordIndices[index * 3] * 2;
+            int t1 = texCoordIndices[index * 3 + 1] * 2;
+            int t2 = texCoordIndices[index * 3 + 2] * 2;
+            double du1 = texCoords[t1] - texCoords[t0];
+            double dv1 = texCoords[t1 + 1] - texCoords[t0 + 1];
+            double du2 = texCoords[t2] - texCoords[t0];
+            double dv2 = texCoords[t2 + 1] - texCoords[t0 + 1];
+            double det = du1 * dv2 - dv1 * du2;
+            if (Math.abs(det) < 1e-12) {
+                dpdu = null;
+                dpdv = null;
+            } else {
+                dpdu = e1.mul(dv2).minus(e2.mul(dv1)).div(det);
+                dpdv = e2.mul(du1).minus(e1.mul(du2)).div(det);
+            }
+        }
+        return Hit.from(ray, t, ray.at(t), normal, material, tu, tv, dpdu, dpdv);
+    }
+
+    private Vector geometricNormal(int index) {
+        int i0 = indices[index * 3] * 3;
+        int i1 = indices[index * 3 + 1] * 3;
+        int i2 = indices[index * 3 + 2] * 3;
+        double e1x = positions[i1] - positions[i0];
+        double e1y = positions[i1 + 1] - positions[i0 + 1];
+        double e1z = positions[i1 + 2] - positions[i0 + 2];
+        double e2x = positions[i2] - positions[i0];
+        double e2y = positions[i2 + 1] - positions[i0 + 1];
+        double e2z = positions[i2 + 2] - positions[i0 + 2];
+        return vec(e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x).normalize();
+    }
+
+    private Vector interpolateNormal(int index, double u, double v) {
+        int n0 = normalIndices[index * 3] * 3;
+        int n1 = normalIndices[index * 3 + 1] * 3;
+        int n2 = normalIndices[index * 3 + 2] * 3;
+        double w = 1.0 - u - v;
+        return vec(
+                w * normals[n0] + u * normals[n1] + v * normals[n2],
+                w * normals[n0 + 1] + u * normals[n1 + 1] + v * normals[n2 + 1],
+                w * normals[n0 + 2] + u * normals[n1 + 2] + v * normals[n2 + 2]).normalize();
+    }
+
+    /**
+     * Builds a mesh primitive using the default tree settings (see {@link BvhConfig#DEFAULT})
+     */
+    public static TriangleMesh from(Material material, Mesh mesh) {
+        return from(material, mesh, new BvhBuilder(BvhConfig.DEFAULT));
+    }
+
+    public static TriangleMesh from(Material material, Mesh mesh, BvhBuilder builder) {
+
+        float [] positions = mesh.getPositions();
+        int [] indices = mesh.getIndices();
+        checkIndices("vertex", indices, positions.length / 3, false);
+        if (mesh.getNormals() != null) {
+            checkIndices("normal", mesh.getNormalIndices(), mesh.getNormals().length / 3, true);
+        }
+        if (mesh.getTexCoords() != null) {
+            checkIndices("texture coordinate", mesh.getTexCoordIndices(), mesh.getTexCoords().length / 2, true);
+        }
+
+        int [] order = BvhBuilder.identity(mesh.getTriangleCount());
+        BvhBuilder.Node root = builder.build(bounds(positions, indices), order);
+        return new TriangleMesh(root, material, mesh, order);
+    }
+
+    /** Checks that indices are in range; if {@code optional}, all three corners of a triangle may be -1 instead */
+    private static void checkIndices(String name, int [] indices, int count, boolean optional) {
+        for (int t=0; t<indices.length; t+=3) {
+            if (optional && indices[t] == -1 && indices[t + 1] == -1 && indices[t + 2] == -1) {
+                continue;
+            }
+            for (int i=t; i<t+3; i++) {
+                if (indices[i] < 0 || indices[i] >= count) {
+                    throw new IllegalArgumentException(name+" index "+indices[i]+" out of range (mesh has "+count+")");
+                }
+            }
+        }
+    }
+
+    /** @return per-corner indices rearranged into leaf order (or null, for null) */
+    private static int [] reorder(int [] indices, int [] order) {
+        if (indices == null) {
+            return null;
+        }
+        int [] result = new int[indices.length];
+        for (int i=0; i<order.length; i++) {
+            System.arraycopy(indices, order[i] * 3, result, i * 3, 3);
+        }
+        return result;
+    }
+
+    private static double [] bounds(float [] positions, int [] indices) {
+        double [] bounds = new double[indices.length * 2];
+        for (int t=0; t<indices.length/3; t++) {
+            for (int a=0; a<3; a++) {
+                double p0 = positions[indices[t * 3] * 3 + a];
+                double p1 = positions[indices[t * 3 + 1] * 3 + a];
+                double p2 = positions[indices[t * 3 + 2] * 3 + a];
+                bounds[t * 6 + a] = Math.min(p0, Math.min(p1, p2));
+                bounds[t * 6 + 3 + a] = Math.max(p0, Math.max(p1, p2));
+            }
+        }
+        return bounds;
+    }
+}
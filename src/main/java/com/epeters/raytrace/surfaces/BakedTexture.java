@@ -0,0 +1,281 @@
+package com.epeters.raytrace.surfaces;
+
+import com.epeters.raytrace.hittables.Footprint;
+import com.epeters.raytrace.hittables.Hit;
+import com.epeters.raytrace.utils.Box;
+import com.epeters.raytrace.utils.Color;
+import com.epeters.raytrace.utils.Vector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import static com.epeters.raytrace.utils.Vector.ORIGIN;
+import static com.epeters.raytrace.utils.Vector.vec;
+
+/**
+ * A procedural texture sampled ahead of time, so that shading reads stored colors instead of
+ * evaluating the texture (octaves of Perlin noise, say) at every hit of every sample.
+ *
+ * There are two layouts. A {@link #grid} samples a texture of the hit point at the corners of
+ * cubic cells filling a box, and is read with a trilinear lookup; hits outside the box still
+ * go to the texture itself. An {@link #atlas} samples a texture of (u, v) (or of the point on a
+ * {@link Surface} with those coordinates) into an {@link ImageTexture}, which gets mip levels
+ * and footprint filtering along with it. Either way, each sample is given a footprint the size
+ * of a cell, so the texture leaves out detail the grid is too coarse to hold.
+ *
+ * Baking is spread over the common fork/join pool. Afterwards the baked lookups are compared
+ * with the texture itself at {@link #ERROR_SAMPLES} random places (see {@link #getError()}),
+ * to show whether the resolution is high enough.
+ */
+public final class BakedTexture implements Texture {
+
+    /** Number of random places where the baked texture is checked against the original */
+    public static final int ERROR_SAMPLES = 4096;
+
+    /** Maps texture coordinates onto a surface, for baking textures of the hit point into an atlas */
+    @FunctionalInterface
+    public interface Surface {
+        Vector pointAt(double u, double v);
+    }
+
+    /** Difference between the baked texture and the original, over all three channels */
+    public record Error(int samples, double rms, double max) {
+        @Override
+        public String toString() {
+            return String.format("rms %.4f, max %.4f over %d samples", rms, max, samples);
+        }
+    }
+
+    private final Texture source;
+
+    // for a grid
+    private final Vector min;
+    private final double cell;
+    private final int nx;
+    private final int ny;
+    private final int nz;
+    private final float [] corners;
+
+    // for an atlas
+    private final ImageTexture atlas;
+
+    private Error error;
+
+    private BakedTexture(Texture source, Vector min, double cell, int nx, int ny, int nz, float [] corners, ImageTexture atlas) {
+        this.source = source;
+        this.min = min;
+        this.cell = cell;
+        this.nx = nx;
+        this.ny = ny;
+        this.nz = nz;
+        this.corners = corners;
+        this.atlas = atlas;
+    }
+
+    /**
+     * Bakes a texture of the hit point into a grid over {@code bounds}
+     * @param resolution number of samples along the longest side of the box; the other sides
+     *                   get as many as keep the cells cubic
+     */
+    public static BakedTexture grid(Texture source, Box bounds, int resolution) {
+        if (resolution < 2) {
+            throw new IllegalArgumentException("need at least 2 samples across, not "+resolution);
+        }
+        Vector size = bounds.max().minus(bounds.min());
+        double cell = Math.max(size.x(), Math.max(size.y(), size.z())) / (resolution - 1);
+        if (!(cell > 0.0)) {
+            throw new IllegalArgumentException("can't bake into empty bounds "+bounds);
+        }
+        int nx = count(size.x(), cell);
+        int ny = count(size.y(), cell);
+        int nz = count(size.z(), cell);
+        if ((long) nx * ny * nz * 3 > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("grid of "+nx+"x"+ny+"x"+nz+" is too big");
+        }
+
+        Vector min = bounds.min();
+        float [] corners = new float[nx * ny * nz * 3];
+        Footprint footprint = new Footprint(vec(cell, 0.0, 0.0), vec(0.0, cell, 0.0), 0.0, 0.0, 0.0, 0.0);
+        inParallel(nz, z -> {
+            for (int y=0; y<ny; y++) {
+                for (int x=0; x<nx; x++) {
+                    Vector point = vec(min.x() + x * cell, min.y() + y * cell, min.z() + z * cell);
+                    Color color = source.calculateColor(new Hit(0.0, point, null, true, null, 0.0, 0.0, footprint));
+                    put(corners, ((z * ny + y) * nx + x) * 3, color);
+                }
+            }
+        });
+
+        BakedTexture baked = new BakedTexture(source, min, cell, nx, ny, nz, corners, null);
+        Vector max = vec(min.x() + (nx - 1) * cell, min.y() + (ny - 1) * cell, min.z() + (nz - 1) * cell);
+        baked.error = baked.measure((random) -> {
+            Vector point = vec(
+                    min.x() + random.nextDouble() * (max.x() - min.x()),
+                    min.y() + random.nextDouble() * (max.y() - min.y()),
+                    min.z() + random.nextDouble() * (max.z() - min.z()));
+            return new Hit(0.0, point, null, true, null, 0.0, 0.0, null);
+        });
+        return baked;
+    }
+
+    /**
+     * Bakes a texture into an atlas of {@code width} by {@code height} texels
+     * @param surface where each (u, v) is, for textures of the hit point; may be null for
+     *                textures that only look at u and v
+     */
+    public static BakedTexture atlas(Texture source, int width, int height, Surface surface) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("bad atlas size "+width+"x"+height);
+        }
+
+        // texel centers are at half-integer coordinates, with v running up from the bottom row
+        float [] texels = new float[width * height * 3];
+        double du = 1.0 / width;
+        double dv = 1.0 / height;
+        inParallel(height, y -> {
+            double v = 1.0 - (y + 0.5) * dv;
+            for (int x=0; x<width; x++) {
+                double u = (x + 0.5) * du;
+                Color color = source.calculateColor(atlasHit(surface, u, v, du, dv));
+                put(texels, (y * width + x) * 3, color);
+            }
+        });
+
+        BakedTexture baked = new BakedTexture(source, null, 0.0, 0, 0, 0, null, new ImageTexture(width, height, texels));
+        baked.error = baked.measure((random) -> atlasHit(surface, random.nextDouble(), random.nextDouble(), 0.0, 0.0));
+        return baked;
+    }
+
+    /** @return what the baked texture loses against the original, measured when it was baked */
+    public Error getError() {
+        return error;
+    }
+
+    /** @return the texture that was baked */
+    public Texture getSource() {
+        return source;
+    }
+
+    @Override
+    public Color calculateColor(Hit hit) {
+        if (atlas != null) {
+            return atlas.calculateColor(hit);
+        }
+        Color color = lookup(hit.point());
+        return color == null ? source.calculateColor(hit) : color;
+    }
+
+    /** @return trilinear lookup in the grid, or null if {@code point} is outside it */
+    private Color lookup(Vector point) {
+
+        double gx = (point.x() - min.x()) / cell;
+        double gy = (point.y() - min.y()) / cell;
+        double gz = (point.z() - min.z()) / cell;
+        if (!(gx >= 0.0 && gx <= nx - 1 && gy >= 0.0 && gy <= ny - 1 && gz >= 0.0 && gz <= nz - 1)) {
+            return null;
+        }
+        int x = Math.min((int) gx, nx - 2);
+        int y = Math.min((int) gy, ny - 2);
+        int z = Math.min((int) gz, nz - 2);
+        double fx = gx - x;
+        double fy = gy - y;
+        double fz = gz - z;
+
+        int i000 = ((z * ny + y) * nx + x) * 3;
+        return Color.color(
+                blend(i000, fx, fy, fz),
+                blend(i000 + 1, fx, fy, fz),
+                blend(i000 + 2, fx, fy, fz));
+    }
+
+    /** @return one channel blended from the eight corners of the cell whose first corner's channel is at {@code i} */
+    private double blend(int i, double fx, double fy, double fz) {
+        int i010 = i + nx * 3;
+        int i001 = i + nx * ny * 3;
+        int i011 = i001 + nx * 3;
+        double c00 = corners[i] + fx * (corners[i + 3] - corners[i]);
+        double c10 = corners[i010] + fx * (corners[i010 + 3] - corners[i010]);
+        double c01 = corners[i001] + fx * (corners[i001 + 3] - corners[i001]);
+        double c11 = corners[i011] + fx * (corners[i011 + 3] - corners[i011]);
+        double c0 = c00 + fy * (c10 - c00);
+        double c1 = c01 + fy * (c11 - c01);
+        return c0 + fz * (c1 - c0);
+    }
+
+    // ==============================================================================
+    // baking
+    // ==============================================================================
+
+    private interface Slice {
+        void bake(int index);
+    }
+
+    private interface Place {
+        Hit next(SplittableRandom random);
+    }
+
+    /** @return samples needed to cover {@code length} with cells of size {@code cell} (at least 2) */
+    private static int count(double length, double cell) {
+        return Math.max(2, (int) Math.ceil(length / cell - 1e-9) + 1);
+    }
+
+    private static void put(float [] data, int i, Color color) {
+        data[i] = (float) color.r();
+        data[i + 1] = (float) color.g();
+        data[i + 2] = (float) color.b();
+    }
+
+    /** Hit at (u, v) with a footprint of one texel (if {@code du} isn't zero) */
+    private static Hit atlasHit(Surface surface, double u, double v, double du, double dv) {
+        Vector point = surface == null ? null : surface.pointAt(u, v);
+        Footprint footprint = null;
+        if (du > 0.0) {
+            Vector dpdx = surface == null ? ORIGIN : surface.pointAt(u + du, v).minus(point);
+            Vector dpdy = surface == null ? ORIGIN : surface.pointAt(u, v + dv).minus(point);
+            footprint = new Footprint(dpdx, dpdy, du, 0.0, 0.0, dv);
+        }
+        return new Hit(0.0, point, null, true, null, u, v, footprint);
+    }
+
+    /** Bakes slices 0 to {@code count} (exclusive) on the common fork/join pool */
+    private static void inParallel(int count, Slice slice) {
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (int i=0; i<count; i++) {
+            int index = i;
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    slice.bake(index);
+                }
+            });
+        }
+        ForkJoinPool.commonPool().invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(tasks);
+            }
+        });
+    }
+
+    /** Compares baked and original colors at random places (the same ones every time) */
+    private Error measure(Place place) {
+        SplittableRandom random = new SplittableRandom(0L);
+        double sum = 0.0;
+        double max = 0.0;
+        for (int i=0; i<ERROR_SAMPLES; i++) {
+            Hit hit = place.next(random);
+            Color baked = calculateColor(hit);
+            Color live = source.calculateColor(hit);
+            double dr = baked.r() - live.r();
+            double dg = baked.g() - live.g();
+            double db = baked.b() - live.b();
+            sum += dr * dr + dg * dg + db * db;
+            max = Math.max(max, Math.max(Math.abs(dr), Math.max(Math.abs(dg), Math.abs(db))));
+        }
+        return new Error(ERROR_SAMPLES, Math.sqrt(sum / (ERROR_SAMPLES * 3)), max);
+    }
+}
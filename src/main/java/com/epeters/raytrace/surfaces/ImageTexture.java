@@ -0,0 +1,332 @@
+package com.epeters.raytrace.surfaces;
+
+import com.epeters.raytrace.hittables.Footprint;
+import com.epeters.raytrace.hittables.Hit;
+import com.epeters.raytrace.utils.Color;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.epeters.raytrace.utils.Utils.clamp;
+
+/**
+ * Image-mapped texture. The image is converted when it's loaded into float RGB, along with a
+ * pyramid of mip levels: each level is half the size of the one before, every texel the
+ * average of the 2x2 texels above it, down to 1x1. Lookups are bilinear within a level, and
+ * trilinear (blending two levels) when given the size of the area being shaded, so that a
+ * texture seen from far away is averaged instead of aliased. Nothing is allocated during a
+ * lookup except the returned color.
+ *
+ * Every level is cut into square tiles of {@link #TILE_SIZE} texels (three floats each, in
+ * rows), numbered level by level and row by row. A texture made from an image keeps all its
+ * tiles in memory; one that comes from a {@link TextureCache} only has the tiles that were used
+ * lately, and reads the others back from the cache's file on disk when they're needed.
+ *
+ * As before, u runs left to right and v bottom to top, both clamped to the edges of the image.
+ */
+public final class ImageTexture implements Texture {
+
+    /** Width and height of a tile, in texels */
+    public static final int TILE_SIZE = 64;
+
+    /** Floats in one tile (tiles at the edges of a level are padded to full size) */
+    public static final int TILE_FLOATS = TILE_SIZE * TILE_SIZE * 3;
+
+    private final int [] widths;
+    private final int [] heights;
+    private final int [] tilesAcross;
+    private final int [] firstTile;
+    private final AtomicReferenceArray<float []> tiles;
+
+    // set whenever a tile is used, and cleared by the cache looking for tiles to evict; races
+    // only make the cache's choice a little less accurate
+    final byte [] referenced;
+
+    private final TextureCache cache;
+    private final FloatBuffer source;
+
+    /** Texture with all its tiles in memory */
+    public ImageTexture(BufferedImage image) {
+        this(image.getWidth(), image.getHeight(), null, null);
+        float [][] all = tiles(image);
+        for (int t=0; t<all.length; t++) {
+            tiles.set(t, all[t]);
+        }
+    }
+
+    /** Texture made from float RGB texels, in rows from the top (as made by {@link BakedTexture#atlas}) */
+    ImageTexture(int width, int height, float [] texels) {
+        this(width, height, null, null);
+        float [][] all = tiles(width, height, texels);
+        for (int t=0; t<all.length; t++) {
+            tiles.set(t, all[t]);
+        }
+    }
+
+    /** Texture whose tiles are read from {@code source} (laid out as by {@link #tiles}) when {@code cache} asks */
+    ImageTexture(int width, int height, TextureCache cache, FloatBuffer source) {
+        int count = levels(width, height);
+        this.widths = new int[count];
+        this.heights = new int[count];
+        this.tilesAcross = new int[count];
+        this.firstTile = new int[count + 1];
+        for (int l=0; l<count; l++) {
+            widths[l] = Math.max(1, width >> l);
+            heights[l] = Math.max(1, height >> l);
+            tilesAcross[l] = (widths[l] + TILE_SIZE - 1) / TILE_SIZE;
+            int tilesDown = (heights[l] + TILE_SIZE - 1) / TILE_SIZE;
+            firstTile[l + 1] = firstTile[l] + tilesAcross[l] * tilesDown;
+        }
+        this.tiles = new AtomicReferenceArray<>(firstTile[count]);
+        this.referenced = new byte[firstTile[count]];
+        this.cache = cache;
+        this.source = source;
+    }
+
+    /** Loads an image texture from a resource on the classpath, keeping it all in memory */
+    public static ImageTexture load(String path) throws IOException {
+        try (InputStream in = ImageTexture.class.getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IOException("no such image "+path);
+            }
+            return new ImageTexture(ImageIO.read(in));
+        }
+    }
+
+    public int getWidth() {
+        return widths[0];
+    }
+
+    public int getHeight() {
+        return heights[0];
+    }
+
+    /** @return number of mip levels, including the full size image */
+    public int getLevels() {
+        return widths.length;
+    }
+
+    /** @return number of tiles across all the mip levels */
+    public int getTileCount() {
+        return tiles.length();
+    }
+
+    /**
+     * Trilinear lookup over the hit's footprint in texture coordinates (see {@link Footprint}),
+     * or bilinear in the full size image if there isn't one
+     */
+    @Override
+    public Color calculateColor(Hit hit) {
+        Footprint footprint = hit.footprint();
+        if (footprint == null) {
+            return lookup(hit.u(), hit.v(), 0.0);
+        }
+        // footprint in texels, over the size of the image that lookup() scales it by
+        double w = widths[0];
+        double h = heights[0];
+        double x = Math.max(Math.abs(footprint.dudx()) * w, Math.abs(footprint.dvdx()) * h);
+        double y = Math.max(Math.abs(footprint.dudy()) * w, Math.abs(footprint.dvdy()) * h);
+        return lookup(hit.u(), hit.v(), Math.max(x, y) / Math.max(w, h));
+    }
+
+    /**
+     * @param footprint size of the area being shaded, in texture coordinates (so 1.0 covers the
+     *                  whole image); 0.0 means a point, which gets a bilinear lookup in the full
+     *                  size image
+     * @return color of the image at (u, v), averaged over the footprint
+     */
+    public Color lookup(double u, double v, double footprint) {
+        double texels = footprint * Math.max(widths[0], heights[0]);
+        double lod = texels <= 1.0 ? 0.0 : Math.min(log2(texels), widths.length - 1);
+        int l0 = (int) lod;
+        int l1 = Math.min(l0 + 1, widths.length - 1);
+        double t = lod - l0;
+        if (t == 0.0) {
+            l1 = l0;
+        }
+
+        double s = clamp(u, 0.0, 1.0);
+        double tv = clamp(1.0 - v, 0.0, 1.0);
+        double r = 0.0;
+        double g = 0.0;
+        double b = 0.0;
+        for (int l=l0; l<=l1; l++) {
+            int width = widths[l];
+            int height = heights[l];
+            double weight = l0 == l1 ? 1.0 : (l == l0 ? 1.0 - t : t);
+
+            // texel centers are at half-integer coordinates
+            double x = s * width - 0.5;
+            double y = tv * height - 0.5;
+            int x0 = (int) Math.floor(x);
+            int y0 = (int) Math.floor(y);
+            double fx = x - x0;
+            double fy = y - y0;
+            int x1 = Math.min(x0 + 1, width - 1);
+            int y1 = Math.min(y0 + 1, height - 1);
+            x0 = Math.max(x0, 0);
+            y0 = Math.max(y0, 0);
+
+            // all four texels are usually in the same tile
+            float [] t00 = tile(l, x0, y0);
+            float [] t10 = t00;
+            float [] t01 = t00;
+            float [] t11 = t00;
+            if (x0 / TILE_SIZE != x1 / TILE_SIZE || y0 / TILE_SIZE != y1 / TILE_SIZE) {
+                t10 = tile(l, x1, y0);
+                t01 = tile(l, x0, y1);
+                t11 = tile(l, x1, y1);
+            }
+            int i00 = offset(x0, y0);
+            int i10 = offset(x1, y0);
+            int i01 = offset(x0, y1);
+            int i11 = offset(x1, y1);
+            double w00 = weight * (1.0 - fx) * (1.0 - fy);
+            double w10 = weight * fx * (1.0 - fy);
+            double w01 = weight * (1.0 - fx) * fy;
+            double w11 = weight * fx * fy;
+            r += w00 * t00[i00] + w10 * t10[i10] + w01 * t01[i01] + w11 * t11[i11];
+            g += w00 * t00[i00 + 1] + w10 * t10[i10 + 1] + w01 * t01[i01 + 1] + w11 * t11[i11 + 1];
+            b += w00 * t00[i00 + 2] + w10 * t10[i10 + 2] + w01 * t01[i01 + 2] + w11 * t11[i11 + 2];
+        }
+        return Color.color(r, g, b);
+    }
+
+    /** @return the tile holding texel (x, y) of level {@code l}, paging it in if need be */
+    private float [] tile(int l, int x, int y) {
+        int t = firstTile[l] + (y / TILE_SIZE) * tilesAcross[l] + x / TILE_SIZE;
+        float [] data = tiles.get(t);
+        if (data == null) {
+            return cache.pageIn(this, t);
+        }
+        if (cache != null) {
+            cache.hit();
+            if (referenced[t] == 0) {
+                referenced[t] = 1;
+            }
+        }
+        return data;
+    }
+
+    /** @return position of texel (x, y) in its tile */
+    private static int offset(int x, int y) {
+        return ((y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE) * 3;
+    }
+
+    /**
+     * @return log2(x) for x >= 1; exact at powers of two and linear in between, which is close
+     * enough for choosing mip levels, and a lot cheaper than {@link Math#log}
+     */
+    private static double log2(double x) {
+        int exponent = Math.getExponent(x);
+        return exponent + x / Math.scalb(1.0, exponent) - 1.0;
+    }
+
+    // ==============================================================================
+    // tiles, for the cache
+    // ==============================================================================
+
+    /** @return tile {@code t} if it's in memory, or null */
+    float [] resident(int t) {
+        return tiles.get(t);
+    }
+
+    /** Reads tile {@code t} from the source and keeps it in memory */
+    float [] readTile(int t) {
+        float [] data = new float[TILE_FLOATS];
+        source.get(t * TILE_FLOATS, data);
+        referenced[t] = 1;
+        tiles.set(t, data);
+        return data;
+    }
+
+    /** Forgets tile {@code t}; it can be read back from the source later */
+    void evict(int t) {
+        tiles.set(t, null);
+    }
+
+    /** @return number of mip levels of an image of the given size */
+    static int levels(int width, int height) {
+        int count = 1;
+        while ((width >> count) > 0 || (height >> count) > 0) {
+            count++;
+        }
+        return count;
+    }
+
+    /** @return every tile of every mip level of {@code image}, in order */
+    static float [][] tiles(BufferedImage image) {
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        float s = 1.0f / 255.0f;
+        float [] texels = new float[width * height * 3];
+        int [] row = new int[width];
+        for (int y=0; y<height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x=0; x<width; x++) {
+                int i = (y * width + x) * 3;
+                texels[i] = ((row[x] >> 16) & 0xFF) * s;
+                texels[i + 1] = ((row[x] >> 8) & 0xFF) * s;
+                texels[i + 2] = (row[x] & 0xFF) * s;
+            }
+        }
+        return tiles(width, height, texels);
+    }
+
+    /** @return every tile of every mip level of an image given as float RGB texels, in order */
+    private static float [][] tiles(int width, int height, float [] texels) {
+
+        int count = levels(width, height);
+        float [][] levels = new float[count][];
+        levels[0] = texels;
+        for (int l=1; l<count; l++) {
+            levels[l] = downsample(levels[l - 1], Math.max(1, width >> (l - 1)), Math.max(1, height >> (l - 1)));
+        }
+
+        ImageTexture layout = new ImageTexture(width, height, null, null);
+        float [][] result = new float[layout.getTileCount()][];
+        for (int l=0; l<count; l++) {
+            int levelWidth = layout.widths[l];
+            int levelHeight = layout.heights[l];
+            for (int t=layout.firstTile[l]; t<layout.firstTile[l + 1]; t++) {
+                int tx = (t - layout.firstTile[l]) % layout.tilesAcross[l] * TILE_SIZE;
+                int ty = (t - layout.firstTile[l]) / layout.tilesAcross[l] * TILE_SIZE;
+                int rowWidth = Math.min(TILE_SIZE, levelWidth - tx);
+                float [] tile = new float[TILE_FLOATS];
+                for (int y=ty; y<Math.min(ty + TILE_SIZE, levelHeight); y++) {
+                    System.arraycopy(levels[l], (y * levelWidth + tx) * 3, tile, offset(0, y), rowWidth * 3);
+                }
+                result[t] = tile;
+            }
+        }
+        return result;
+    }
+
+    /** @return the next mip level down from {@code src}, with a 2x2 box filter */
+    private static float [] downsample(float [] src, int srcWidth, int srcHeight) {
+        int width = Math.max(1, srcWidth / 2);
+        int height = Math.max(1, srcHeight / 2);
+        float [] dst = new float[width * height * 3];
+        for (int y=0; y<height; y++) {
+            int y0 = Math.min(2 * y, srcHeight - 1) * srcWidth;
+            int y1 = Math.min(2 * y + 1, srcHeight - 1) * srcWidth;
+            for (int x=0; x<width; x++) {
+                int x0 = Math.min(2 * x, srcWidth - 1);
+                int x1 = Math.min(2 * x + 1, srcWidth - 1);
+                for (int c=0; c<3; c++) {
+                    dst[(y * width + x) * 3 + c] = 0.25f * (src[(y0 + x0) * 3 + c]
+                            + src[(y0 + x1) * 3 + c]
+                            + src[(y1 + x0) * 3 + c]
+                            + src[(y1 + x1) * 3 + c]);
+                }
+            }
+        }
+        return dst;
+    }
+}
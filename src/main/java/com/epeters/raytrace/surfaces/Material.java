@@ -21,6 +21,23 @@ public interface Material {
         return 0.0;
     }
 
+    /**
+     * @return the light this gives off, if it's the same for every hit and every ray, or null.
+     * Shadow rays use it to skip building a {@link Hit} and {@link Scatter} on the light.
+     */
+    default Color emission() {
+        return null;
+    }
+
+    /**
+     * @return the ray that carries on from a {@link Scatter.Type#SPECULAR} scatter. Materials
+     * that can work out where the ray's differentials go override this to keep them; by default
+     * they're dropped.
+     */
+    default Ray scatterRay(Ray ray, Hit hit, Scatter scatter) {
+        return new Ray(hit.point(), scatter.direction());
+    }
+
     static Material norm() {
         return (ray, hit) -> null;
     }
@@ -74,6 +91,17 @@ public interface Material {
      * Lighted surface
      */
     static Material light(Color color) {
-        return (ray, hit) -> Scatter.emissive(color);
+        Scatter scatter = Scatter.emissive(color);
+        return new Material() {
+            @Override
+            public Scatter computeScatter(Ray ray, Hit hit) {
+                return scatter;
+            }
+
+            @Override
+            public Color emission() {
+                return color;
+            }
+        };
     }
 }
@@ -1,6 +1,7 @@
 package com.epeters.raytrace.surfaces;
 
 import com.epeters.raytrace.Ray;
+import com.epeters.raytrace.hittables.Footprint;
 import com.epeters.raytrace.hittables.Hit;
 import com.epeters.raytrace.hittables.Scatter;
 import com.epeters.raytrace.utils.Color;
@@ -8,6 +9,7 @@ import com.epeters.raytrace.utils.Vector;
 
 import static com.epeters.raytrace.utils.Utils.random;
 import static com.epeters.raytrace.utils.Utils.sqrt;
+import static com.epeters.raytrace.utils.Vector.vec;
 import static java.lang.Math.abs;
 
 public class MaterialDialectric implements Material {
@@ -27,6 +29,32 @@ public class MaterialDialectric implements Material {
         return Scatter.simpleBounce(Color.WHITE, bounce);
     }
 
+    /**
+     * The differentials follow the ray: reflected if it was reflected, otherwise refracted by
+     * Snell's law alone, without drawing random numbers (and ignoring how the normal curves)
+     */
+    @Override
+    public Ray scatterRay(Ray ray, Hit hit, Scatter scatter) {
+        Footprint footprint = hit.footprint();
+        if (!ray.hasDifferentials() || footprint == null) {
+            return new Ray(hit.point(), scatter.direction());
+        }
+        Vector normal = hit.normal();
+        Vector rx;
+        Vector ry;
+        if (scatter.direction().dot(normal) > 0.0) {
+            rx = MaterialMetal.reflect(ray.rxDirection(), normal, 0.0);
+            ry = MaterialMetal.reflect(ray.ryDirection(), normal, 0.0);
+        } else {
+            double ratio = hit.front() ? frontRatio : backRatio;
+            rx = snell(ray.rxDirection(), normal, ratio);
+            ry = snell(ray.ryDirection(), normal, ratio);
+        }
+        return new Ray(hit.point(), scatter.direction(),
+                hit.point().plus(footprint.dpdx()), rx,
+                hit.point().plus(footprint.dpdy()), ry);
+    }
+
     /**
      * Uses Snell's law for refraction, with Schlick's approximation for reflectance.
      * @return the result of refracting this ray through a surface with the given index of refraction.
@@ -35,7 +63,7 @@ public class MaterialDialectric implements Material {
      */
     public static Vector refract(Vector incoming, Vector normal, double ratio) {
 
-        double cos = Math.min(incoming.negate().dot(normal), 1.0);
+        double cos = Math.min(-incoming.dot(normal), 1.0);
         double sin = sqrt(1.0 - cos * cos);
         if (ratio * sin > 1.0) {
             return MaterialMetal.reflect(incoming, normal, 0.0);
@@ -48,8 +76,23 @@ public class MaterialDialectric implements Material {
             return MaterialMetal.reflect(incoming, normal, 0.0);
         }
 
-        Vector result = normal.mul(cos).plus(incoming).mul(ratio);
-        double factor = -sqrt(abs(1.0 - result.square()));
-        return result.plus(normal.mul(factor));
+        return bend(incoming, normal, cos, ratio);
+    }
+
+    /** @return the refracted direction by Snell's law alone, or the reflected one past the critical angle */
+    private static Vector snell(Vector incoming, Vector normal, double ratio) {
+        double cos = Math.min(-incoming.dot(normal), 1.0);
+        if (ratio * ratio * (1.0 - cos * cos) > 1.0) {
+            return MaterialMetal.reflect(incoming, normal, 0.0);
+        }
+        return bend(incoming, normal, cos, ratio);
+    }
+
+    private static Vector bend(Vector incoming, Vector normal, double cos, double ratio) {
+        double rx = (normal.x() * cos + incoming.x()) * ratio;
+        double ry = (normal.y() * cos + incoming.y()) * ratio;
+        double rz = (normal.z() * cos + incoming.z()) * ratio;
+        double factor = -sqrt(abs(1.0 - (rx * rx + ry * ry + rz * rz)));
+        return vec(rx + normal.x() * factor, ry + normal.y() * factor, rz + normal.z() * factor);
     }
 }
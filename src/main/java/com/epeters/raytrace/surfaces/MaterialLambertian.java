@@ -3,7 +3,6 @@ package com.epeters.raytrace.surfaces;
 import com.epeters.raytrace.Ray;
 import com.epeters.raytrace.hittables.Hit;
 import com.epeters.raytrace.hittables.Scatter;
-import com.epeters.raytrace.utils.Basis;
 import com.epeters.raytrace.utils.Color;
 import com.epeters.raytrace.utils.Vector;
 
@@ -78,9 +77,8 @@ public final class MaterialLambertian implements Material {
 
     private Scatter orthonormalBounce(Ray ray, Hit hit) {
         Color albedo = texture.calculateColor(hit);
-        Basis basis = Basis.fromW(hit.normal());
-        Vector bounce = basis.local(randomCosineDirection()).normalize();
-        double pdf = basis.w().dot(bounce) / Math.PI;
+        Vector bounce = randomCosineDirection(hit.normal());
+        double pdf = hit.normal().dot(bounce) / Math.PI;
         return Scatter.diffuse(albedo, bounce, pdf);
     }
 }
@@ -1,12 +1,14 @@
 package com.epeters.raytrace.surfaces;
 
 import com.epeters.raytrace.Ray;
+import com.epeters.raytrace.hittables.Footprint;
 import com.epeters.raytrace.hittables.Hit;
 import com.epeters.raytrace.hittables.Scatter;
 import com.epeters.raytrace.utils.Color;
 import com.epeters.raytrace.utils.Vector;
 
 import static com.epeters.raytrace.utils.Utils.randomUnitVector;
+import static com.epeters.raytrace.utils.Vector.vec;
 
 public class MaterialMetal implements Material {
 
@@ -25,6 +27,23 @@ public class MaterialMetal implements Material {
         return Scatter.simpleBounce(color, bounce);
     }
 
+    /**
+     * The differentials are reflected off the same normal (ignoring how it curves) and moved by
+     * the same fuzz as the ray itself
+     */
+    @Override
+    public Ray scatterRay(Ray ray, Hit hit, Scatter scatter) {
+        Footprint footprint = hit.footprint();
+        if (!ray.hasDifferentials() || footprint == null) {
+            return new Ray(hit.point(), scatter.direction());
+        }
+        Vector normal = hit.normal();
+        Vector fuzzed = scatter.direction().minus(reflect(ray.direction(), normal, 0.0));
+        return new Ray(hit.point(), scatter.direction(),
+                hit.point().plus(footprint.dpdx()), reflect(ray.rxDirection(), normal, 0.0).plus(fuzzed),
+                hit.point().plus(footprint.dpdy()), reflect(ray.ryDirection(), normal, 0.0).plus(fuzzed));
+    }
+
     /**
      * @return the result of reflecting this vector against the supplied normal, with optional fuzz
      * @see <a href="https://raytracing.github.io/books/RayTracingInOneWeekend.html#metal/mirroredlightreflection">doc</a>
@@ -32,10 +51,15 @@ public class MaterialMetal implements Material {
      */
     public static Vector reflect(Vector incoming, Vector normal, double fuzz) {
         double d = 2.0 * incoming.dot(normal);
-        Vector v = incoming.plus(normal.mul(-d));
+        double x = incoming.x() - normal.x() * d;
+        double y = incoming.y() - normal.y() * d;
+        double z = incoming.z() - normal.z() * d;
         if (fuzz > 0.0) {
-            v = v.plus(randomUnitVector().mul(fuzz));
+            Vector r = randomUnitVector();
+            x += r.x() * fuzz;
+            y += r.y() * fuzz;
+            z += r.z() * fuzz;
         }
-        return v;
+        return vec(x, y, z);
     }
 }
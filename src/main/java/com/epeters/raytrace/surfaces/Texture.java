@@ -1,19 +1,21 @@
 package com.epeters.raytrace.surfaces;
 
+import com.epeters.raytrace.hittables.Footprint;
 import com.epeters.raytrace.hittables.Hit;
+import com.epeters.raytrace.utils.Box;
 import com.epeters.raytrace.utils.Color;
 import com.epeters.raytrace.utils.Perlin;
+import com.epeters.raytrace.utils.Vector;
 
-import javax.imageio.ImageIO;
-import java.awt.image.BufferedImage;
-import java.io.IOException;
-
-import static com.epeters.raytrace.utils.Utils.clamp;
 import static java.lang.Math.sin;
 
 /**
  * Interface for a component that knows how to calculate surface color at a given point, plus
  * various implementations for common use cases.
+ *
+ * When the hit has a footprint (see {@link Hit#footprint()}), the procedural textures leave out
+ * detail that's too small to show up in a pixel, fading it to its average instead of letting
+ * it alias; without one they're exactly as they always were.
  */
 public interface Texture {
 
@@ -33,12 +35,19 @@ public interface Texture {
      * Alternating squares of color
      */
     static Texture checker(Color even, Color odd) {
+        Color average = even.plus(odd).mul(0.5);
         return (hit) -> {
+            // squares are PI / 10 across
+            double fade = fade(hit.width() * 10.0 / Math.PI);
+            if (fade == 1.0) {
+                return average;
+            }
             double sx = sin(10.0 * hit.point().x());
             double sy = sin(10.0 * hit.point().y());
             double sz = sin(10.0 * hit.point().z());
             double sines = sx * sy * sz;
-            return (sines < 0) ? odd : even;
+            Color color = (sines < 0) ? odd : even;
+            return fade == 0.0 ? color : mix(color, average, fade);
         };
     }
 
@@ -48,7 +57,11 @@ public interface Texture {
     static Texture noise(Color color, double scale) {
         Perlin perlin = new Perlin();
         return (hit) -> {
-            double n = 0.5 * (1.0 - perlin.noise(hit.point().mul(scale)));
+            Vector point = hit.point();
+            // the noise has features about a cell across, and averages to 0
+            double fade = fade(hit.width() * scale);
+            double noise = fade == 1.0 ? 0.0 : perlin.noise(point.x() * scale, point.y() * scale, point.z() * scale) * (1.0 - fade);
+            double n = 0.5 * (1.0 - noise);
             return color.mul(n);
         };
     }
@@ -59,40 +72,63 @@ public interface Texture {
     static Texture turbulence(Color color, double scale, int depth) {
         Perlin perlin = new Perlin();
         return (hit) -> {
-            double n = 0.5 * sin(scale * hit.point().z() + 10.0 * perlin.turbulence(hit.point(), depth));
+            Vector point = hit.point();
+            double phase = scale * point.z() + 10.0 * perlin.turbulence(point, depth);
+            double n = 0.5 * sin(phase);
+            Footprint footprint = hit.footprint();
+            if (footprint != null) {
+                // every octave moves the phase as fast as the others, so they're all kept; the
+                // sine is averaged over the change in phase across the footprint instead
+                Vector d = footprint.dpdx().square() > footprint.dpdy().square() ? footprint.dpdx() : footprint.dpdy();
+                double nz = point.z() + d.z();
+                double change = Math.abs(scale * nz + 10.0 * perlin.turbulence(point.x() + d.x(), point.y() + d.y(), nz, depth) - phase);
+                n *= sinc(0.5 * change);
+            }
             return color.mul(n);
         };
     }
 
     /**
-     * Image-mapped texture
+     * Image-mapped texture (see {@link ImageTexture}), shared with anything else that uses the
+     * same image (see {@link TextureCache})
      */
     static Texture image(String path) {
-        try {
-            final BufferedImage image = ImageIO.read(Texture.class.getResourceAsStream(path));
-            final int width = image.getWidth();
-            final int height = image.getHeight();
-            return (hit) -> {
+        return TextureCache.shared().get(path);
+    }
 
-                int i = (int) (clamp(hit.u(), 0.0, 1.0) * width);
-                if (i > width) {
-                    i = width - 1;
-                }
+    /**
+     * {@code texture} sampled ahead of time into a grid over {@code bounds}, with
+     * {@code resolution} samples along its longest side (see {@link BakedTexture#grid})
+     */
+    static BakedTexture baked(Texture texture, Box bounds, int resolution) {
+        return BakedTexture.grid(texture, bounds, resolution);
+    }
 
-                int j = (int) (clamp((1.0 - hit.v()), 0.0, 1.0) * height);
-                if (j > height) {
-                    j = height - 1;
-                }
+    /**
+     * @param ratio size of the footprint over the size of the detail
+     * @return how far to fade detail to its average: not at all while the footprint is under
+     * half the size of the detail, completely once it's as big, smoothly in between
+     */
+    private static double fade(double ratio) {
+        if (ratio <= 0.5) {
+            return 0.0;
+        }
+        if (ratio >= 1.0) {
+            return 1.0;
+        }
+        double t = (ratio - 0.5) * 2.0;
+        return t * t * (3.0 - 2.0 * t);
+    }
 
-                double s = 1.0 / 255.0;
-                int rgb = image.getRGB(i, j);
-                double r = ((rgb >> 16) & 0xFF) * s;
-                double g = ((rgb >> 8) & 0xFF) * s;
-                double b = (rgb & 0xFF) * s;
-                return Color.color(r, g, b);
-            };
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    /** @return the average of sin over x +/- h, relative to sin(x); cut off at the first zero */
+    private static double sinc(double h) {
+        if (h < 1e-4) {
+            return 1.0;
         }
+        return h >= Math.PI ? 0.0 : sin(h) / h;
+    }
+
+    private static Color mix(Color a, Color b, double t) {
+        return a.mul(1.0 - t).plus(b.mul(t));
     }
 }
@@ -0,0 +1,258 @@
+package com.epeters.raytrace.surfaces;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Process-wide cache of {@link ImageTexture}s, so that an image used by many materials (or
+ * many scenes) is decoded once and shared, and a scene can have more texture data than fits
+ * in memory.
+ *
+ * The first time an image is asked for, it's decoded, its mip levels built and cut into tiles,
+ * and the tiles written to a file in the cache directory. That file is memory-mapped, and the
+ * texture reads tiles from it as they're used; the file is named after the image's contents,
+ * so later runs skip decoding altogether. Tiles in memory count against a budget; when it's
+ * exceeded, the least recently used tiles are dropped (found with the clock algorithm, so
+ * using a tile that's already in memory doesn't take a lock), to be read back from the file if
+ * they're needed again.
+ */
+public final class TextureCache {
+
+    /** Default memory budget for tiles, in bytes */
+    public static final long DEFAULT_BUDGET = 256L << 20;
+
+    /** "RTTILES1" */
+    private static final long MAGIC = 0x5254544953454c31L;
+    private static final int HEADER_SIZE = 32;
+    private static final int TILE_BYTES = ImageTexture.TILE_FLOATS * Float.BYTES;
+
+    private static final TextureCache SHARED = new TextureCache(
+            Path.of(System.getProperty("java.io.tmpdir"), "raytrace-texture-tiles"), DEFAULT_BUDGET);
+
+    private final Path directory;
+    private final Map<String, ImageTexture> textures;
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder evictions;
+
+    // tiles in memory, in the order the clock hand visits them
+    private final List<ImageTexture> residentTextures;
+    private final List<Integer> residentTiles;
+    private int hand;
+    private long budget;
+
+    public TextureCache(Path directory, long budget) {
+        this.directory = directory;
+        this.textures = new ConcurrentHashMap<>();
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+        this.evictions = new LongAdder();
+        this.residentTextures = new ArrayList<>();
+        this.residentTiles = new ArrayList<>();
+        setBudget(budget);
+    }
+
+    /** @return the cache that {@link Texture#image} uses */
+    public static TextureCache shared() {
+        return SHARED;
+    }
+
+    /** @return the texture for an image resource on the classpath, loading it the first time */
+    public ImageTexture get(String path) {
+        return textures.computeIfAbsent(path, p -> {
+            try {
+                return load(p);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /** @return bytes of tiles in memory */
+    public synchronized long getResidentBytes() {
+        return (long) residentTiles.size() * TILE_BYTES;
+    }
+
+    public synchronized long getBudget() {
+        return budget;
+    }
+
+    /** Changes the memory budget, evicting tiles right away if there are too many */
+    public synchronized void setBudget(long budget) {
+        if (budget < TILE_BYTES) {
+            throw new IllegalArgumentException("budget of "+budget+" bytes doesn't fit a single tile");
+        }
+        this.budget = budget;
+        while (getResidentBytes() > budget) {
+            evictOne();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d textures, %d hits, %d misses, %d evictions, %dMB of %dMB in use",
+                textures.size(), getHits(), getMisses(), getEvictions(), getResidentBytes() >> 20, getBudget() >> 20);
+    }
+
+    // ==============================================================================
+    // paging tiles in and out
+    // ==============================================================================
+
+    void hit() {
+        hits.increment();
+    }
+
+    /** @return tile {@code t} of {@code texture}, read in from disk if it's not in memory */
+    synchronized float [] pageIn(ImageTexture texture, int t) {
+        float [] data = texture.resident(t);
+        if (data != null) {
+            // another thread got here first
+            hits.increment();
+            return data;
+        }
+        misses.increment();
+        while (getResidentBytes() + TILE_BYTES > budget) {
+            evictOne();
+        }
+        data = texture.readTile(t);
+        residentTextures.add(texture);
+        residentTiles.add(t);
+        return data;
+    }
+
+    /** Evicts the first tile the clock hand comes to that hasn't been used since it last came by */
+    private void evictOne() {
+        while (true) {
+            if (hand >= residentTiles.size()) {
+                hand = 0;
+            }
+            ImageTexture texture = residentTextures.get(hand);
+            int t = residentTiles.get(hand);
+            if (texture.referenced[t] != 0) {
+                texture.referenced[t] = 0;
+                hand++;
+                continue;
+            }
+            texture.evict(t);
+            evictions.increment();
+            // the last tile takes this one's place, and the hand looks at it next
+            int last = residentTiles.size() - 1;
+            residentTextures.set(hand, residentTextures.get(last));
+            residentTiles.set(hand, residentTiles.get(last));
+            residentTextures.remove(last);
+            residentTiles.remove(last);
+            return;
+        }
+    }
+
+    // ==============================================================================
+    // the tile files
+    // ==============================================================================
+
+    /**
+     * Maps the tile file for an image, making it first if there isn't one. The file has a
+     * {@link #HEADER_SIZE} byte header (magic number, width, height), then the tiles as
+     * little-endian floats.
+     */
+    private ImageTexture load(String path) throws IOException {
+
+        byte [] encoded;
+        try (InputStream in = TextureCache.class.getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IOException("no such image "+path);
+            }
+            encoded = in.readAllBytes();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(encoded);
+        String name = Path.of(path).getFileName()+"-"+Long.toHexString(crc.getValue())+"-"+encoded.length+".tiles";
+        Path file = directory.resolve(name);
+
+        if (!Files.exists(file)) {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(encoded));
+            if (image == null) {
+                throw new IOException("can't decode image "+path);
+            }
+            write(image, file);
+        }
+
+        try (FileChannel channel = FileChannel.open(file, READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.getLong(0) != MAGIC) {
+                throw new IllegalStateException(file+" is not a texture tile file");
+            }
+            int width = mapped.getInt(8);
+            int height = mapped.getInt(12);
+            ImageTexture texture = new ImageTexture(width, height, this,
+                    mapped.slice(HEADER_SIZE, mapped.capacity() - HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer());
+            if ((long) texture.getTileCount() * TILE_BYTES != channel.size() - HEADER_SIZE) {
+                throw new IllegalStateException(file+" has the wrong size for a "+width+"x"+height+" texture");
+            }
+            return texture;
+        }
+    }
+
+    /** Writes the tiles of an image to a new tile file; it only appears under its real name once it's complete */
+    private void write(BufferedImage image, Path file) throws IOException {
+        float [][] tiles = ImageTexture.tiles(image);
+        if ((long) tiles.length * TILE_BYTES > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException("image is too big to cache: "+image.getWidth()+"x"+image.getHeight());
+        }
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putLong(MAGIC).putInt(image.getWidth()).putInt(image.getHeight()).rewind();
+                writeFully(channel, header);
+                ByteBuffer bytes = ByteBuffer.allocate(TILE_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                for (float [] tile : tiles) {
+                    bytes.clear();
+                    bytes.asFloatBuffer().put(tile);
+                    writeFully(channel, bytes);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package com.epeters.raytrace.utils;
 
-import java.util.concurrent.ThreadLocalRandom;
+import static com.epeters.raytrace.utils.Utils.randomInt;
 
 public enum Axis {
 
@@ -8,8 +8,9 @@ public enum Axis {
     Y,
     Z;
 
+    private static final Axis [] VALUES = values();
+
     public static Axis randomAxis() {
-        Axis [] values = values();
-        return values[ThreadLocalRandom.current().nextInt(values.length)];
+        return VALUES[randomInt(VALUES.length)];
     }
 }
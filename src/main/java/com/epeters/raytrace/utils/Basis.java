@@ -6,14 +6,55 @@ import static com.epeters.raytrace.utils.Vector.vec;
 public record Basis(Vector u, Vector v, Vector w) {
 
     public Vector local(Vector a) {
-        return u.mul(a.x()).plus(v.mul(a.y())).plus(w.mul(a.z()));
+        return local(a.x(), a.y(), a.z());
+    }
+
+    /** @return the world space vector with the given coordinates in this basis */
+    public Vector local(double a, double b, double c) {
+        return vec(
+                a * u.x() + b * v.x() + c * w.x(),
+                a * u.y() + b * v.y() + c * w.y(),
+                a * u.z() + b * v.z() + c * w.z());
     }
 
     public static Basis fromW(Vector n) {
-        Vector w = n.normalize();
-        Vector a = abs(w.x()) > 0.9 ? vec(0.0, 1.0, 0.0) : vec(1.0, 0.0, 0.0);
-        Vector v = w.cross(a).normalize();
-        Vector u = w.cross(v).normalize();
-        return new Basis(u, v, w);
+        return new Basis(local(n, 1.0, 0.0, 0.0), local(n, 0.0, 1.0, 0.0), local(n, 0.0, 0.0, 1.0));
+    }
+
+    /**
+     * Same as {@code fromW(n).local(a, b, c)}, but works on components so the only object
+     * created is the result.
+     */
+    public static Vector local(Vector n, double a, double b, double c) {
+
+        double f = 1.0 / n.length();
+        double wx = n.x() * f;
+        double wy = n.y() * f;
+        double wz = n.z() * f;
+
+        // v = w x a, where a is whichever of the x and y axes is further from w
+        double vx, vy, vz;
+        if (abs(wx) > 0.9) {
+            vx = -wz;
+            vy = 0.0;
+            vz = wx;
+        } else {
+            vx = 0.0;
+            vy = wz;
+            vz = -wy;
+        }
+        f = 1.0 / Math.sqrt(vx * vx + vy * vy + vz * vz);
+        vx *= f;
+        vy *= f;
+        vz *= f;
+
+        // u = w x v is unit length already, since w and v are orthonormal
+        double ux = wy * vz - wz * vy;
+        double uy = wz * vx - wx * vz;
+        double uz = wx * vy - wy * vx;
+        return vec(
+                a * ux + b * vx + c * wx,
+                a * uy + b * vy + c * wy,
+                a * uz + b * vz + c * wz);
     }
 }
@@ -0,0 +1,190 @@
+package com.epeters.raytrace.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Blue noise dithered sampling: every pixel uses the same Sobol points (scrambled once per
+ * pair of dimensions, for the whole image), shifted by the value of a blue noise mask at that
+ * pixel (wrapping around at 1). Each pixel still gets well stratified samples, and on top of
+ * that neighbouring pixels get very different shifts, so what error is left shows up as fine
+ * grained noise rather than blotches. Each dimension reads the mask at its own offset.
+ *
+ * The mask is a {@link #TILE} x {@link #TILE} tile made by the void-and-cluster method when
+ * it's first needed.
+ *
+ * @see <a href="https://www.arnoldrenderer.com/research/dither_abstract.pdf">Georgiev and Fajardo, Blue-noise Dithered Sampling</a>
+ * @see <a href="https://doi.org/10.1117/12.152707">Ulichney, The void-and-cluster method</a>
+ */
+public final class BlueNoiseSampler implements Sampler {
+
+    /** Width and height of the mask (a power of two) */
+    public static final int TILE = 64;
+
+    /** Width of the Gaussian filter that the void-and-cluster method uses to find gaps and clumps */
+    public static final double SIGMA = 1.5;
+
+    /** Seed for the random starting pattern, so the mask is the same every time */
+    public static final long SEED = 0x5eed;
+
+    private static final class Mask {
+        static final float [] VALUES = generate(TILE, SIGMA, SEED);
+    }
+
+    private final int seed;
+    private int x;
+    private int y;
+    private int index;
+    private int dimension;
+    private double second;
+
+    // shuffle seed, scramble seeds and mask offsets for the pairs of dimensions (five per pair: a
+    // seed to shuffle the index, then a seed and an offset for each dimension); they're the same
+    // for every pixel, so they're only worked out once
+    private int [] pairs = new int[80];
+    private int prepared;
+
+    public BlueNoiseSampler(long seed) {
+        this.seed = (int) Sampler.hash64(seed);
+    }
+
+    @Override
+    public void startSample(int x, int y, int index) {
+        this.x = x;
+        this.y = y;
+        this.index = index;
+        this.dimension = 0;
+    }
+
+    @Override
+    public double next() {
+        int d = dimension++;
+        if ((d & 1) != 0) {
+            return second;
+        }
+        int p = (d >>> 1) * 5;
+        if (p >= prepared) {
+            preparePair(p, d);
+        }
+        // each pair takes the points in its own order (as in SobolSampler), or all the pairs
+        // would be scrambles of the same digits and correlate with each other
+        int i = SobolSampler.scramble(index, pairs[p + 4]);
+        second = shift(Sampler.toUnit(SobolSampler.sample1(i, pairs[p + 1])), pairs[p + 3]);
+        return shift(Sampler.toUnit(SobolSampler.sample0(i, pairs[p])), pairs[p + 2]);
+    }
+
+    private void preparePair(int p, int d) {
+        if (p + 5 > pairs.length) {
+            pairs = Arrays.copyOf(pairs, pairs.length * 2);
+        }
+        int pair = Sampler.hash(seed, d >>> 1);
+        pairs[p] = Sampler.hash(pair, 0);
+        pairs[p + 1] = Sampler.hash(pair, 1);
+        pairs[p + 2] = Sampler.hash(seed, d, 0x6d61736b);
+        pairs[p + 3] = Sampler.hash(seed, d + 1, 0x6d61736b);
+        pairs[p + 4] = Sampler.hash(pair, 2);
+        prepared = p + 5;
+    }
+
+    private double shift(double value, int offset) {
+        int mx = (x + offset) & (TILE - 1);
+        int my = (y + (offset >>> 16)) & (TILE - 1);
+        value += Mask.VALUES[my * TILE + mx];
+        return value >= 1.0 ? value - 1.0 : value;
+    }
+
+    /**
+     * Void-and-cluster: starting from a few random points, repeatedly moves the point in the
+     * tightest cluster to the largest void until they're evenly spread out. Then each pixel is
+     * ranked by taking points out of the tightest clusters one by one, and putting new ones into
+     * the largest voids until the tile is full. Clusters and voids are the highest and lowest
+     * sums of a Gaussian filter over the points, which wraps around so the tile does too.
+     *
+     * @return {@code size * size} values between 0 and 1, where each value appears once
+     */
+    public static float [] generate(int size, double sigma, long seed) {
+
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("size must be a power of two: "+size);
+        }
+
+        int n = size * size;
+        double [] kernel = new double[n];
+        for (int dy=0; dy<size; dy++) {
+            for (int dx=0; dx<size; dx++) {
+                int wx = Math.min(dx, size - dx);
+                int wy = Math.min(dy, size - dy);
+                kernel[dy * size + dx] = Math.exp(-(wx * wx + wy * wy) / (2.0 * sigma * sigma));
+            }
+        }
+
+        boolean [] points = new boolean[n];
+        double [] energy = new double[n];
+        Random random = new Random(seed);
+        int ones = n / 10;
+        for (int placed=0; placed<ones; ) {
+            int p = random.nextInt(n);
+            if (!points[p]) {
+                toggle(points, energy, kernel, size, p);
+                placed++;
+            }
+        }
+
+        for (int moves=0; moves<n; moves++) {
+            int cluster = extreme(points, energy, true);
+            toggle(points, energy, kernel, size, cluster);
+            int gap = extreme(points, energy, false);
+            toggle(points, energy, kernel, size, gap);
+            if (gap == cluster) {
+                break;
+            }
+        }
+
+        int [] rank = new int[n];
+        boolean [] startPoints = points.clone();
+        double [] startEnergy = energy.clone();
+        for (int r=ones-1; r>=0; r--) {
+            int cluster = extreme(points, energy, true);
+            toggle(points, energy, kernel, size, cluster);
+            rank[cluster] = r;
+        }
+        points = startPoints;
+        energy = startEnergy;
+        for (int r=ones; r<n; r++) {
+            int gap = extreme(points, energy, false);
+            toggle(points, energy, kernel, size, gap);
+            rank[gap] = r;
+        }
+
+        float [] values = new float[n];
+        for (int i=0; i<n; i++) {
+            values[i] = (float) ((rank[i] + 0.5) / n);
+        }
+        return values;
+    }
+
+    /** Adds or removes the point at {@code p}, and its share of the filter */
+    private static void toggle(boolean [] points, double [] energy, double [] kernel, int size, int p) {
+        double sign = points[p] ? -1.0 : 1.0;
+        points[p] = !points[p];
+        int px = p % size;
+        int py = p / size;
+        for (int qy=0; qy<size; qy++) {
+            int row = ((qy - py) & (size - 1)) * size;
+            for (int qx=0; qx<size; qx++) {
+                energy[qy * size + qx] += sign * kernel[row + ((qx - px) & (size - 1))];
+            }
+        }
+    }
+
+    /** @return the point with the most energy ({@code set} true), or the empty spot with the least */
+    private static int extreme(boolean [] points, double [] energy, boolean set) {
+        int best = -1;
+        for (int i=0; i<points.length; i++) {
+            if (points[i] == set && (best < 0 || (set ? energy[i] > energy[best] : energy[i] < energy[best]))) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
@@ -26,29 +26,12 @@ public record Box(Vector min, Vector max) {
         this.max = max.maxWith(min);
     }
 
+    /**
+     * Slab test using the inverse direction and sign that the {@link Ray} carries
+     * (see {@link Ray#hitsBox})
+     */
     public boolean doesNotIntersect(Ray ray, double tmin, double tmax) {
-        for (Axis axis : Axis.values()) {
-
-            Vector ro = ray.origin();
-            Vector rd = ray.direction();
-
-            double id = 1.0f / rd.component(axis);
-            double t0 = (min.component(axis) - ro.component(axis)) * id;
-            double t1 = (max.component(axis) - ro.component(axis)) * id;
-
-            if (id < 0.0f) {
-                double tmp = t1;
-                t1 = t0;
-                t0 = tmp;
-            }
-
-            tmin = Math.max(t0, tmin);
-            tmax = Math.min(t1, tmax);
-            if (tmax <= tmin) {
-                return true;
-            }
-        }
-        return false;
+        return !ray.hitsBox(min.x(), min.y(), min.z(), max.x(), max.y(), max.z(), tmin, tmax);
     }
 
     public Box translate(Vector offset) {
@@ -0,0 +1,100 @@
+package com.epeters.raytrace.utils;
+
+import java.util.Arrays;
+
+/**
+ * Low discrepancy sampler using the Halton sequence, where dimension {@code d} is the radical
+ * inverse of the sample index in the {@code d}th prime base. Plain Halton points in the higher
+ * bases crowd together for the first few samples (the first four in base 31 are 0, 1/31, 2/31
+ * and 3/31), so each pixel scrambles the digits of each dimension: every digit goes through
+ * a random permutation that depends on the digits before it (Owen scrambling). Once
+ * {@link #PRIMES} runs out the bases start over, with different scrambles.
+ *
+ * @see <a href="https://www.pbr-book.org/3ed-2018/Sampling_and_Reconstruction/The_Halton_Sampler">pbrt</a>
+ */
+public final class HaltonSampler implements Sampler {
+
+    /** Bases for the first dimensions */
+    public static final int [] PRIMES = {
+            2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47, 53,
+            59, 61, 67, 71, 73, 79, 83, 89, 97, 101, 103, 107, 109, 113, 127, 131
+    };
+
+    private final int seed;
+    private int x = -1;
+    private int y = -1;
+    private int index;
+    private int dimension;
+
+    // scramble seeds for the dimensions of the current pixel; they don't change between samples
+    private int [] seeds = new int[32];
+    private int seeded;
+
+    public HaltonSampler(long seed) {
+        this.seed = (int) Sampler.hash64(seed);
+    }
+
+    @Override
+    public void startSample(int x, int y, int index) {
+        if (x != this.x || y != this.y) {
+            this.x = x;
+            this.y = y;
+            this.seeded = 0;
+        }
+        this.index = index;
+        this.dimension = 0;
+    }
+
+    @Override
+    public double next() {
+        int d = dimension++;
+        if (d >= seeded) {
+            if (d >= seeds.length) {
+                seeds = Arrays.copyOf(seeds, seeds.length * 2);
+            }
+            seeds[d] = Sampler.hash(Sampler.hash(seed, x, y), d);
+            seeded = d + 1;
+        }
+        return radicalInverse(PRIMES[d % PRIMES.length], index, seeds[d]);
+    }
+
+    /**
+     * @return the digits of {@code index} in base {@code base}, mirrored around the decimal point,
+     * with each digit scrambled by a permutation chosen by {@code seed} and the digits before it
+     */
+    public static double radicalInverse(int base, int index, int seed) {
+        double inverse = 1.0 / base;
+        double factor = inverse;
+        double result = 0.0;
+        // every digit's permutation comes from a hash of the digits before it; folding each digit
+        // into the running hash as we go tells apart all prefixes without keeping them around
+        int prefix = seed;
+        while (index > 0) {
+            int next = index / base;
+            int digit = index - next * base;
+            int hash = Sampler.hash(prefix);
+            result += permute(digit, base, hash) * factor;
+            prefix = hash + digit + 0x9e3779b9;
+            index = next;
+            factor *= inverse;
+        }
+        // the digits after the last one of the index are all zero, but each is scrambled all the
+        // same (otherwise the index's own digits wouldn't keep the point in its interval), until
+        // they're too small to change a double
+        while (factor > 0x1.0p-53) {
+            int hash = Sampler.hash(prefix);
+            result += permute(0, base, hash) * factor;
+            prefix = hash + 0x9e3779b9;
+            factor *= inverse;
+        }
+        return Math.min(result, Math.nextDown(1.0));
+    }
+
+    /** @return {@code digit} mapped through {@code (a * digit + c) mod base}, which for a prime base is a permutation */
+    private static int permute(int digit, int base, int hash) {
+        // a in [1, base) from the high 16 bits and c in [0, base) from the low 16 bits
+        int a = 1 + (((hash >>> 16) * (base - 1)) >>> 16);
+        int c = ((hash & 0xffff) * base) >>> 16;
+        return (a * digit + c) % base;
+    }
+}
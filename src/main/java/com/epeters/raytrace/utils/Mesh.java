@@ -2,25 +2,173 @@ package com.epeters.raytrace.utils;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 
-public class Mesh extends HashMap<String,Vector> {
+import static com.epeters.raytrace.utils.Vector.vec;
 
-    private final List<Triangle> triangles = new ArrayList<>();
+/**
+ * Indexed triangle mesh: three floats per vertex position, and three (zero-based) vertex
+ * indices per triangle. Both arrays grow as the mesh is built, so a vertex costs 12 bytes and
+ * a triangle another 12, no matter how many triangles share it.
+ *
+ * A mesh may also have vertex normals (three floats each) and texture coordinates (two floats
+ * each), which triangles reference with their own per-corner indices, as in an OBJ file. Those
+ * are optional and only set up by {@link #Mesh(float[], int[], float[], int[], float[], int[])};
+ * an index of -1 means the corner has none.
+ */
+public class Mesh {
 
-    public void addTriangle(String a, String b, String c) {
-        triangles.add(new Triangle(a, b, c));
+    private float [] positions;
+    private int [] indices;
+    private int vertexCount;
+    private int triangleCount;
+
+    private final float [] normals;
+    private final int [] normalIndices;
+    private final float [] texCoords;
+    private final int [] texCoordIndices;
+
+    public Mesh() {
+        this.positions = new float[3 * 64];
+        this.indices = new int[3 * 64];
+        this.normals = null;
+        this.normalIndices = null;
+        this.texCoords = null;
+        this.texCoordIndices = null;
+    }
+
+    /**
+     * Wraps existing arrays without copying them. Normals and texture coordinates may be null,
+     * but each must come with its indices.
+     */
+    public Mesh(float [] positions, int [] indices, float [] normals, int [] normalIndices, float [] texCoords, int [] texCoordIndices) {
+        if (positions.length % 3 != 0 || indices.length % 3 != 0) {
+            throw new IllegalArgumentException("positions and indices must come in threes");
+        }
+        if ((normals == null) != (normalIndices == null) || (texCoords == null) != (texCoordIndices == null)) {
+            throw new IllegalArgumentException("normals and texture coordinates need indices");
+        }
+        if ((normalIndices != null && normalIndices.length != indices.length)
+                || (texCoordIndices != null && texCoordIndices.length != indices.length)) {
+            throw new IllegalArgumentException("need one normal and texture coordinate index per corner");
+        }
+        this.positions = positions;
+        this.indices = indices;
+        this.vertexCount = positions.length / 3;
+        this.triangleCount = indices.length / 3;
+        this.normals = normals;
+        this.normalIndices = normalIndices;
+        this.texCoords = texCoords;
+        this.texCoordIndices = texCoordIndices;
+    }
+
+    /** @return the index of the new vertex */
+    public int addVertex(double x, double y, double z) {
+        if (vertexCount * 3 == positions.length) {
+            positions = Arrays.copyOf(positions, positions.length * 2);
+        }
+        int i = vertexCount * 3;
+        positions[i] = (float) x;
+        positions[i + 1] = (float) y;
+        positions[i + 2] = (float) z;
+        return vertexCount++;
+    }
+
+    public int addVertex(Vector v) {
+        return addVertex(v.x(), v.y(), v.z());
+    }
+
+    public void addTriangle(int a, int b, int c) {
+        if (normals != null || texCoords != null) {
+            throw new IllegalStateException("can't add triangles to a mesh with normals or texture coordinates");
+        }
+        if (triangleCount * 3 == indices.length) {
+            indices = Arrays.copyOf(indices, indices.length * 2);
+        }
+        int i = triangleCount * 3;
+        indices[i] = a;
+        indices[i + 1] = b;
+        indices[i + 2] = c;
+        triangleCount++;
+    }
+
+    /**
+     * Swaps the x and z coordinates of every position and normal, in place. This mirrors the
+     * mesh, which is how scenes written for the original OBJ reader expect to see it.
+     */
+    public void swapXZ() {
+        swapXZ(positions, vertexCount * 3);
+        if (normals != null) {
+            swapXZ(normals, normals.length);
+        }
+    }
+
+    public int getVertexCount() {
+        return vertexCount;
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    public Vector getVertex(int index) {
+        return vec(positions[index * 3], positions[index * 3 + 1], positions[index * 3 + 2]);
+    }
+
+    /** @return the vertex positions, three per vertex (shares storage with the mesh if possible) */
+    public float [] getPositions() {
+        return trim(positions, vertexCount * 3);
+    }
+
+    /** @return the vertex indices, three per triangle (shares storage with the mesh if possible) */
+    public int [] getIndices() {
+        return trim(indices, triangleCount * 3);
+    }
+
+    /** @return vertex normals, three floats each, or null */
+    public float [] getNormals() {
+        return normals;
+    }
+
+    /** @return the normal index of each corner (-1 for none), or null */
+    public int [] getNormalIndices() {
+        return normalIndices;
+    }
+
+    /** @return texture coordinates, two floats each, or null */
+    public float [] getTexCoords() {
+        return texCoords;
+    }
+
+    /** @return the texture coordinate index of each corner (-1 for none), or null */
+    public int [] getTexCoordIndices() {
+        return texCoordIndices;
+    }
+
+    private static void swapXZ(float [] xyz, int length) {
+        for (int i=0; i<length; i+=3) {
+            float x = xyz[i];
+            xyz[i] = xyz[i + 2];
+            xyz[i + 2] = x;
+        }
     }
 
     public List<List<Vector>> toTriangles() {
         List<List<Vector>> result = new ArrayList<>();
-        for (Triangle t : triangles) {
-            result.add(Arrays.asList(get(t.a), get(t.b), get(t.c)));
+        for (int t=0; t<triangleCount; t++) {
+            result.add(Arrays.asList(
+                    getVertex(indices[t * 3]),
+                    getVertex(indices[t * 3 + 1]),
+                    getVertex(indices[t * 3 + 2])));
         }
         return result;
     }
 
-    record Triangle(String a, String b, String c) {
+    private static float [] trim(float [] array, int length) {
+        return array.length == length ? array : Arrays.copyOf(array, length);
+    }
+
+    private static int [] trim(int [] array, int length) {
+        return array.length == length ? array : Arrays.copyOf(array, length);
     }
 }
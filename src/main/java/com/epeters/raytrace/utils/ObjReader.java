@@ -1,58 +1,502 @@
 package com.epeters.raytrace.utils;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.regex.Pattern;
-
-import static com.epeters.raytrace.utils.Vector.vec;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
+/**
+ * Reads Wavefront OBJ files into a {@link Mesh}. Understands {@code v}, {@code vn} and
+ * {@code vt} lines and {@code f} lines with any number of corners (split into a fan of
+ * triangles) written as {@code v}, {@code v/vt}, {@code v//vn} or {@code v/vt/vn}, with
+ * positive or negative (relative) indices. Everything else is skipped. Coordinates are kept
+ * as they are in the file, whether it's read from disk or from the classpath.
+ *
+ * Files are memory mapped and cut into chunks at line boundaries. Chunks are parsed in
+ * parallel with a small hand-written number scanner into primitive arrays, which are then
+ * copied into the final mesh arrays at offsets given by prefix sums of the chunk counts.
+ *
+ * @see <a href="https://paulbourke.net/dataformats/obj/">OBJ format</a>
+ */
 public class ObjReader {
 
-    public static final Pattern V = Pattern.compile("v ");
+    /** Files are cut into chunks of about this many bytes (but at least one per thread) */
+    public static final int CHUNK_SIZE = 1 << 22;
+
+    /** No line may be longer than this */
+    public static final int MAX_LINE = 1 << 16;
 
+    /** Reads a classpath resource, using the common fork/join pool */
     public static Mesh readFile(String path) throws IOException {
+        try (InputStream in = ObjReader.class.getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IOException("resource not found: "+path);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(in.readAllBytes());
+            return parse(new Chunk[]{ new Chunk(buffer, false, buffer.limit(), true) }, ForkJoinPool.commonPool());
+        }
+    }
+
+    /** Reads a file from disk, using the common fork/join pool */
+    public static Mesh read(Path path) throws IOException {
+        return read(path, ForkJoinPool.commonPool());
+    }
+
+    public static Mesh read(Path path, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            long size = channel.size();
+            long count = Math.max(pool.getParallelism(), (size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            count = Math.max(1, Math.min(count, size / 1024));
+
+            // each chunk gets its own mapping, so files over 2GB are fine. It starts one byte
+            // early, so the parser can tell whether it starts on a line boundary, and runs into
+            // the next chunk far enough to finish its last line
+            Chunk [] chunks = new Chunk[(int) count];
+            for (int c=0; c<count; c++) {
+                long from = size * c / count;
+                long to = size * (c + 1) / count;
+                long mapFrom = Math.max(0, from - 1);
+                long mapTo = Math.min(size, to + MAX_LINE);
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapFrom, mapTo - mapFrom);
+                chunks[c] = new Chunk(buffer, c > 0, (int) (to - mapFrom), mapTo == size);
+            }
+            return parse(chunks, pool);
+        }
+    }
+
+    /** Parses chunks in parallel, then stitches them together */
+    private static Mesh parse(Chunk [] chunks, ForkJoinPool pool) {
+
+        int count = chunks.length;
+        pool.invoke(forAll(count, c -> chunks[c].parse()));
+
+        // prefix sums give every chunk's offset in the final arrays
+        int [] vertexBase = new int[count];
+        int [] normalBase = new int[count];
+        int [] texCoordBase = new int[count];
+        int [] triangleBase = new int[count];
+        int vertices = 0, normals = 0, texCoords = 0, triangles = 0;
+        boolean hasNormals = false, hasTexCoords = false;
+        for (int c=0; c<count; c++) {
+            vertexBase[c] = vertices;
+            normalBase[c] = normals;
+            texCoordBase[c] = texCoords;
+            triangleBase[c] = triangles;
+            vertices += chunks[c].positions.size / 3;
+            normals += chunks[c].normals.size / 3;
+            texCoords += chunks[c].texCoords.size / 2;
+            triangles += chunks[c].corners.size / 9;
+            hasNormals |= chunks[c].hasNormals;
+            hasTexCoords |= chunks[c].hasTexCoords;
+        }
+
+        float [] positionArray = new float[vertices * 3];
+        float [] normalArray = hasNormals ? new float[normals * 3] : null;
+        float [] texCoordArray = hasTexCoords ? new float[texCoords * 2] : null;
+        int [] indices = new int[triangles * 3];
+        int [] normalIndices = hasNormals ? new int[triangles * 3] : null;
+        int [] texCoordIndices = hasTexCoords ? new int[triangles * 3] : null;
+
+        pool.invoke(forAll(count, c -> {
+            Chunk chunk = chunks[c];
+            System.arraycopy(chunk.positions.data, 0, positionArray, vertexBase[c] * 3, chunk.positions.size);
+            if (normalArray != null) {
+                System.arraycopy(chunk.normals.data, 0, normalArray, normalBase[c] * 3, chunk.normals.size);
+            }
+            if (texCoordArray != null) {
+                System.arraycopy(chunk.texCoords.data, 0, texCoordArray, texCoordBase[c] * 2, chunk.texCoords.size);
+            }
+            int [] corners = chunk.corners.data;
+            int [] bases = { vertexBase[c], texCoordBase[c], normalBase[c] };
+            for (int i=0; i<chunk.relative.size; i++) {
+                int slot = chunk.relative.data[i];
+                corners[slot] += bases[slot % 3];
+                if (corners[slot] < 0) {
+                    throw new IllegalArgumentException("relative index points before the start of the file");
+                }
+            }
+            int offset = triangleBase[c] * 3;
+            for (int k=0; k<chunk.corners.size/3; k++) {
+                indices[offset + k] = corners[k * 3];
+                if (texCoordIndices != null) {
+                    texCoordIndices[offset + k] = corners[k * 3 + 1];
+                }
+                if (normalIndices != null) {
+                    normalIndices[offset + k] = corners[k * 3 + 2];
+                }
+            }
+        }));
+
+        return new Mesh(positionArray, indices, normalArray, normalIndices, texCoordArray, texCoordIndices);
+    }
+
+    // ==================================================================================
+    // parallel helpers
+    // ==================================================================================
+
+    private interface IndexTask {
+        void run(int index);
+    }
+
+    private static RecursiveAction forAll(int count, IndexTask task) {
+        return new RecursiveAction() {
+            @Override
+            protected void compute() {
+                List<RecursiveAction> tasks = new ArrayList<>(count);
+                for (int i=0; i<count; i++) {
+                    int index = i;
+                    tasks.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            task.run(index);
+                        }
+                    });
+                }
+                ForkJoinTask.invokeAll(tasks);
+            }
+        };
+    }
+
+    // ==================================================================================
+    // parsing one chunk
+    // ==================================================================================
+
+    private static final double [] POWERS_OF_TEN = new double[23];
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for (int i=1; i<POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10.0;
+        }
+    }
+
+    /**
+     * Everything parsed from one chunk. Face corners are stored as (v, vt, vn) triples of
+     * zero-based indices, nine ints per triangle, with -1 for a missing vt or vn. Negative
+     * (relative) OBJ indices are stored relative to the chunk's first element, and their slots
+     * are listed in {@code relative} so the chunk's base can be added once it is known.
+     */
+    private static final class Chunk {
+
+        private final ByteBuffer buffer;
+        private final boolean skipFirstLine;
+        private final int end;
+        private final boolean endOfFile;
+        private int pos;
+
+        final Floats positions = new Floats();
+        final Floats normals = new Floats();
+        final Floats texCoords = new Floats();
+        final Ints corners = new Ints();
+        final Ints relative = new Ints();
+        boolean hasNormals;
+        boolean hasTexCoords;
+
+        private int [] face = new int[3 * 8];
+
+        /**
+         * @param buffer bytes of the chunk, running past its end to finish the last line
+         * @param skipFirstLine whether the chunk begins one byte before its first line start,
+         *                      in the middle of a line that belongs to the previous chunk
+         * @param end the chunk parses lines that start before this offset
+         * @param endOfFile whether the buffer runs to the end of the file
+         */
+        Chunk(ByteBuffer buffer, boolean skipFirstLine, int end, boolean endOfFile) {
+            this.buffer = buffer;
+            this.skipFirstLine = skipFirstLine;
+            this.end = end;
+            this.endOfFile = endOfFile;
+        }
+
+        void parse() {
+
+            if (skipFirstLine) {
+                nextLine();
+            }
+
+            while (pos < end && pos < buffer.limit()) {
+                skipSpaces();
+                byte c0 = peek(0);
+                byte c1 = peek(1);
+                if (c0 == 'v' && isSpace(c1)) {
+                    pos++;
+                    positions.add(nextFloat(), nextFloat(), nextFloat());
+                } else if (c0 == 'v' && c1 == 'n' && isSpace(peek(2))) {
+                    pos += 2;
+                    normals.add(nextFloat(), nextFloat(), nextFloat());
+                } else if (c0 == 'v' && c1 == 't' && isSpace(peek(2))) {
+                    pos += 2;
+                    float u = nextFloat();
+                    skipSpaces();
+                    texCoords.add(u, atLineEnd() ? 0.0f : nextFloat());
+                } else if (c0 == 'f' && isSpace(c1)) {
+                    pos++;
+                    parseFace();
+                }
+                nextLine();
+                if (pos > buffer.limit() && !endOfFile) {
+                    throw new IllegalArgumentException("line longer than "+MAX_LINE+" bytes");
+                }
+            }
+        }
+
+        private void parseFace() {
+            int n = 0;
+            while (true) {
+                skipSpaces();
+                if (atLineEnd()) {
+                    break;
+                }
+                if (n * 3 == face.length) {
+                    face = Arrays.copyOf(face, face.length * 2);
+                }
+                int v = nextIndex(positions.size / 3);
+                int vt = -1;
+                int vn = -1;
+                if (peek(0) == '/') {
+                    pos++;
+                    if (peek(0) != '/') {
+                        vt = nextIndex(texCoords.size / 2);
+                        hasTexCoords = true;
+                    }
+                    if (peek(0) == '/') {
+                        pos++;
+                        vn = nextIndex(normals.size / 3);
+                        hasNormals = true;
+                    }
+                }
+                face[n * 3] = v;
+                face[n * 3 + 1] = vt;
+                face[n * 3 + 2] = vn;
+                n++;
+            }
+            if (n < 3) {
+                throw error("face with fewer than three corners");
+            }
+
+            // fan triangulation
+            for (int i=1; i<n-1; i++) {
+                addCorner(0);
+                addCorner(i);
+                addCorner(i + 1);
+            }
+        }
+
+        private void addCorner(int corner) {
+            for (int k=0; k<3; k++) {
+                int value = face[corner * 3 + k];
+                if (value < -1) {
+                    relative.add(corners.size);
+                    value -= RELATIVE;
+                }
+                corners.add(value);
+            }
+        }
+
+        /**
+         * Negative OBJ indices count back from the last element so far. They come out of
+         * {@link #nextIndex} as this value plus their offset from the start of the chunk (which
+         * is negative if they point into an earlier chunk), and so are always below -1.
+         */
+        private static final int RELATIVE = Integer.MIN_VALUE / 2;
+
+        /** @return a zero-based index, or an offset from {@link #RELATIVE} */
+        private int nextIndex(int localCount) {
+            int index = nextInt();
+            if (index > 0) {
+                return index - 1;
+            }
+            if (index < RELATIVE + 2) {
+                throw error("index too small");
+            }
+            if (index < 0) {
+                return RELATIVE + localCount + index;
+            }
+            throw error("index 0 is not allowed");
+        }
+
+        private int nextInt() {
+            boolean negative = false;
+            if (peek(0) == '-') {
+                negative = true;
+                pos++;
+            }
+            int start = pos;
+            long value = 0;
+            while (isDigit(peek(0))) {
+                value = value * 10 + (buffer.get(pos++) - '0');
+                if (value > Integer.MAX_VALUE) {
+                    throw error("index too large");
+                }
+            }
+            if (pos == start) {
+                throw error("expected an integer");
+            }
+            return (int) (negative ? -value : value);
+        }
 
-        Mesh mesh = new Mesh();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(ObjReader.class.getResourceAsStream(path)));
+        private float nextFloat() {
 
-        while (true) {
+            skipSpaces();
+            boolean negative = false;
+            if (peek(0) == '-' || peek(0) == '+') {
+                negative = peek(0) == '-';
+                pos++;
+            }
 
-            String line = reader.readLine();
-            if (line == null) {
-                return mesh;
+            // up to 18 significant digits fit in a long; beyond that only the exponent matters
+            long mantissa = 0;
+            int digits = 0;
+            int exponent = 0;
+            boolean any = false;
+            while (isDigit(peek(0))) {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + (buffer.get(pos) - '0');
+                    if (mantissa > 0) {
+                        digits++;
+                    }
+                } else {
+                    exponent++;
+                }
+                pos++;
+                any = true;
+            }
+            if (peek(0) == '.') {
+                pos++;
+                while (isDigit(peek(0))) {
+                    if (digits < 18) {
+                        mantissa = mantissa * 10 + (buffer.get(pos) - '0');
+                        if (mantissa > 0) {
+                            digits++;
+                        }
+                        exponent--;
+                    }
+                    pos++;
+                    any = true;
+                }
+            }
+            if (!any) {
+                throw error("expected a number");
+            }
+            if (peek(0) == 'e' || peek(0) == 'E') {
+                pos++;
+                exponent += nextExponent();
             }
 
-            if (line.startsWith("v")) {
-                String k = Integer.toString(mesh.size() + 1);
-                Vector v = parseVertex(line);
-                mesh.put(k, v);
+            double value = mantissa;
+            if (exponent < 0) {
+                value = -exponent < POWERS_OF_TEN.length ? value / POWERS_OF_TEN[-exponent] : value * Math.pow(10.0, exponent);
+            } else if (exponent > 0) {
+                value = exponent < POWERS_OF_TEN.length ? value * POWERS_OF_TEN[exponent] : value * Math.pow(10.0, exponent);
             }
-            else if (line.startsWith("f")) {
-                String [] v = parseTriangle(line);
-                mesh.addTriangle(v[0], v[1], v[2]);
+            return (float) (negative ? -value : value);
+        }
+
+        private int nextExponent() {
+            if (peek(0) == '+') {
+                pos++;
+            }
+            return nextInt();
+        }
+
+        private void skipSpaces() {
+            while (isSpace(peek(0))) {
+                pos++;
             }
         }
+
+        private boolean atLineEnd() {
+            byte b = peek(0);
+            return b == '\n' || b == '\r' || b == '#' || b == 0;
+        }
+
+        private void nextLine() {
+            int limit = buffer.limit();
+            while (pos < limit && buffer.get(pos) != '\n') {
+                pos++;
+            }
+            pos++;
+        }
+
+        /** @return the byte at an offset from the current position, or 0 past the end of the buffer */
+        private byte peek(int offset) {
+            int i = pos + offset;
+            return i < buffer.limit() ? buffer.get(i) : 0;
+        }
+
+        private IllegalArgumentException error(String message) {
+            int start = pos;
+            while (start > 0 && buffer.get(start - 1) != '\n') {
+                start--;
+            }
+            int stop = start;
+            while (stop < buffer.limit() && stop - start < 80 && buffer.get(stop) != '\n' && buffer.get(stop) != '\r') {
+                stop++;
+            }
+            byte [] line = new byte[stop - start];
+            buffer.get(start, line);
+            return new IllegalArgumentException(message+" in line '"+new String(line)+"'");
+        }
+
+        private static boolean isSpace(byte b) {
+            return b == ' ' || b == '\t';
+        }
+
+        private static boolean isDigit(byte b) {
+            return b >= '0' && b <= '9';
+        }
     }
 
-    public static Vector parseVertex(String line) {
-        String [] parts = line.split("\\s+");
-        double x = Double.parseDouble(parts[3]);
-        double y = Double.parseDouble(parts[2]);
-        double z = Double.parseDouble(parts[1]);
-        return vec(x, y, z);
+    /** Growable float array */
+    private static final class Floats {
+
+        float [] data = new float[1024];
+        int size;
+
+        void add(float a, float b) {
+            ensure(2);
+            data[size++] = a;
+            data[size++] = b;
+        }
+
+        void add(float a, float b, float c) {
+            ensure(3);
+            data[size++] = a;
+            data[size++] = b;
+            data[size++] = c;
+        }
+
+        private void ensure(int more) {
+            if (size + more > data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+        }
     }
 
-    public static String [] parseTriangle(String line) {
-        String [] parts = line.split("\\s+");
-        if (parts.length != 4) {
-            throw new IllegalArgumentException("unparseable face '"+line+"'");
+    /** Growable int array */
+    private static final class Ints {
+
+        int [] data = new int[1024];
+        int size;
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size++] = value;
         }
-        return new String[]{ parts[1], parts[2], parts[3] };
     }
 
     public static void main(String [] args) throws Exception {
-        Mesh m = readFile("/gourd.obj");
-        System.err.println(m);
+        Mesh m = args.length > 0 ? read(Path.of(args[0])) : readFile("/gourd.obj");
+        System.err.println(m.getVertexCount()+" vertices, "+m.getTriangleCount()+" triangles");
     }
 }
@@ -20,16 +20,16 @@ public interface Pdf {
     /**
      * Generates random scattering based on cosine sampling
      */
-    static Pdf cosine(Vector w) {
-        Basis basis = Basis.fromW(w);
+    static Pdf cosine(Vector normal) {
+        Vector w = normal.normalize();
         return new Pdf() {
             @Override
             public Vector generate() {
-                return basis.local(randomCosineDirection());
+                return randomCosineDirection(w);
             }
             @Override
             public double value(Vector direction) {
-                double cos = direction.normalize().dot(basis.w());
+                double cos = direction.dot(w) / direction.length();
                 return (cos <= 0) ? 0 : cos / Math.PI;
             }
         };
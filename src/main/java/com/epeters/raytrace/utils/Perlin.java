@@ -2,94 +2,104 @@ package com.epeters.raytrace.utils;
 
 import static com.epeters.raytrace.utils.Utils.randomInt;
 import static com.epeters.raytrace.utils.Utils.randomUnitVector;
-import static com.epeters.raytrace.utils.Vector.vec;
 import static java.lang.Math.abs;
 import static java.lang.Math.floor;
 
 /**
  * Generator for Perlin noise.
  *
+ * The kernel works on plain doubles: the gradients are kept in one flat array (x, y, z for each
+ * of the {@link #POINT_COUNT} vectors), the eight corners are looked up and blended in line, and
+ * nothing is allocated. The offsets dotted with the gradients are the plain fractions within the
+ * cell; only the blend weights get the Hermite smoothing.
+ *
  * @see <a href="https://raytracing.github.io/books/RayTracingTheNextWeek.html#perlinnoise">guide</a>
  */
 public final class Perlin {
 
     public static final int POINT_COUNT = 256;
 
-    private final Vector [] randomVectors;
+    private final double [] gradients;
     private final int [] permutationX;
     private final int [] permutationY;
     private final int [] permutationZ;
 
     public Perlin() {
-        this.randomVectors = generateVectors();
+        this.gradients = generateGradients();
         this.permutationX = generatePermutation();
         this.permutationY = generatePermutation();
         this.permutationZ = generatePermutation();
     }
 
     public double noise(Vector point) {
+        return noise(point.x(), point.y(), point.z());
+    }
 
-        double u = point.x() - floor(point.x());
-        double v = point.y() - floor(point.y());
-        double w = point.z() - floor(point.z());
-        u = u * u * (3.0 - 2.0 * u);
-        v = v * v * (3.0 - 2.0 * v);
-        w = w * w * (3.0 - 2.0 * w);
-
-        int i = (int) floor(point.x());
-        int j = (int) floor(point.y());
-        int k = (int) floor(point.z());
-
-        Vector [][][] c = new Vector[2][2][2];
-        for (int di=0; di<2; di++) {
-            for (int dj=0; dj<2; dj++) {
-                for (int dk=0; dk<2; dk++) {
-                    c[di][dj][dk] = randomVectors[
-                        permutationX[(i + di) & 255] ^
-                        permutationY[(j + dj) & 255] ^
-                        permutationZ[(k + dk) & 255]
-                    ];
-                }
-            }
-        }
+    public double noise(double x, double y, double z) {
+
+        double fx = floor(x);
+        double fy = floor(y);
+        double fz = floor(z);
+        double u = x - fx;
+        double v = y - fy;
+        double w = z - fz;
+
+        int i = (int) fx;
+        int j = (int) fy;
+        int k = (int) fz;
+        int x0 = permutationX[i & 255];
+        int x1 = permutationX[(i + 1) & 255];
+        int y0 = permutationY[j & 255];
+        int y1 = permutationY[(j + 1) & 255];
+        int z0 = permutationZ[k & 255];
+        int z1 = permutationZ[(k + 1) & 255];
+
+        // gradient at each corner dotted with the offset from it
+        double n000 = corner(x0 ^ y0 ^ z0, u, v, w);
+        double n100 = corner(x1 ^ y0 ^ z0, u - 1.0, v, w);
+        double n010 = corner(x0 ^ y1 ^ z0, u, v - 1.0, w);
+        double n110 = corner(x1 ^ y1 ^ z0, u - 1.0, v - 1.0, w);
+        double n001 = corner(x0 ^ y0 ^ z1, u, v, w - 1.0);
+        double n101 = corner(x1 ^ y0 ^ z1, u - 1.0, v, w - 1.0);
+        double n011 = corner(x0 ^ y1 ^ z1, u, v - 1.0, w - 1.0);
+        double n111 = corner(x1 ^ y1 ^ z1, u - 1.0, v - 1.0, w - 1.0);
+
+        double su = u * u * (3.0 - 2.0 * u);
+        double sv = v * v * (3.0 - 2.0 * v);
+        double sw = w * w * (3.0 - 2.0 * w);
+        double n00 = n000 + su * (n100 - n000);
+        double n10 = n010 + su * (n110 - n010);
+        double n01 = n001 + su * (n101 - n001);
+        double n11 = n011 + su * (n111 - n011);
+        double n0 = n00 + sv * (n10 - n00);
+        double n1 = n01 + sv * (n11 - n01);
+        return n0 + sw * (n1 - n0);
+    }
 
-        return perlin_interp(c, u, v, w);
+    private double corner(int index, double dx, double dy, double dz) {
+        int g = index * 3;
+        return gradients[g] * dx + gradients[g + 1] * dy + gradients[g + 2] * dz;
     }
 
     public double turbulence(Vector point, int depth) {
+        return turbulence(point.x(), point.y(), point.z(), depth);
+    }
+
+    public double turbulence(double x, double y, double z, int depth) {
         double accum = 0.0;
         double weight = 1.0;
 
         for (int i=0; i<depth; i++) {
-            accum += weight*noise(point);
+            accum += weight * noise(x, y, z);
             weight *= 0.5;
-            point = point.mul(2.0);
+            x *= 2.0;
+            y *= 2.0;
+            z *= 2.0;
         }
 
         return abs(accum);
     }
 
-    private static double perlin_interp(Vector [][][] c, double u, double v, double w) {
-        double uu = u*u*(3-2*u);
-        double vv = v*v*(3-2*v);
-        double ww = w*w*(3-2*w);
-        double accum = 0.0;
-
-        for (int i=0; i < 2; i++) {
-            for (int j = 0; j < 2; j++) {
-                for (int k = 0; k < 2; k++) {
-                    Vector weight_v = vec(u - i, v - j, w - k);
-                    accum += (i * uu + (1 - i) * (1 - uu))
-                            * (j * vv + (1 - j) * (1 - vv))
-                            * (k * ww + (1 - k) * (1 - ww))
-                            * c[i][j][k].dot(weight_v);
-                }
-            }
-        }
-
-        return accum;
-    }
-
     private static int [] generatePermutation() {
 
         int [] data = new int[POINT_COUNT];
@@ -107,10 +117,14 @@ public final class Perlin {
         return data;
     }
 
-    private static Vector [] generateVectors() {
-        Vector [] data = new Vector[POINT_COUNT];
-        for (int i=0; i<data.length; i++) {
-            data[i] = randomUnitVector();
+    /** @return random unit vectors, flattened */
+    private static double [] generateGradients() {
+        double [] data = new double[POINT_COUNT * 3];
+        for (int i=0; i<POINT_COUNT; i++) {
+            Vector v = randomUnitVector();
+            data[i * 3] = v.x();
+            data[i * 3 + 1] = v.y();
+            data[i * 3 + 2] = v.z();
         }
         return data;
     }
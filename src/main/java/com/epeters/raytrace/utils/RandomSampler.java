@@ -0,0 +1,38 @@
+package com.epeters.raytrace.utils;
+
+/**
+ * Independent uniform random numbers for every dimension, which is how the renderer has always
+ * sampled. This is also what threads that aren't rendering a pixel draw from.
+ *
+ * The numbers come from a SplitMix64 stream (the generator behind {@link java.util.SplittableRandom})
+ * that each sample restarts from a hash of the seed, the pixel and the sample number, so a
+ * sample gets the same numbers no matter which thread takes it or what it took before.
+ */
+public final class RandomSampler implements Sampler {
+
+    /** Increment of the stream (2^64 divided by the golden ratio) */
+    private static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final long seed;
+    private long state;
+
+    public RandomSampler() {
+        this(0L);
+    }
+
+    public RandomSampler(long seed) {
+        this.seed = seed;
+        this.state = Sampler.hash64(seed);
+    }
+
+    @Override
+    public void startSample(int x, int y, int index) {
+        state = Sampler.hash64(Sampler.hash64(Sampler.hash64(seed + x) + y) + index);
+    }
+
+    @Override
+    public double next() {
+        state += GAMMA;
+        return (Sampler.hash64(state) >>> 11) * 0x1.0p-53;
+    }
+}
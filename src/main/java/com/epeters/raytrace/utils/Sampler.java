@@ -0,0 +1,92 @@
+package com.epeters.raytrace.utils;
+
+/**
+ * Source of the uniform random numbers that go into one sample of one pixel. Every call to
+ * {@link #next()} moves on to the next dimension of the sample (pixel jitter first, then the
+ * lens, then whatever the first bounce asks for, and so on); {@link #startSample} goes back to
+ * dimension 0 for another sample. Samplers other than {@link RandomSampler} spread the values
+ * of each dimension evenly over the samples of a pixel, which converges faster than
+ * independent random numbers.
+ *
+ * Each rendering thread has its own sampler, and {@link Utils#random()} draws from it, so
+ * cameras, materials and lights get the right numbers without passing a sampler around
+ * (see {@link Utils#setSampler}). What a sampler returns depends only on its seed, the pixel,
+ * the sample number and the dimension, so a render comes out the same however its pixels are
+ * spread over threads.
+ */
+public interface Sampler {
+
+    enum Type {
+
+        /** Independent random numbers (white noise) */
+        RANDOM,
+        /** Shuffled, Owen-scrambled Sobol points, in pairs of dimensions (see {@link SobolSampler}) */
+        SOBOL,
+        /** Halton sequence with its digits scrambled per pixel (see {@link HaltonSampler}) */
+        HALTON,
+        /** Sobol points shifted by a blue noise mask (see {@link BlueNoiseSampler}) */
+        BLUE_NOISE;
+
+        /** @return a new sampler whose numbers depend only on {@code seed} and the pixel, sample and dimension */
+        public Sampler create(long seed) {
+            return switch (this) {
+                case RANDOM -> new RandomSampler(seed);
+                case SOBOL -> new SobolSampler(seed);
+                case HALTON -> new HaltonSampler(seed);
+                case BLUE_NOISE -> new BlueNoiseSampler(seed);
+            };
+        }
+    }
+
+    /**
+     * Starts sample number {@code index} of pixel (x, y)
+     */
+    void startSample(int x, int y, int index);
+
+    /**
+     * @return the next dimension of the current sample, between 0 (inclusive) and 1 (exclusive)
+     */
+    double next();
+
+    /** 2^-32, to turn 32 random bits into a double */
+    double UNIT = 1.0 / 4294967296.0;
+
+    /**
+     * @return the 32 bits of {@code bits} (taken as unsigned) as a value between 0 and 1
+     */
+    static double toUnit(int bits) {
+        return (bits & 0xffffffffL) * UNIT;
+    }
+
+    /**
+     * Integer hash with good avalanche, for seeding per-pixel and per-dimension scrambles
+     *
+     * @see <a href="https://nullprogram.com/blog/2018/07/31/">hash prospector</a>
+     */
+    static int hash(int x) {
+        x ^= x >>> 16;
+        x *= 0x7feb352d;
+        x ^= x >>> 15;
+        x *= 0x846ca68b;
+        x ^= x >>> 16;
+        return x;
+    }
+
+    static int hash(int a, int b) {
+        return hash(a ^ hash(b + 0x9e3779b9));
+    }
+
+    static int hash(int a, int b, int c) {
+        return hash(a ^ hash(b ^ hash(c + 0x9e3779b9)));
+    }
+
+    /**
+     * 64 bit hash with good avalanche (the SplitMix64 finalizer), for turning a long seed into
+     * scramble seeds
+     */
+    static long hash64(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+}
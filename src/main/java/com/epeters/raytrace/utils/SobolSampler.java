@@ -0,0 +1,132 @@
+package com.epeters.raytrace.utils;
+
+import java.util.Arrays;
+
+/**
+ * Low discrepancy sampler built from the first two dimensions of the Sobol sequence, which
+ * form a (0,2)-sequence: any power of two of consecutive samples are stratified in both
+ * dimensions at once. Dimensions are used in pairs, and every pair of every pixel gets its
+ * own Owen scramble of the points and its own shuffle of the sample order, so pairs are
+ * independent of each other and pixels are independent of their neighbours. This "padding"
+ * needs no table of direction numbers and works for any number of dimensions.
+ *
+ * @see <a href="https://jcgt.org/published/0009/04/01/">Burley, Practical Hash-based Owen Scrambling</a>
+ */
+public final class SobolSampler implements Sampler {
+
+    /**
+     * Reversed direction numbers of the second dimension, combined a byte of the index at a time:
+     * entry {@code 256 * k + b} is the XOR of the numbers for the bits set in byte {@code k} of
+     * the index, if that byte is {@code b}. The numbers themselves follow v(n+1) = v(n) ^ (v(n) >> 1),
+     * which reversed is v(n+1) = v(n) ^ (v(n) << 1), starting from 1.
+     */
+    private static final int [] BYTES = new int[1024];
+
+    static {
+        int [] directions = new int[32];
+        directions[0] = 1;
+        for (int n=1; n<32; n++) {
+            directions[n] = directions[n - 1] ^ (directions[n - 1] << 1);
+        }
+        for (int k=0; k<4; k++) {
+            for (int b=0; b<256; b++) {
+                int result = 0;
+                for (int bit=0; bit<8; bit++) {
+                    if ((b & (1 << bit)) != 0) {
+                        result ^= directions[k * 8 + bit];
+                    }
+                }
+                BYTES[k * 256 + b] = result;
+            }
+        }
+    }
+
+    private final int seed;
+    private int x = -1;
+    private int y = -1;
+    private int index;
+    private int dimension;
+    private double second;
+
+    // scramble seeds for the pairs of dimensions of the current pixel (three per pair: one for
+    // the shuffle and one for each dimension); they don't change between samples of a pixel
+    private int [] seeds = new int[48];
+    private int seeded;
+
+    public SobolSampler(long seed) {
+        this.seed = (int) Sampler.hash64(seed);
+    }
+
+    @Override
+    public void startSample(int x, int y, int index) {
+        if (x != this.x || y != this.y) {
+            this.x = x;
+            this.y = y;
+            this.seeded = 0;
+        }
+        this.index = index;
+        this.dimension = 0;
+    }
+
+    @Override
+    public double next() {
+        int d = dimension++;
+        if ((d & 1) != 0) {
+            return second;
+        }
+        int s = (d >>> 1) * 3;
+        if (s >= seeded) {
+            seedPair(s);
+        }
+        int i = scramble(index, seeds[s]);
+        second = Sampler.toUnit(sample1(i, seeds[s + 2]));
+        return Sampler.toUnit(sample0(i, seeds[s + 1]));
+    }
+
+    private void seedPair(int s) {
+        if (s + 3 > seeds.length) {
+            seeds = Arrays.copyOf(seeds, seeds.length * 2);
+        }
+        int pair = Sampler.hash(Sampler.hash(seed, x, y), s);
+        seeds[s] = pair;
+        seeds[s + 1] = Sampler.hash(pair + 1);
+        seeds[s + 2] = Sampler.hash(pair + 2);
+        seeded = s + 3;
+    }
+
+    /** @return the first dimension of Sobol point {@code index} (the van der Corput sequence), Owen scrambled by {@code seed}, as 32 bits */
+    public static int sample0(int index, int seed) {
+        return Integer.reverse(permute(index, seed));
+    }
+
+    /** @return the second dimension of Sobol point {@code index}, Owen scrambled by {@code seed}, as 32 bits */
+    public static int sample1(int index, int seed) {
+        return Integer.reverse(permute(sobol1Reversed(index), seed));
+    }
+
+    /** @return the second dimension of Sobol point {@code index}, with the bits in reverse order (which is how scrambling wants them) */
+    private static int sobol1Reversed(int index) {
+        return BYTES[index & 0xff]
+                ^ BYTES[256 + ((index >>> 8) & 0xff)]
+                ^ BYTES[512 + ((index >>> 16) & 0xff)]
+                ^ BYTES[768 + (index >>> 24)];
+    }
+
+    /**
+     * Owen scrambling of 32 bits: every bit is flipped or not depending on a hash of the bits
+     * above it, which keeps the stratification of the points while randomizing them
+     */
+    public static int scramble(int bits, int seed) {
+        return Integer.reverse(permute(Integer.reverse(bits), seed));
+    }
+
+    /** Hash in which each bit only depends on the bits below it (Laine and Karras) */
+    private static int permute(int x, int seed) {
+        x += seed;
+        x ^= x * 0x6c50b47c;
+        x ^= x * 0xb82f1e52;
+        x ^= x * 0xc7afe638;
+        x ^= x * 0x8d22f6e6;
+        return x;
+    }
+}
@@ -1,7 +1,6 @@
 package com.epeters.raytrace.utils;
 
 import java.util.concurrent.Callable;
-import java.util.concurrent.ThreadLocalRandom;
 
 import static com.epeters.raytrace.utils.Vector.vec;
 import static java.lang.Math.cos;
@@ -12,8 +11,31 @@ import static java.lang.Math.sin;
  */
 public final class Utils {
 
+    // outside of rendering (building scenes, textures and trees) every thread gets its own
+    // stream with the same fixed seed, so that comes out the same from one run to the next
+    private static final ThreadLocal<Sampler> SAMPLERS = ThreadLocal.withInitial(RandomSampler::new);
+
+    /**
+     * @return the next dimension of the current sample from this thread's {@link Sampler}
+     */
     public static double random() {
-        return ThreadLocalRandom.current().nextDouble();
+        return SAMPLERS.get().next();
+    }
+
+    /** @return the sampler that {@link #random()} draws from on this thread */
+    public static Sampler getSampler() {
+        return SAMPLERS.get();
+    }
+
+    /**
+     * Makes {@link #random()} draw from {@code sampler} on this thread
+     *
+     * @return the sampler that was in use before, so it can be put back
+     */
+    public static Sampler setSampler(Sampler sampler) {
+        Sampler previous = SAMPLERS.get();
+        SAMPLERS.set(sampler);
+        return previous;
     }
 
     public static double random(double min, double max) {
@@ -24,21 +46,24 @@ public final class Utils {
         return vec(random(min, max), random(min, max), random(min, max));
     }
 
+    /** @return a random integer between 0 (inclusive) and {@code max} (exclusive) */
     public static int randomInt(int max) {
-        return ThreadLocalRandom.current().nextInt(max);
+        return (int) (random() * max);
     }
 
     public static Vector randomVectorInUnitCube() {
         return randomVector(-1.0, 1.0);
     }
 
+    /**
+     * @return a uniformly distributed unit vector; by Archimedes' hat-box theorem, z is uniform
+     * between -1 and 1, and so is the angle around the z axis
+     */
     public static Vector randomUnitVector() {
-        while (true) {
-            Vector next = randomVectorInUnitCube();
-            if (next.square() < 1.0) {
-                return next.normalize();
-            }
-        }
+        double z = 1.0 - 2.0 * random();
+        double phi = 2.0 * Math.PI * random();
+        double r = sqrt(Math.max(0.0, 1.0 - z * z));
+        return vec(r * cos(phi), r * sin(phi), z);
     }
 
     public static Vector randomCosineDirection() {
@@ -51,13 +76,41 @@ public final class Utils {
         return vec(x, y, z);
     }
 
+    /**
+     * @return a random unit vector in the hemisphere around {@code normal}, with a cosine
+     * weighted distribution (same as {@code Basis.fromW(normal).local(randomCosineDirection())})
+     */
+    public static Vector randomCosineDirection(Vector normal) {
+        double r1 = random();
+        double r2 = random();
+        double phi = 2.0 * Math.PI * r1;
+        double s = sqrt(r2);
+        return Basis.local(normal, cos(phi) * s, sin(phi) * s, sqrt(1.0 - r2));
+    }
+
+    /**
+     * @return a uniformly distributed point in the unit disc (in the xy plane), using the
+     * concentric mapping, which takes evenly spread points in the square to evenly spread
+     * points in the disc
+     *
+     * @see <a href="https://www.pbr-book.org/3ed-2018/Monte_Carlo_Integration/2D_Sampling_with_Multidimensional_Transformations#SamplingaUnitDisk">pbrt</a>
+     */
     public static Vector randomVectorInUnitDisc() {
-        while (true) {
-            Vector next = vec(random(-1.0, 1.0), random(-1.0, 1.0), 0.0);
-            if (next.square() < 1.0) {
-                return next;
-            }
+        double a = random(-1.0, 1.0);
+        double b = random(-1.0, 1.0);
+        if (a == 0.0 && b == 0.0) {
+            return Vector.ORIGIN;
+        }
+        double r;
+        double phi;
+        if (Math.abs(a) > Math.abs(b)) {
+            r = a;
+            phi = (Math.PI / 4.0) * (b / a);
+        } else {
+            r = b;
+            phi = (Math.PI / 2.0) - (Math.PI / 4.0) * (a / b);
         }
+        return vec(r * cos(phi), r * sin(phi), 0.0);
     }
 
     public static double clamp(double x, double min, double max) {
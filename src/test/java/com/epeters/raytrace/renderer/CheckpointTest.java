@@ -0,0 +1,74 @@
+package com.epeters.raytrace.renderer;
+
+import com.epeters.raytrace.SceneConfig;
+import com.epeters.raytrace.Tracer;
+import com.epeters.raytrace.utils.Sampler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+
+import static com.epeters.raytrace.solids.Solids.sphere;
+import static com.epeters.raytrace.surfaces.Material.lambertian;
+import static com.epeters.raytrace.utils.Color.WHITE;
+import static com.epeters.raytrace.utils.Vector.vec;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class CheckpointTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static SceneConfig scene(int passes) {
+        SceneConfig config = DeterminismTest.tinyCornellBox(Sampler.Type.SOBOL, Tracer.Integrator.NEE, 0L);
+        config.passes = passes;
+        return config;
+    }
+
+    private long render(SceneConfig config, Path checkpoint) {
+        Renderer renderer = new Renderer(new Tracer(config), folder.getRoot().toPath().resolve("out.png").toString(),
+                2, 8, checkpoint == null ? null : checkpoint.toString());
+        renderer.render();
+        return renderer.getChecksum();
+    }
+
+    /** Adding a pass to a checkpointed render gives the same image as rendering both passes at once */
+    @Test
+    public void resumingAddsPasses() {
+        Path checkpoint = folder.getRoot().toPath().resolve("resume.ckpt");
+        long straight = render(scene(2), null);
+        long first = render(scene(1), checkpoint);
+        assertNotEquals(straight, first);
+        assertEquals(straight, render(scene(2), checkpoint));
+    }
+
+    /** A pixel left in the middle of a pass is rendered over when the checkpoint is opened again */
+    @Test
+    public void interruptedPixelsAreRepaired() throws Exception {
+        Path checkpoint = folder.getRoot().toPath().resolve("repair.ckpt");
+        long straight = render(scene(2), null);
+        render(scene(1), checkpoint);
+
+        // crash while the second pass was adding to two pixels: the samples went in, the count didn't
+        Tracer tracer = new Tracer(scene(2));
+        try (Checkpoint open = Checkpoint.open(checkpoint, tracer.getImageWidth(), tracer.getImageHeight(), tracer.getFingerprint())) {
+            open.pixelStarted(3, 5, 1);
+            open.getBuffer().add(3, 5, 100.0, 200.0, 300.0, 7);
+            open.pixelStarted(20, 30, 1);
+        }
+        assertEquals(straight, render(scene(2), checkpoint));
+    }
+
+    /** Moving an object changes the fingerprint, so an old checkpoint isn't resumed with it */
+    @Test
+    public void movingAnObjectChangesFingerprint() {
+        SceneConfig config = scene(1);
+        config.add(sphere(vec(100.0, 100.0, 100.0), 50.0, lambertian(WHITE)));
+        SceneConfig moved = scene(1);
+        moved.add(sphere(vec(100.0, 150.0, 100.0), 50.0, lambertian(WHITE)));
+        assertEquals(scene(1).fingerprint(), scene(1).fingerprint());
+        assertNotEquals(config.fingerprint(), moved.fingerprint());
+    }
+}
@@ -0,0 +1,44 @@
+package com.epeters.raytrace.renderer;
+
+import com.epeters.raytrace.SceneConfig;
+import com.epeters.raytrace.Scenes;
+import com.epeters.raytrace.Tracer;
+import com.epeters.raytrace.utils.Sampler;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class DeterminismTest {
+
+    static SceneConfig tinyCornellBox(Sampler.Type sampler, Tracer.Integrator integrator, long seed) {
+        SceneConfig config = Scenes.cornellBoxWithObjects(false);
+        config.imageWidth = 40;
+        config.samplesPerPixel = 3;
+        config.bouncesPerPixel = 5;
+        config.sampler = sampler;
+        config.integrator = integrator;
+        config.seed = seed;
+        return config;
+    }
+
+    private static long checksum(SceneConfig config, int threads) {
+        Renderer renderer = new Renderer(new Tracer(config), "unused.png", threads, 8);
+        Framebuffer buffer = threads == 1 ? renderer.renderImmediate() : renderer.renderTiled();
+        return buffer.checksum();
+    }
+
+    /** Every sample depends only on the pixel, its number and the seed, so threads and tiling don't change the image */
+    @Test
+    public void sameImageOnOneThreadAndOnFour() {
+        for (Sampler.Type sampler : Sampler.Type.values()) {
+            for (Tracer.Integrator integrator : Tracer.Integrator.values()) {
+                long single = checksum(tinyCornellBox(sampler, integrator, 0L), 1);
+                long tiled = checksum(tinyCornellBox(sampler, integrator, 0L), 4);
+                assertEquals(sampler+" "+integrator, single, tiled);
+                long reseeded = checksum(tinyCornellBox(sampler, integrator, 1L), 4);
+                assertNotEquals(sampler+" "+integrator+" with another seed", single, reseeded);
+            }
+        }
+    }
+}
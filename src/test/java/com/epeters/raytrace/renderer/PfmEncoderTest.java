@@ -0,0 +1,68 @@
+package com.epeters.raytrace.renderer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class PfmEncoderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Reading back a written file gives every pixel's mean, rounded to a float */
+    @Test
+    public void roundTrip() throws Exception {
+        int width = 13;
+        int height = 7;
+        Framebuffer buffer = new Framebuffer(width, height);
+        Random random = new Random(3L);
+        for (int y=0; y<height; y++) {
+            for (int x=0; x<width; x++) {
+                int samples = 1 + random.nextInt(5);
+                buffer.add(x, y, 20.0 * random.nextDouble(), random.nextDouble(), 1e-3 * random.nextDouble(), samples);
+            }
+        }
+
+        Path path = folder.getRoot().toPath().resolve("round.pfm");
+        PfmEncoder.write(buffer, path);
+        Framebuffer read = PfmEncoder.read(path);
+
+        assertEquals(width, read.getWidth());
+        assertEquals(height, read.getHeight());
+        for (int y=0; y<height; y++) {
+            for (int x=0; x<width; x++) {
+                for (int c=0; c<3; c++) {
+                    assertEquals("("+x+", "+y+") channel "+c, (float) buffer.mean(x, y, c), (float) read.mean(x, y, c), 0.0f);
+                }
+            }
+        }
+    }
+
+    /** A positive scale means big-endian floats; rows run from the bottom of the image up */
+    @Test
+    public void readsBigEndianBottomUp() throws Exception {
+        byte [] header = "PF\n2 2\n1.0\n".getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer data = ByteBuffer.allocate(header.length + 2 * 2 * 3 * Float.BYTES).order(ByteOrder.BIG_ENDIAN);
+        data.put(header);
+        for (int i=0; i<12; i++) {
+            data.putFloat(i);
+        }
+        Path path = folder.getRoot().toPath().resolve("big.pfm");
+        Files.write(path, data.array());
+
+        Framebuffer read = PfmEncoder.read(path);
+        assertEquals(0.0, read.mean(0, 1, 0), 0.0);
+        assertEquals(5.0, read.mean(1, 1, 2), 0.0);
+        assertEquals(6.0, read.mean(0, 0, 0), 0.0);
+        assertEquals(10.0, read.mean(1, 0, 1), 0.0);
+    }
+}
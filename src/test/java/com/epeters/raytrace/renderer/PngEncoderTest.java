@@ -0,0 +1,74 @@
+package com.epeters.raytrace.renderer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.Adler32;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PngEncoderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static int adler(byte [] data, int offset, int length) {
+        Adler32 adler = new Adler32();
+        adler.update(data, offset, length);
+        return (int) adler.getValue();
+    }
+
+    /** The checksum of two pieces joined together comes from the checksums of the pieces */
+    @Test
+    public void combineAdlerMatchesWholeChecksum() {
+        Random random = new Random(1L);
+        for (int length : new int[] { 0, 1, 100, 65520, 65521, 65522, 200_000 }) {
+            byte [] data = new byte[length];
+            random.nextBytes(data);
+            int whole = adler(data, 0, length);
+            for (int i=0; i<20; i++) {
+                int split = i == 0 ? 0 : i == 1 ? length : random.nextInt(length + 1);
+                int combined = PngEncoder.combineAdler(adler(data, 0, split), adler(data, split, length - split), length - split);
+                assertEquals("length "+length+" split at "+split, whole, combined);
+            }
+        }
+    }
+
+    /** Bands are compressed separately and stitched into one stream; a short last band included */
+    @Test
+    public void oddSizedImageDecodesToToneMappedRows() throws Exception {
+        int width = 37;
+        int height = 23;
+        Framebuffer buffer = new Framebuffer(width, height);
+        Random random = new Random(2L);
+        for (int y=0; y<height; y++) {
+            for (int x=0; x<width; x++) {
+                buffer.add(x, y, 1.5 * random.nextDouble(), 1.5 * random.nextDouble(), 1.5 * random.nextDouble(), 1);
+            }
+        }
+
+        Path path = folder.getRoot().toPath().resolve("odd.png");
+        PngEncoder.write(buffer, path, 5);
+        BufferedImage image = ImageIO.read(path.toFile());
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+
+        int [] expected = new int[width];
+        int [] actual = new int[width];
+        for (int y=0; y<height; y++) {
+            ToneMap.DEFAULT.rowToRgb(buffer, y, expected);
+            image.getRGB(0, y, width, 1, actual, 0, width);
+            for (int x=0; x<width; x++) {
+                expected[x] &= 0xffffff;
+                actual[x] &= 0xffffff;
+            }
+            assertArrayEquals("row "+y, expected, actual);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.epeters.raytrace.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class HaltonSamplerTest {
+
+    /** The first 2^k samples in base 2 must land one in each interval of width 2^-k, whatever the scramble */
+    @Test
+    public void base2IsStratified() {
+        for (int seed=0; seed<64; seed++) {
+            for (int k=1; k<=10; k++) {
+                int n = 1 << k;
+                boolean [] filled = new boolean[n];
+                for (int i=0; i<n; i++) {
+                    double value = HaltonSampler.radicalInverse(2, i, seed * 7919);
+                    assertTrue(value >= 0.0 && value < 1.0);
+                    filled[(int) (value * n)] = true;
+                }
+                for (int i=0; i<n; i++) {
+                    assertTrue("seed "+seed+", "+n+" samples miss interval "+i, filled[i]);
+                }
+            }
+        }
+    }
+}
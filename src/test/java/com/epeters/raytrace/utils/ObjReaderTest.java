@@ -0,0 +1,93 @@
+package com.epeters.raytrace.utils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class ObjReaderTest {
+
+    private static final int BLOCKS = 400;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Each block has four vertices, texture coordinates and one normal, then a quad with
+     * negative v/vt/vn indices, a triangle with absolute v//vn indices and one with negative
+     * v/vt indices. Lines end in CRLF, and the file ends in a comment without a line end.
+     */
+    private Path writeObj() throws Exception {
+        StringBuilder obj = new StringBuilder("# test mesh\r\n");
+        for (int k=0; k<BLOCKS; k++) {
+            obj.append("# block ").append(k).append("\r\n");
+            obj.append("v ").append(k).append(" 0 0\r\n");
+            obj.append("v ").append(k).append(".5 -.25 +3\r\n");
+            obj.append("v ").append(k).append(" 1.5e-1 1\r\n");
+            obj.append("v  ").append(k).append("\t2 -1E1\r\n");
+            obj.append("vt 0 0\r\nvt 1 0\r\nvt 1 1\r\nvt 0.5\r\n");
+            obj.append("vn 0 0 1\r\n");
+            obj.append("f -4/-4/-1 -3/-3/-1 -2/-2/-1 -1/-1/-1\r\n");
+            obj.append("f ").append(4 * k + 1).append("//").append(k + 1).append(' ')
+                    .append(4 * k + 3).append("//").append(k + 1).append(' ')
+                    .append(4 * k + 4).append("//").append(k + 1).append("\r\n");
+            obj.append("f -3/-3 -2/-2 -1/-1\r\n");
+        }
+        obj.append("# end");
+        Path path = folder.getRoot().toPath().resolve("test.obj");
+        Files.write(path, obj.toString().getBytes(StandardCharsets.US_ASCII));
+        return path;
+    }
+
+    /** Chunk boundaries fall in different places with more threads; the mesh must not change */
+    @Test
+    public void sameMeshWithOneChunkOrMany() throws Exception {
+        Path path = writeObj();
+        Mesh one = ObjReader.read(path, new ForkJoinPool(1));
+        Mesh many = ObjReader.read(path, new ForkJoinPool(13));
+
+        assertEquals(BLOCKS * 4, one.getVertexCount());
+        assertEquals(BLOCKS * 4, one.getTriangleCount());
+        assertArrayEquals(one.getPositions(), many.getPositions(), 0.0f);
+        assertArrayEquals(one.getIndices(), many.getIndices());
+        assertArrayEquals(one.getNormalIndices(), many.getNormalIndices());
+        assertArrayEquals(one.getTexCoordIndices(), many.getTexCoordIndices());
+        assertArrayEquals(one.getNormals(), many.getNormals(), 0.0f);
+        assertArrayEquals(one.getTexCoords(), many.getTexCoords(), 0.0f);
+    }
+
+    @Test
+    public void readsIndicesAndNumbers() throws Exception {
+        Mesh mesh = ObjReader.read(writeObj(), new ForkJoinPool(13));
+
+        // block 7: vertices 28-31, texture coordinates 28-31, normal 7
+        int k = 7;
+        int t = k * 4;
+        int v = k * 4;
+        assertArrayEquals(new int[] { v, v + 1, v + 2, v, v + 2, v + 3, v, v + 2, v + 3, v + 1, v + 2, v + 3 },
+                slice(mesh.getIndices(), t * 3, 12));
+        assertArrayEquals(new int[] { v, v + 1, v + 2, v, v + 2, v + 3, -1, -1, -1, v + 1, v + 2, v + 3 },
+                slice(mesh.getTexCoordIndices(), t * 3, 12));
+        assertArrayEquals(new int[] { k, k, k, k, k, k, k, k, k, -1, -1, -1 },
+                slice(mesh.getNormalIndices(), t * 3, 12));
+
+        assertEquals(new Vector(7.5, -0.25, 3.0), mesh.getVertex(v + 1));
+        assertEquals(new Vector(7.0, (float) 0.15, 1.0), mesh.getVertex(v + 2));
+        assertEquals(new Vector(7.0, 2.0, -10.0), mesh.getVertex(v + 3));
+        assertEquals(0.5f, mesh.getTexCoords()[(v + 3) * 2], 0.0f);
+        assertEquals(0.0f, mesh.getTexCoords()[(v + 3) * 2 + 1], 0.0f);
+    }
+
+    private static int [] slice(int [] array, int from, int length) {
+        int [] result = new int[length];
+        System.arraycopy(array, from, result, 0, length);
+        return result;
+    }
+}